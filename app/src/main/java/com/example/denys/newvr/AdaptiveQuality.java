@@ -0,0 +1,168 @@
+package com.example.denys.newvr;
+
+/**
+ * Picks the QUALITY preset of the depth perspective shader from measured frame times.
+ * <p>
+ * Frame intervals go into a rolling window. When the window average misses the target frame time
+ * the level steps down. Stepping up is a probe: after the current level held the target for a
+ * while the next level is tried, and if it has to be abandoned again the next probe waits twice as
+ * long. That keeps the level from oscillating on devices that sit right at the edge.
+ */
+public class AdaptiveQuality {
+
+    /** Lowest and highest QUALITY preset defined in depth_perspective.frag. */
+    public static final int MIN_LEVEL = 2;
+    public static final int MAX_LEVEL = 5;
+
+    /** Passed to {@link #pinLevel(int)} to go back to automatic selection. */
+    public static final int AUTO = 0;
+
+    /** Step down when the average frame is this much slower than the target. */
+    private static final float DOWN_FACTOR = 1.2f;
+
+    /** Only probe upwards when the average frame is at most this much slower than the target. */
+    private static final float UP_FACTOR = 1.05f;
+
+    /** Intervals longer than this are pauses, not frames. */
+    private static final long MAX_INTERVAL_NANOS = 250000000L;
+
+    private final long[] mWindow;
+    private int mWindowCount;
+    private int mWindowIndex;
+    private long mWindowSum;
+
+    private final int mBaseProbeFrames;
+    private final int mMaxProbeFrames;
+    private int mProbeFrames;
+    private boolean mProbing;
+    private int mFramesAtLevel;
+
+    private long mLastFrameNanos;
+    private volatile long mTargetFrameNanos;
+    private volatile int mLevel;
+    private volatile int mPinnedLevel = AUTO;
+
+    /**
+     * @param targetFps    Frame rate to hold
+     * @param windowSize   Number of frames averaged before a decision is taken
+     * @param initialLevel Level to start with
+     */
+    public AdaptiveQuality(int targetFps, int windowSize, int initialLevel) {
+        mWindow = new long[windowSize];
+        mBaseProbeFrames = windowSize * 4;
+        mMaxProbeFrames = windowSize * 64;
+        mProbeFrames = mBaseProbeFrames;
+        mLevel = clamp(initialLevel);
+        setTargetFps(targetFps);
+    }
+
+    public void setTargetFps(int targetFps) {
+        mTargetFrameNanos = 1000000000L / targetFps;
+    }
+
+    /**
+     * Fix the level, or pass {@link #AUTO} to let frame times decide again.
+     */
+    public void pinLevel(int level) {
+        mPinnedLevel = level == AUTO ? AUTO : clamp(level);
+    }
+
+    /**
+     * @return The level the next frame is drawn with
+     */
+    public int getLevel() {
+        int pinned = mPinnedLevel;
+        return pinned != AUTO ? pinned : mLevel;
+    }
+
+    /**
+     * @return The average frame time over the current window in milliseconds, 0 while empty
+     */
+    public float getAverageFrameMillis() {
+        return mWindowCount == 0 ? 0.0f : mWindowSum / (float) mWindowCount / 1000000.0f;
+    }
+
+    /**
+     * Report the start of a frame. Call this once per frame on the render thread.
+     *
+     * @param frameNanos Monotonic timestamp, e.g. {@link System#nanoTime()}
+     * @return The level to draw this frame with
+     */
+    public int onFrame(long frameNanos) {
+        long interval = frameNanos - mLastFrameNanos;
+        boolean first = mLastFrameNanos == 0;
+        mLastFrameNanos = frameNanos;
+
+        if (first || interval <= 0 || interval > MAX_INTERVAL_NANOS) {
+            return getLevel();
+        }
+
+        if (mPinnedLevel != AUTO) {
+            // Keep measuring, so switching back to automatic starts from fresh numbers.
+            record(interval);
+            return mPinnedLevel;
+        }
+
+        record(interval);
+        mFramesAtLevel++;
+
+        if (mWindowCount < mWindow.length) {
+            return mLevel;
+        }
+
+        long average = mWindowSum / mWindowCount;
+        long target = mTargetFrameNanos;
+
+        if (average > target * DOWN_FACTOR && mLevel > MIN_LEVEL) {
+            if (mProbing) {
+                // The level we probed could not be held, wait longer before trying it again.
+                mProbeFrames = Math.min(mProbeFrames * 2, mMaxProbeFrames);
+                mProbing = false;
+            }
+            changeLevel(mLevel - 1);
+        } else if (average <= target * UP_FACTOR) {
+            if (mProbing && mFramesAtLevel >= mProbeFrames) {
+                // The probed level held, next probes may come sooner again.
+                mProbing = false;
+                mProbeFrames = mBaseProbeFrames;
+            }
+            if (mFramesAtLevel >= mProbeFrames && mLevel < MAX_LEVEL) {
+                mProbing = true;
+                changeLevel(mLevel + 1);
+            }
+        }
+
+        return mLevel;
+    }
+
+    /**
+     * Report that drawing paused, e.g. because nothing changed. The time until the next frame is
+     * not a frame time and is left out of the average.
+     */
+    public void onIdle() {
+        mLastFrameNanos = 0;
+    }
+
+    private void record(long interval) {
+        if (mWindowCount == mWindow.length) {
+            mWindowSum -= mWindow[mWindowIndex];
+        } else {
+            mWindowCount++;
+        }
+        mWindow[mWindowIndex] = interval;
+        mWindowSum += interval;
+        mWindowIndex = (mWindowIndex + 1) % mWindow.length;
+    }
+
+    private void changeLevel(int level) {
+        mLevel = level;
+        mFramesAtLevel = 0;
+        mWindowCount = 0;
+        mWindowIndex = 0;
+        mWindowSum = 0;
+    }
+
+    private static int clamp(int level) {
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+    }
+}
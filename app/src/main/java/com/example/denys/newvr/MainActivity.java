@@ -1,11 +1,19 @@
 package com.example.denys.newvr;
 
 import android.os.Bundle;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
 import android.widget.FrameLayout;
 
 import org.artoolkit.ar.base.ARActivity;
 import org.artoolkit.ar.base.rendering.ARRenderer;
 
+import com.example.denys.newvr.gl.FramePacer;
+import com.example.denys.newvr.startup.StartupPipeline;
+import com.example.denys.newvr.tracking.TrackingThread;
+
 /**
  * This is the activity that gets called from the Android Framework, extended by the
  * ARToolKit Framework to add AR capability.
@@ -13,19 +21,82 @@ import org.artoolkit.ar.base.rendering.ARRenderer;
  */
 public class MainActivity extends ARActivity {
 
+    private static final String TAG = "MainActivity";
+
+    /** The display rate, frames between two camera frames show the predicted marker pose. */
+    private static final int MAX_FRAME_RATE = 60;
+
+    private ParallaxARRenderer mRenderer;
+    private volatile FramePacer mFramePacer;
+    private TrackingThread mTracking;
+
+    /** Counts camera previews, so a setup still waiting for the assets knows its preview stopped. */
+    private int mPreview;
+    private GestureDetector mSwipes;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
+
+        // Swipe sideways to step through the photos.
+        mSwipes = new GestureDetector(this, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent event) {
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent down, MotionEvent up, float velocityX, float velocityY) {
+                if (Math.abs(velocityX) <= Math.abs(velocityY)) {
+                    return false;
+                }
+                if (velocityX < 0) {
+                    mRenderer.getParallax().showNextPhoto();
+                } else {
+                    mRenderer.getParallax().showPreviousPhoto();
+                }
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        mFramePacer = new FramePacer(getGLView(), MAX_FRAME_RATE);
+        mRenderer.setFramePacer(mFramePacer);
+
+        // The view is created anew on every resume.
+        getGLView().setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View view, MotionEvent event) {
+                return mSwipes.onTouchEvent(event);
+            }
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        if (mFramePacer != null) {
+            mRenderer.setFramePacer(null);
+            mFramePacer.release();
+            mFramePacer = null;
+        }
+        super.onPause();
+        mRenderer.getParallax().onPause();
     }
 
     /**
      * Tell the ARToolKit which renderer to use. In this case we provide a subclass of
-     * {@link org.artoolkit.ar.base.rendering.gles20.ARRendererGLES20} renderer.
+     * {@link org.artoolkit.ar.base.rendering.gles20.ARRendererGLES20} renderer that draws the
+     * depth parallax image on the first marker and cubes on the others.
      */
     @Override
     protected ARRenderer supplyRenderer() {
-        return new SimpleGLES20Renderer();
+        // The markers are read from where the start up unpacks the assets to.
+        mRenderer = new ParallaxARRenderer(this, NewVRApplication.getStartup(), getCacheDir());
+        return mRenderer;
     }
 
     /**
@@ -35,4 +106,88 @@ public class MainActivity extends ARActivity {
     protected FrameLayout supplyFrameLayout() {
         return (FrameLayout) this.findViewById(R.id.mainLayout);
     }
-}
\ No newline at end of file
+
+    /**
+     * Tracking setup reads the camera parameters and markers from the unpacked assets, so it runs
+     * once they are, instead of holding up the main thread until then.
+     */
+    @Override
+    public void cameraPreviewStarted(final int width, final int height, final int rate, final int cameraIndex,
+                                     final boolean cameraIsFrontFacing) {
+        final int preview = ++mPreview;
+        NewVRApplication.getStartup().whenAssetsReady(new StartupPipeline.AssetsListener() {
+            @Override
+            public void onAssetsReady(boolean unpacked) {
+                // The preview stopped or the activity went away while the assets were unpacked.
+                if (preview != mPreview || isFinishing()) {
+                    return;
+                }
+                if (!unpacked) {
+                    Log.e(TAG, "Error unpacking assets. Cannot continue.");
+                    finish();
+                    return;
+                }
+                startTracking(width, height, rate, cameraIndex, cameraIsFrontFacing);
+            }
+        });
+    }
+
+    /**
+     * Set ARToolKit up for the camera, add the markers and start the tracking thread.
+     */
+    private void startTracking(int width, int height, int rate, int cameraIndex, boolean cameraIsFrontFacing) {
+        super.cameraPreviewStarted(width, height, rate, cameraIndex, cameraIsFrontFacing);
+        if (isFinishing()) {
+            return;
+        }
+
+        // ARToolKit was set up for this camera by now, the markers can be added.
+        if (renderer.configureARScene()) {
+            Log.i(TAG, "Scene configured successfully");
+        } else {
+            Log.e(TAG, "Error configuring scene. Cannot continue.");
+            finish();
+            return;
+        }
+
+        // NV21 preview frames.
+        mTracking = new TrackingThread(mRenderer.getMarkers(), width * height * 3 / 2,
+                new TrackingThread.Listener() {
+                    @Override
+                    public void onPosesChanged() {
+                        FramePacer framePacer = mFramePacer;
+                        if (framePacer != null) {
+                            framePacer.requestFrame();
+                        }
+                    }
+                }, mRenderer.getParallax().getMetrics());
+        mTracking.start();
+    }
+
+    /**
+     * Instead of detecting markers right away like {@link ARActivity}, hand the frame to the
+     * tracking thread, so the camera and the renderer never wait for a detection.
+     */
+    @Override
+    public void cameraPreviewFrame(byte[] frame) {
+        TrackingThread tracking = mTracking;
+        if (tracking != null) {
+            tracking.offerFrame(frame);
+        }
+    }
+
+    @Override
+    public void cameraPreviewStopped() {
+        // A setup still waiting for the assets must not start tracking for this preview.
+        mPreview++;
+
+        // ARToolKit is cleaned up next, no detection may still be running.
+        if (mTracking != null) {
+            Log.i(TAG, "Tracked " + mTracking.getTrackedFrames() + " frames, dropped "
+                    + mTracking.getDroppedFrames());
+            mTracking.release();
+            mTracking = null;
+        }
+        super.cameraPreviewStopped();
+    }
+}
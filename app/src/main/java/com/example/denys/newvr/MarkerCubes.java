@@ -0,0 +1,128 @@
+package com.example.denys.newvr;
+
+import android.opengl.GLES20;
+
+import com.example.denys.newvr.gl.Gl;
+import com.example.denys.newvr.gl.GlState;
+import com.example.denys.newvr.gl.InstanceBatch;
+import com.example.denys.newvr.gl.NativeBuffers;
+import com.example.denys.newvr.shader.SimpleProgramBinding;
+import com.example.denys.newvr.tracking.MarkerSet;
+import com.example.denys.newvr.tracking.PosePredictor;
+
+import org.artoolkit.ar.base.rendering.Cube;
+
+/**
+ * A cube on each visible marker of a {@link MarkerSet}, all in one {@link InstanceBatch} drawn with
+ * a single draw call, each placed where its marker is predicted to be when the frame is shown.
+ * <p>
+ * Draws with the cube program of {@link com.example.denys.newvr.shader.SimpleShaderProgram}, and
+ * makes every call through the {@link Gl} of its state shadow. GL thread only.
+ */
+public class MarkerCubes {
+
+    /** Floats per vertex of the cube geometry. */
+    private static final int POSITION_SIZE = 3;
+    private static final int COLOR_SIZE = 4;
+
+    /** Model view matrix of the batch, its vertices are already in camera space. */
+    private static final float[] IDENTITY = {
+            1.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, 1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 1.0f, 0.0f,
+            0.0f, 0.0f, 0.0f, 1.0f
+    };
+
+    private final GlState mGlState;
+    private final Gl mGl;
+    private final SimpleProgramBinding mBinding = new SimpleProgramBinding();
+    private int mProgramHandle;
+
+    private final InstanceBatch mBatch;
+
+    /** Smooths and predicts the pose of each marker, and the result for the marker being placed. */
+    private final PosePredictor[] mPredictors;
+    private final float[] mPredictedPose = new float[MarkerSet.POSE_SIZE];
+
+    /**
+     * @param cube        Geometry of one cube, in marker space
+     * @param markerCount How many markers there are, the most cubes drawn at once
+     */
+    public MarkerCubes(GlState glState, Cube cube, int markerCount) {
+        mGlState = glState;
+        mGl = glState.getGl();
+        mBatch = new InstanceBatch(
+                NativeBuffers.interleave(cube.getmVertexBuffer(), POSITION_SIZE, cube.getmColorBuffer(), COLOR_SIZE),
+                POSITION_SIZE + COLOR_SIZE, NativeBuffers.toArray(cube.getmIndexBuffer()), markerCount);
+        mBatch.setGlState(glState);
+        mPredictors = new PosePredictor[markerCount];
+        for (int i = 0; i < markerCount; i++) {
+            mPredictors[i] = new PosePredictor();
+        }
+    }
+
+    public int getMarkerCount() {
+        return mPredictors.length;
+    }
+
+    /**
+     * Draw with a program linked in a new context, and upload the batch into that context.
+     */
+    public void onSurfaceCreated(int programHandle) {
+        mProgramHandle = programHandle;
+        mBinding.bind(mGl, programHandle);
+        mBatch.invalidate();
+        mBatch.upload();
+    }
+
+    /**
+     * Delete the batch's buffers, in the context they were uploaded to.
+     */
+    public void release() {
+        mBatch.release();
+    }
+
+    /**
+     * Feed a detection to the predictors of the visible markers, reset those of the others, and
+     * draw a cube on each visible marker.
+     *
+     * @param poses      Visible poses one after the other, as from
+     *                   {@link MarkerSet#getVisiblePoses(float[], int[])}
+     * @param markers    Which marker each pose belongs to, in ascending order
+     * @param first      The first pose to draw a cube on, the ones before are left out
+     * @param count      How many poses there are
+     * @param detected   When the poses were detected, on the {@link System#nanoTime()} clock
+     * @param now        When the frame is drawn, on the same clock
+     * @param projection Projection matrix of the camera
+     * @return How many cubes were drawn
+     */
+    public int draw(float[] poses, int[] markers, int first, int count, long detected, long now,
+                    float[] projection) {
+        int next = first;
+        for (int marker = 0; marker < mPredictors.length; marker++) {
+            if (next < count && markers[next] == marker) {
+                final PosePredictor predictor = mPredictors[marker];
+                predictor.update(poses, next * MarkerSet.POSE_SIZE, detected);
+                predictor.predict(now, mPredictedPose);
+                mBatch.setInstance(next - first, mPredictedPose, 0);
+                next++;
+            } else {
+                mPredictors[marker].reset();
+            }
+        }
+
+        final int cubes = next - first;
+        if (cubes <= 0) {
+            return 0;
+        }
+        mGlState.enable(GLES20.GL_CULL_FACE);
+        mGlState.enable(GLES20.GL_DEPTH_TEST);
+        mGlState.frontFace(GLES20.GL_CW);
+
+        mGlState.useProgram(mProgramHandle);
+        mGl.glUniformMatrix4fv(mBinding.getProjectionMatrixHandle(), 1, false, projection, 0);
+        mGl.glUniformMatrix4fv(mBinding.getModelViewMatrixHandle(), 1, false, IDENTITY, 0);
+        mBatch.draw(cubes, mBinding.getPositionHandle(), mBinding.getColorHandle(), COLOR_SIZE, POSITION_SIZE);
+        return cubes;
+    }
+}
@@ -55,7 +55,7 @@ package com.example.denys.newvr;
 
 import android.app.Application;
 
-import org.artoolkit.ar.base.assets.AssetHelper;
+import com.example.denys.newvr.startup.StartupPipeline;
 
 /**
  * Android Framework application class. This is the main entry point into our Android application.
@@ -64,6 +64,9 @@ public class NewVRApplication extends Application {
 
     private static Application sInstance;
 
+    /** Unpacks the assets and runs the rest of start up concurrently. */
+    private static StartupPipeline sStartup;
+
     // Anywhere in the application where an instance is required, this method
     // can be used to retrieve it.
     public static Application getInstance() {
@@ -81,10 +84,15 @@ public class NewVRApplication extends Application {
     // in the application.
     protected void initializeInstance() {
 
-        // Unpack assets to cache directory so native library can read them.
-        // N.B.: If contents of assets folder changes, be sure to increment the
-        // versionCode integer in the AndroidManifest.xml file.
-        AssetHelper assetHelper = new AssetHelper(getAssets());
-        assetHelper.cacheAssetFolder(getInstance(), "Data");
+        // Unpack assets to cache directory so native library can read them, in the background.
+        // Only files that changed since the last launch are written.
+        sStartup = new StartupPipeline(this);
+    }
+
+    /**
+     * The start up work of this process, for waiting on it and timing the first frame.
+     */
+    public static StartupPipeline getStartup() {
+        return sStartup;
     }
 }
@@ -1,13 +1,7 @@
 package com.example.denys.newvr;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -15,320 +9,650 @@ import javax.microedition.khronos.opengles.GL10;
 import android.os.SystemClock;
 import android.content.Context;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.opengl.GLSurfaceView;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+
+import com.example.denys.newvr.gl.AndroidGl;
+import com.example.denys.newvr.gl.CountingGl;
+import com.example.denys.newvr.gl.FramePacer;
+import com.example.denys.newvr.gl.Gl;
+import com.example.denys.newvr.gl.GlState;
+import com.example.denys.newvr.input.FrameLatency;
+import com.example.denys.newvr.input.OffsetInput;
+import com.example.denys.newvr.metrics.FrameMetrics;
+import com.example.denys.newvr.startup.StartupPipeline;
+import com.example.denys.newvr.texture.Photo;
+import com.example.denys.newvr.texture.TextureLoader;
+import com.example.denys.newvr.video.VideoPlayback;
+import com.example.denys.newvr.video.VideoTexture;
 
 /**
  * This class implements our custom renderer. Note that the GL10 parameter passed in is unused for OpenGL ES 2.0
- * renderers -- the static class GLES20 is used instead.
+ * renderers -- frames are drawn through a {@link Gl}, GLES20 unless another one is passed in.
+ * <p>
+ * Photos are loaded by a {@link PhotoLoader}, video is played by a {@link VideoPlayback}, programs
+ * come from {@link ParallaxPrograms} and the quad is drawn by a {@link ParallaxPass}; this class
+ * holds the settings and puts a frame together from them.
  */
 public class NewVrRenderer implements GLSurfaceView.Renderer
 {
-    private final Context mActivityContext;
+    /** Parallax programs per preset and variant, and the pass's own programs. */
+    private final ParallaxPrograms mPrograms;
 
-    /** Store our model data in a float buffer. */
-    private final FloatBuffer mSquarePositions;
-    private final FloatBuffer mSquareTextureCoordinates;
+    /**
+     * Picks the preset to draw with from measured frame times.
+     */
+    private final AdaptiveQuality mQuality = new AdaptiveQuality(60, 30, 3);
 
-    /** This will be used to pass in model position information. */
-    private int mPositionHandle;
+    /** Whether programs are built with empty space skipping, as requested and as in effect. */
+    private volatile boolean mEmptySkipRequested = true;
+    private boolean mEmptySkip;
 
     /**
-     * This will be used to pass in model texture coordinate information.
+     * Whether color and depth share one RGBA texture with depth in alpha, as requested and as in
+     * effect. The color texture of a photo then holds both and it has no depth texture.
      */
-    private int mTextureCoordinateHandle;
+    private volatile boolean mPackedRequested = true;
+    private boolean mPacked;
+
+    /** Texture memory uploaded photos may take by default, several photos of a large display. */
+    public static final long DEFAULT_TEXTURE_BUDGET = PhotoLoader.DEFAULT_TEXTURE_BUDGET;
 
-    /** How many bytes per float. */
-    private final int mBytesPerFloat = 4;
+    /** Decodes and uploads the photos and keeps their textures. */
+    private final PhotoLoader mPhotos;
 
-    /** Size of the position data in elements. */
-    private final int mPositionDataSize = 3;
+    /** Video to play instead of the photos. */
+    private final VideoPlayback mVideo;
+
+    /** Asks for a frame when a decoder or an upload finished. */
+    private final Runnable mFrameRequester = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            requestFrame();
+        }
+    };
 
     /**
-     * Size of the texture coordinate data in elements.
+     * Texture size the images are decoded for before there is a context to ask. Checked against
+     * the real limit once the surface exists.
      */
-    private final int mTextureCoordinateDataSize = 2;
+    private static final int PREFETCH_MAX_SIZE = 2048;
+
+    /** Coordinates start up work and times it, null if there is none. */
+    private final StartupPipeline mStartup;
+
+    /** GL_MAX_TEXTURE_SIZE of the current context. */
+    private int mMaxTextureSize;
 
     /**
-     * This is a handle to our per-vertex cube shading program.
+     * Issues frames on demand, null to be drawn by whoever owns the view as often as it likes.
      */
-    private int mProgramHandle;
+    private volatile FramePacer mFramePacer;
 
     /**
-     * This is a handle to our texture data.
+     * Whether the offset circles on its own, otherwise it only changes through {@link #setOffset}.
+     * Off unless asked for, an animated frame asks for the next one and so never lets drawing idle.
      */
-    private int mTextureDataHandle;
+    private volatile boolean mAnimated;
+
+    /** Drives the offset when set, ahead of animation and {@link #setOffset}. */
+    private volatile OffsetInput mOffsetInput;
+
+    /** Stage timings and GL call counts of the last frames. */
+    private final FrameMetrics mMetrics = new FrameMetrics(300);
+
+    /** Predicts when the frame being drawn reaches the screen. */
+    private final FrameLatency mFrameLatency = new FrameLatency();
+
+    /** Offset predicted by {@link #mOffsetInput} for the current frame. */
+    private final float[] mPredictedOffset = new float[2];
+
+    /** Parallax inputs, set from any thread. */
+    private volatile float mOffsetX;
+    private volatile float mOffsetY;
+    private volatile float mFocus = 0.5f;
 
     /**
-     * This will be used to pass in the texture.
+     * Fraction of the surface resolution the parallax is drawn at, then stretched onto the surface.
      */
-    private int mTextureUniformHandle;
+    private volatile float mRenderScale = 1.0f;
+
+    /** Where the GL calls of a frame go, counted for the metrics. */
+    private final CountingGl mGl;
+
+    /** Shadow of the GL state, so unchanged state isn't set again every frame. */
+    private final GlState mGlState;
+
+    /** Draws the quad, offscreen and per eye if asked to, with the calls going to {@link #mGl}. */
+    private final ParallaxPass mParallax;
+
+    /** Whether both eyes are drawn side by side, and how far apart they are in millimetres. */
+    private volatile boolean mStereo;
+    private volatile float mInterpupillaryDistance = DEFAULT_INTERPUPILLARY_DISTANCE;
+
+    /** A typical adult interpupillary distance. */
+    public static final float DEFAULT_INTERPUPILLARY_DISTANCE = 63.0f;
 
     /**
-     * This is a handle to our texture data.
+     * Sideways eye movement in millimetres that an offset of 1 stands for, the reach of leaning
+     * around in front of the image.
      */
-    private int mDepthDataHandle;
+    private static final float OFFSET_RANGE = 100.0f;
+
+    /** Radial lens distortion coefficients, both 0 to draw stereo without the distortion pass. */
+    private volatile float mDistortionK1;
+    private volatile float mDistortionK2;
 
     /**
-     * This will be used to pass in the texture.
+     * Color the surface is cleared with, offscreen passes put it back after clearing. Set from any
+     * thread: the array is replaced, never written to, so the volatile reference hands it over whole.
      */
-    private int mDepthUniformHandle;
+    private volatile float[] mClearColor = {0.0f, 0.0f, 1.0f, 0.0f};
 
     /**
      * Initialize the model data.
      */
     public NewVrRenderer(final Context activityContext)
     {
-        mActivityContext = activityContext;
-
-        // X, Y, Z
-        final float[] squarePositionsData =
-                {
-                        -1.0f, 1.0f, 0.0f,
-                        -1.0f, -1.0f, 0.0f,
-                        1.0f, 1.0f, 0.0f,
-                        -1.0f, -1.0f, 0.0f,
-                        1.0f, -1.0f, 0.0f,
-                        1.0f, 1.0f, 0.0f
-                };
-
-        final float[] squareTextureCoordinateData =
-                {
-                        // Front face
-                        0.0f, 0.0f,
-                        0.0f, 1.0f,
-                        1.0f, 0.0f,
-                        0.0f, 1.0f,
-                        1.0f, 1.0f,
-                        1.0f, 0.0f
-                };
-
-
-        // Initialize the buffers.
-        mSquarePositions = ByteBuffer.allocateDirect(squarePositionsData.length * mBytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mSquarePositions.put(squarePositionsData).position(0);
-
-        mSquareTextureCoordinates = ByteBuffer.allocateDirect(squareTextureCoordinateData.length * mBytesPerFloat)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mSquareTextureCoordinates.put(squareTextureCoordinateData).position(0);
-    }
-
-    protected int loadShaderFromResource(final int resourceId, int shaderType)
-    {
-        final InputStream inputStream = mActivityContext.getResources().openRawResource(
-                resourceId);
-        final InputStreamReader inputStreamReader = new InputStreamReader(
-                inputStream);
-        final BufferedReader bufferedReader = new BufferedReader(
-                inputStreamReader);
-
-        final StringBuilder body = new StringBuilder();
-        String nextLine;
-        try
-        {
-            while ((nextLine = bufferedReader.readLine()) != null)
-            {
-                body.append(nextLine);
-                body.append('\n');
-            }
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException("Error reading shader source.");
-        }
+        this(activityContext, null);
+    }
 
-        String source = body.toString();
+    /**
+     * Initialize the model data and start decoding the images for the display size.
+     *
+     * @param startup Start up work to share workers and shader sources with and to report to,
+     *                may be null
+     */
+    public NewVrRenderer(final Context activityContext, StartupPipeline startup)
+    {
+        this(activityContext, startup, AndroidGl.INSTANCE);
+    }
 
-        // Load in the shader.
-        int shaderHandle = GLES20.glCreateShader(shaderType);
+    /**
+     * Initialize the model data and start decoding the images for the display size.
+     *
+     * @param startup Start up work to share workers and shader sources with and to report to,
+     *                may be null
+     * @param gl      Where the calls of each frame go; shaders and textures are still compiled and
+     *                uploaded through GLES20
+     */
+    public NewVrRenderer(final Context activityContext, StartupPipeline startup, Gl gl)
+    {
+        mGl = new CountingGl(gl);
+        mGlState = new GlState(mGl);
+        mParallax = new ParallaxPass(mGlState);
+        mStartup = startup;
+        mPrograms = new ParallaxPrograms(activityContext, startup, mGlState);
+        mVideo = new VideoPlayback(mGlState, mFrameRequester);
+
+        final ExecutorService decodeExecutor = startup != null ? startup.getWorkers()
+                : TextureLoader.newDecodeExecutor(2);
+        mPhotos = new PhotoLoader(activityContext.getResources(), decodeExecutor, mGl, startup, mFrameRequester);
+
+        // Decode the first photo while the surface comes up, the surface is rarely larger than the display.
+        final DisplayMetrics display = activityContext.getResources().getDisplayMetrics();
+        mPhotos.requestTextures(Math.max(display.widthPixels, display.heightPixels), PREFETCH_MAX_SIZE,
+                mEmptySkipRequested, mPackedRequested);
+    }
 
-        if (shaderHandle == 0)
-        {
-            throw new RuntimeException("Error creating vertex shader.");
-        }
+    /**
+     * Set the photos to browse and show the first one. Photos uploaded before stay cached.
+     */
+    public void setPhotos(List<Photo> photos)
+    {
+        mPhotos.setPhotos(photos);
+        requestFrame();
+    }
 
-        // Pass in the shader source.
-        GLES20.glShaderSource(shaderHandle, source);
+    public int getPhotoCount()
+    {
+        return mPhotos.getPhotoCount();
+    }
 
-        // Compile the shader.
-        GLES20.glCompileShader(shaderHandle);
+    /**
+     * Show a photo by its index, which wraps around in both directions. The photo on screen stays
+     * until the new one is uploaded; the photos next to it are decoded ahead, so stepping on to
+     * them is usually immediate. Call from one thread, like the main thread.
+     */
+    public void showPhoto(int index)
+    {
+        mPhotos.showPhoto(index);
+        requestFrame();
+    }
 
-        // Get the compilation status.
-        final int[] compileStatus = new int[1];
-        GLES20.glGetShaderiv(shaderHandle, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+    public void showNextPhoto()
+    {
+        showPhoto(mPhotos.getRequestedPhoto() + 1);
+    }
 
-        // If the compilation failed, delete the shader.
-        if (compileStatus[0] == 0)
-        {
-            String error = GLES20.glGetShaderInfoLog(shaderHandle);
-            GLES20.glDeleteShader(shaderHandle);
-            throw new RuntimeException("Error 1 compiling shader" + error);
-        }
+    public void showPreviousPhoto()
+    {
+        showPhoto(mPhotos.getRequestedPhoto() - 1);
+    }
 
-        return shaderHandle;
+    /**
+     * Play a video instead of the photos, or pass null to go back to them. Each frame holds color
+     * in its top half and depth in its bottom half. Frames are decoded by MediaCodec straight into
+     * an external texture that VIDEO variants of the parallax programs sample, so they never pass
+     * through Java memory, and are shown on the audio clock. Needs API 16.
+     *
+     * @param path A file path or URL of the video
+     */
+    public void setVideo(String path)
+    {
+        mVideo.setVideo(path);
+        requestFrame();
     }
 
-    public int loadTextureFromResource(final int resourceId) {
-        final int[] textureHandle = new int[1];
+    /**
+     * Set the texture memory uploaded photos may take. The photo on screen is kept regardless, and
+     * neighbours are only decoded ahead as far as they fit. Takes effect on the next frame.
+     */
+    public void setTextureCacheBudget(long bytes)
+    {
+        mPhotos.setTextureCacheBudget(bytes);
+        requestFrame();
+    }
 
-        GLES20.glGenTextures(1, textureHandle, 0);
+    /**
+     * Decode the color image as RGB565 instead of RGBA, half the memory at slightly visible
+     * banding. Takes effect the next time the surface is created.
+     */
+    public void setUseRgb565(boolean useRgb565)
+    {
+        mPhotos.setUseRgb565(useRgb565);
+    }
 
-        if (textureHandle[0] != 0) {
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inScaled = false;    // No pre-scaling
+    /**
+     * Skip empty space in the raymarch with a max depth pyramid. Takes effect the next time the
+     * surface is created.
+     */
+    public void setEmptySpaceSkipping(boolean emptySkip)
+    {
+        mEmptySkipRequested = emptySkip;
+    }
 
-            // Read in the resource
-            final Bitmap bitmap = BitmapFactory.decodeResource(mActivityContext.getResources(), resourceId, options);
+    /**
+     * Pack color and depth into a single RGBA texture, one texture bind and sampler less per frame
+     * and one fetch less per step where the color needs no correction. Packed color is always
+     * decoded as RGBA. Takes effect the next time the surface is created.
+     */
+    public void setPackedTextures(boolean packed)
+    {
+        mPackedRequested = packed;
+    }
 
-            // Bind to the texture in OpenGL
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+    /**
+     * Build the parallax programs with extra defines, like {@code "METHOD 2"}, {@code "ANTIALIAS 0"}
+     * or {@code "DEBUG 1"}, on top of each QUALITY preset. Takes effect on the next frame; stages
+     * compiled before are reused, so switching back and forth only links.
+     */
+    public void setShaderDefines(String... defines)
+    {
+        mPrograms.setShaderDefines(defines);
+        requestFrame();
+    }
 
-            // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+    /**
+     * Draw on demand: frames are requested from the pacer only when the offset or focus change, or
+     * on every paced frame while animated. Pass null to go back to being drawn continuously.
+     */
+    public void setFramePacer(FramePacer framePacer)
+    {
+        mFramePacer = framePacer;
+        requestFrame();
+    }
 
-            // Load the bitmap into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+    /**
+     * Take the offset from device rotation or touch, predicted to the time the frame is shown.
+     * Pass null to go back to {@link #setOffset} or animation.
+     */
+    public void setOffsetInput(OffsetInput offsetInput)
+    {
+        mOffsetInput = offsetInput;
+        requestFrame();
+    }
 
-            // Recycle the bitmap, since its data has been loaded into OpenGL.
-            bitmap.recycle();
+    /**
+     * Let the offset circle on its own, or hold it at what {@link #setOffset} sets (default).
+     * While animated, every frame asks the pacer for the next one, so frames are drawn at the
+     * display rate; turn it on only where continuous motion is wanted.
+     */
+    public void setAnimated(boolean animated)
+    {
+        mAnimated = animated;
+        requestFrame();
+    }
+
+    /**
+     * Set the parallax offset, used while not animated. Each component is in [-1, 1].
+     */
+    public void setOffset(float x, float y)
+    {
+        if (x != mOffsetX || y != mOffsetY)
+        {
+            mOffsetX = x;
+            mOffsetY = y;
+            requestFrame();
+        }
+    }
+
+    /**
+     * Set the depth that stays in place while the offset moves, 0 is far and 1 is near.
+     */
+    public void setFocus(float focus)
+    {
+        if (focus != mFocus)
+        {
+            mFocus = focus;
+            requestFrame();
         }
+    }
 
-        if (textureHandle[0] == 0) {
-            throw new RuntimeException("Error loading texture.");
+    private void requestFrame()
+    {
+        final FramePacer framePacer = mFramePacer;
+        if (framePacer != null)
+        {
+            framePacer.requestFrame();
         }
+    }
 
-        return textureHandle[0];
+    /**
+     * Set the frame rate the adaptive quality tries to hold.
+     */
+    public void setTargetFrameRate(int fps)
+    {
+        mQuality.setTargetFps(fps);
     }
 
-    @Override
-    public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
-        // Set the background clear color to black.
-        GLES20.glClearColor(0.0f, 0.0f, 1.0f, 0.0f);
+    /**
+     * Fix the QUALITY preset, between {@link AdaptiveQuality#MIN_LEVEL} and
+     * {@link AdaptiveQuality#MAX_LEVEL}, or pass {@link AdaptiveQuality#AUTO} to adapt to frame times.
+     */
+    public void pinQualityLevel(int level)
+    {
+        mQuality.pinLevel(level);
+    }
 
-        // Use culling to remove back faces.
-        GLES20.glEnable(GLES20.GL_CULL_FACE);
+    /**
+     * @return The QUALITY preset frames are currently drawn with
+     */
+    public int getQualityLevel()
+    {
+        return mQuality.getLevel();
+    }
 
-        // Enable depth testing
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    /**
+     * @return Timings of the last frames, for logging or dumping on demand
+     */
+    public FrameMetrics getMetrics()
+    {
+        return mMetrics;
+    }
 
-        // Load in the vertex shader.
-        int vertexShaderHandle = loadShaderFromResource(R.raw.vertex_shader, GLES20.GL_VERTEX_SHADER);
+    /**
+     * The shadow of the GL state this renderer draws with, for a renderer drawing it as part of
+     * its own frame to set state through.
+     */
+    public GlState getGlState()
+    {
+        return mGlState;
+    }
 
-        // Load in the fragment shader shader.
-        int fragmentShaderHandle = loadShaderFromResource(R.raw.depth_perspective, GLES20.GL_FRAGMENT_SHADER);
+    /**
+     * Draw the parallax at a fraction of the surface resolution and stretch it onto the surface.
+     * The raymarch runs per pixel, so its cost drops with the square of the scale. Can be changed
+     * at any time, 1 draws straight to the surface.
+     */
+    public void setRenderScale(float renderScale)
+    {
+        mRenderScale = Math.max(0.1f, Math.min(1.0f, renderScale));
+        requestFrame();
+    }
 
-        // Create a program object and store the handle to it.
-        mProgramHandle = GLES20.glCreateProgram();
+    public float getRenderScale()
+    {
+        return mRenderScale;
+    }
 
-        if (mProgramHandle != 0)
-        {
-            // Bind the vertex shader to the program.
-            GLES20.glAttachShader(mProgramHandle, vertexShaderHandle);
+    /**
+     * Draw a view for each eye into the two halves of the surface, for a head mounted viewer. Both
+     * views come from one pass: program, textures and geometry are set up once and only the
+     * viewport and the offset change per eye, and together they cover as many pixels as one mono
+     * view, so frame times stay close to mono.
+     */
+    public void setStereo(boolean stereo)
+    {
+        mStereo = stereo;
+        requestFrame();
+    }
 
-            // Bind the fragment shader to the program.
-            GLES20.glAttachShader(mProgramHandle, fragmentShaderHandle);
+    /**
+     * Set the distance between the eyes in millimetres, which sets how far apart the offsets of
+     * the two views are.
+     */
+    public void setInterpupillaryDistance(float millimetres)
+    {
+        mInterpupillaryDistance = millimetres;
+        requestFrame();
+    }
 
-            // Bind attributes
-            GLES20.glBindAttribLocation(mProgramHandle, 0, "a_Position");
-            GLES20.glBindAttribLocation(mProgramHandle, 1, "a_TexCoordinate");
+    /**
+     * Correct stereo views for the pincushion distortion of a viewer's lenses, with the radial
+     * coefficients of its lens model: {@code r' = r * (1 + k1 * r^2 + k2 * r^4)}, r measured from
+     * the centre of an eye in units of half its height. The views are then drawn offscreen and
+     * distorted in a second pass. Pass 0 for both to turn it off.
+     */
+    public void setLensDistortion(float k1, float k2)
+    {
+        mDistortionK1 = k1;
+        mDistortionK2 = k2;
+        requestFrame();
+    }
 
-            // Link the two shaders together into a program.
-            GLES20.glLinkProgram(mProgramHandle);
+    /**
+     * Color the surface is cleared with. Takes effect the next time the surface is created.
+     */
+    public void setClearColor(float red, float green, float blue, float alpha)
+    {
+        mClearColor = new float[]{red, green, blue, alpha};
+    }
 
-            // Get the link status.
-            final int[] linkStatus = new int[1];
-            GLES20.glGetProgramiv(mProgramHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
+    /**
+     * Switch between vertex buffer objects (default) and client side arrays, for drivers that
+     * misbehave with buffer objects.
+     */
+    public void setUseVertexBuffers(boolean useVertexBuffers)
+    {
+        mParallax.setUseVertexBuffers(useVertexBuffers);
+    }
 
-            // If the link failed, delete the program.
-            if (linkStatus[0] == 0) {
-                GLES20.glDeleteProgram(mProgramHandle);
-                mProgramHandle = 0;
-            }
-        }
+    @Override
+    public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
+        // Any locations we still hold belong to a lost context.
+        mParallax.invalidate();
+        mGlState.invalidate();
+        mMetrics.onSurfaceCreated();
+
+        // Set the background clear color.
+        final float[] clearColor = mClearColor;
+        mGl.glClearColor(clearColor[0], clearColor[1], clearColor[2], clearColor[3]);
+
+        // Use culling to remove back faces.
+        mGlState.enable(GLES20.GL_CULL_FACE);
 
-        if (mProgramHandle == 0)
+        // Enable depth testing
+        mGlState.enable(GLES20.GL_DEPTH_TEST);
+
+        mEmptySkip = mEmptySkipRequested;
+        mPacked = mPackedRequested;
+        mMaxTextureSize = TextureLoader.getMaxTextureSize();
+
+        // Uploads in flight went to the old context and are gone with it, as are the cached textures.
+        mPhotos.onSurfaceCreated(mMaxTextureSize, mEmptySkip, mPacked);
+
+        // The video texture went too, the video continues where it was once drawing starts.
+        mVideo.stop(false);
+
+        mPrograms.onSurfaceCreated(mEmptySkip, mPacked, mVideo.hasVideo());
+        if (mStartup != null)
         {
-            throw new RuntimeException("Error creating program.");
+            mStartup.mark(StartupPipeline.STAGE_PROGRAMS);
         }
 
-        // Load the texture
-        mTextureDataHandle = loadTextureFromResource(R.drawable.mango);
-        mDepthDataHandle = loadTextureFromResource(R.drawable.mango_depthmap);
+        mParallax.onSurfaceCreated(mPrograms.loadBlitProgram());
+    }
+
+    /**
+     * Let go of the background upload context and stop the video. Call after the surface was
+     * paused: the context shares objects with the surface's and would keep its textures alive.
+     */
+    public void onPause()
+    {
+        mVideo.stop(false);
+        mPhotos.onPause();
     }
 
     @Override
     public void onSurfaceChanged(GL10 glUnused, int width, int height)
     {
         // Set the OpenGL viewport to the same size as the surface.
-        GLES20.glViewport(0, 0, width, height);
-     }
+        mGlState.viewport(0, 0, width, height);
+        mParallax.setSurfaceSize(width, height);
+
+        mPhotos.onSurfaceChanged(Math.max(width, height), mMaxTextureSize, mEmptySkip, mPacked);
+    }
 
     @Override
     public void onDrawFrame(GL10 glUnused)
     {
-        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
-
-        // Do a complete rotation every 10 seconds.
-        long time = SystemClock.uptimeMillis() % 10000L;
-        float angle = ((float) Math.PI / 5000.0f) * ((int) time);
+        mGl.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
-        // Tell OpenGL to use this program when rendering.
-        GLES20.glUseProgram(mProgramHandle);
-
-        // Set program handles. These will later be used to pass in values to the program.
-        mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
-        mDepthUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Depth");
+        drawParallax(ParallaxPass.IDENTITY);
+        if (mStartup != null)
+        {
+            mStartup.onFirstFrame();
+        }
+    }
 
-        mPositionHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_Position");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgramHandle, "a_TexCoordinate");
+    /**
+     * Draw the parallax quad into the current framebuffer without clearing it, so it can be part
+     * of another renderer's frame. Must be called on the GL thread, after
+     * {@link #onSurfaceCreated} and {@link #onSurfaceChanged}.
+     *
+     * @param mvpMatrix Maps the quad, -1 to 1 on x and y, to clip space
+     * @return False while the images are still loading and nothing was drawn
+     */
+    public boolean drawParallax(float[] mvpMatrix)
+    {
+        final FramePacer framePacer = mFramePacer;
 
-        int uScaleHandle = GLES20.glGetUniformLocation(mProgramHandle, "scale");
-        int uOffsetHandle = GLES20.glGetUniformLocation(mProgramHandle, "offset");
-        int uFocusHandle = GLES20.glGetUniformLocation(mProgramHandle, "focus");
+        mMetrics.beginFrame();
+        mMetrics.begin(FrameMetrics.STAGE_SETUP);
 
-        // focus config
-        // GLES20.glUniform2f(uOffsetHandle, (float) Math.sin(angle), 0.0f);
-        GLES20.glUniform2f(uOffsetHandle, (float) Math.sin(angle), (float) Math.cos(angle));
-        GLES20.glUniform1f(uScaleHandle, 0.07f); // magic number
-        GLES20.glUniform1f(uFocusHandle, 0.5f);
+        final VideoTexture video = mVideo.update();
+        mPrograms.update(video != null);
 
-        // Load texture. Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        // Uploads, evictions and new video frames bind and delete textures behind the shadow.
+        if (video != null || mPhotos.isChangingTextures())
+        {
+            mGlState.invalidateTextures();
+        }
 
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
+        // Nothing to draw until the images of a photo have been decoded and uploaded, or the first
+        // video frame was decoded.
+        final PhotoLoader.PhotoTextures textures = video != null ? null : mPhotos.update();
+        if (video != null ? !video.update() : textures == null)
+        {
+            if (framePacer != null)
+            {
+                // Poll until the decoders are done, nothing else will ask for a frame.
+                framePacer.requestFrame();
+            }
+            mMetrics.end(FrameMetrics.STAGE_SETUP);
+            mMetrics.countCalls(mGl);
+            mMetrics.countState(mGlState);
+            mMetrics.endFrame();
+            return false;
+        }
+        if (mStartup != null)
+        {
+            mStartup.mark(StartupPipeline.STAGE_TEXTURES);
+        }
 
-        // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
+        final long displayNanos = mFrameLatency.beginFrame(System.nanoTime());
 
-        // Load depth. Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        float offsetX = mOffsetX;
+        float offsetY = mOffsetY;
+        final OffsetInput offsetInput = mOffsetInput;
+        if (offsetInput != null)
+        {
+            if (offsetInput.predict(displayNanos, mPredictedOffset))
+            {
+                offsetX = mPredictedOffset[0];
+                offsetY = mPredictedOffset[1];
+            }
+        }
+        else if (mAnimated)
+        {
+            // Do a complete rotation every 10 seconds.
+            long time = SystemClock.uptimeMillis() % 10000L;
+            float angle = ((float) Math.PI / 5000.0f) * ((int) time);
+            offsetX = (float) Math.sin(angle);
+            offsetY = (float) Math.cos(angle);
 
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mDepthDataHandle);
+            if (framePacer != null)
+            {
+                framePacer.requestFrame();
+            }
+        }
 
-        // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mDepthUniformHandle, 1);
+        // Frames drawn on demand after a pause don't tell how fast drawing is.
+        if (framePacer != null && !framePacer.isContinuous())
+        {
+            mQuality.onIdle();
+        }
 
-        // Pass in the position information
-        mSquarePositions.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, mPositionDataSize, GLES20.GL_FLOAT, false,
-                0, mSquarePositions);
+        // Below full scale, draw into a smaller target and stretch it onto the surface afterwards.
+        // Lens distortion needs the frame in a texture too.
+        mParallax.begin(mRenderScale, mStereo, mInterpupillaryDistance / 2.0f / OFFSET_RANGE,
+                mDistortionK1, mDistortionK2, mClearColor);
+        if (mParallax.isDistorted() && !mParallax.hasDistortProgram())
+        {
+            mParallax.setDistortProgram(mPrograms.loadDistortProgram());
+        }
 
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        // Pick the preset that holds the target frame rate.
+        final int variant = mQuality.onFrame(System.nanoTime()) - AdaptiveQuality.MIN_LEVEL;
+        mMetrics.end(FrameMetrics.STAGE_SETUP);
 
-        // Pass in the texture coordinate information
-        mSquareTextureCoordinates.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, mTextureCoordinateDataSize, GLES20.GL_FLOAT, false,
-                0, mSquareTextureCoordinates);
+        mMetrics.begin(FrameMetrics.STAGE_UNIFORMS);
+        mParallax.bindProgram(mPrograms.getProgramHandle(variant), mPrograms.getBinding(variant), mvpMatrix,
+                offsetX, offsetY, mFocus);
+        if (video != null)
+        {
+            mParallax.bindVideo(video.getTextureHandle(), video.getTransform());
+        }
+        else
+        {
+            // A packed texture already carries depth in alpha.
+            mParallax.bindPhoto(textures.colorHandle, mPacked ? 0 : textures.depthHandle,
+                    mEmptySkip ? textures.depthMaxHandle : 0, textures.depthWidth, textures.depthHeight,
+                    textures.depthMaxScaleX, textures.depthMaxScaleY);
+        }
+        mMetrics.end(FrameMetrics.STAGE_UNIFORMS);
 
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        mMetrics.begin(FrameMetrics.STAGE_DRAW);
+        mParallax.draw();
+        mMetrics.end(FrameMetrics.STAGE_DRAW);
+        mMetrics.countCalls(mGl);
+        mMetrics.countState(mGlState);
+        mMetrics.endFrame();
 
-        // Draw the cube.
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6); // 6 length of mSquarePositions
+        mFrameLatency.endFrame(System.nanoTime());
+        return true;
     }
 }
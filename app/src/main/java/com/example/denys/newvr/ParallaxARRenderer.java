@@ -0,0 +1,235 @@
+package com.example.denys.newvr;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import org.artoolkit.ar.base.ARToolKit;
+import org.artoolkit.ar.base.rendering.Cube;
+import org.artoolkit.ar.base.rendering.gles20.ARRendererGLES20;
+
+import com.example.denys.newvr.gl.FramePacer;
+import com.example.denys.newvr.gl.GlState;
+import com.example.denys.newvr.metrics.FrameMetrics;
+import com.example.denys.newvr.shader.ShaderLibrary;
+import com.example.denys.newvr.shader.SimpleFragmentShader;
+import com.example.denys.newvr.shader.SimpleShaderProgram;
+import com.example.denys.newvr.shader.SimpleVertexShader;
+import com.example.denys.newvr.startup.StartupPipeline;
+import com.example.denys.newvr.tracking.MarkerSet;
+import com.example.denys.newvr.tracking.PoseMath;
+import com.example.denys.newvr.tracking.PosePredictor;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Draws the depth parallax image on the first marker of {@link MarkerSet#MARKERS_FILE},
+ * over the camera image, in the AR surface's own draw pass, and a cube on every other visible
+ * marker with {@link MarkerCubes}.
+ * <p>
+ * The marker pose places the quad and also drives the effect: the direction the camera looks at
+ * the marker from becomes the parallax offset, so the image seems to have depth behind the marker.
+ * <p>
+ * Tracking runs at the camera rate on its own thread. Frames are drawn at the display rate with
+ * the pose predicted for the moment of drawing, so frames between two detections still move.
+ */
+public class ParallaxARRenderer extends ARRendererGLES20 {
+
+    private static final String TAG = "ParallaxARRenderer";
+
+    /** The marker the image is drawn on, the others get cubes. */
+    private static final int IMAGE_MARKER = 0;
+
+    /** Half the size of the image on the marker in millimetres, 4:3 like the images. */
+    private static final float HALF_WIDTH = 80.0f;
+    private static final float HALF_HEIGHT = 60.0f;
+
+    /** Viewing angle off the marker normal that moves the offset to its edge. */
+    private static final float MAX_VIEW_ANGLE = (float) Math.toRadians(35.0);
+
+    /** A frame is drawn while the last detection is younger than this, the camera frame interval. */
+    private static final long DETECTION_INTERVAL_NANOS = 33333333L;
+
+    private final File mMarkersFile;
+    private volatile MarkerSet mMarkers;
+    private final PosePredictor mPredictor = new PosePredictor();
+    private volatile FramePacer mFramePacer;
+
+    private final NewVrRenderer mParallax;
+    private final StartupPipeline mStartup;
+
+    private final float[] mMVPMatrix = new float[16];
+    private final float[] mOffset = new float[2];
+    private final float[] mPose = new float[MarkerSet.POSE_SIZE];
+
+    /**
+     * Projection of the camera, fetched once the scene is configured. ARToolKit has no query that
+     * fills the caller's array, each one returns a new array, so ours is not repeated per frame.
+     * The base class's draw() still queries it every frame for its own program.
+     */
+    private volatile float[] mProjection;
+
+    /** Visible poses of the frame being drawn and their markers, sized once the markers are known. */
+    private float[] mPoses;
+    private int[] mVisible;
+
+    private final Cube mCube = new Cube(40.0f, 0.0f, 0.0f, 20.0f);
+    private MarkerCubes mCubes;
+    private SimpleShaderProgram mCubeProgram;
+    private final ShaderLibrary mShaderLibrary = new ShaderLibrary(null);
+
+    /**
+     * @param startup         Start up work to share and time the first frame against, may be null
+     * @param assetsDirectory Where the assets were unpacked to, holding
+     *                        {@link MarkerSet#MARKERS_FILE}
+     */
+    public ParallaxARRenderer(Context context, StartupPipeline startup, File assetsDirectory) {
+        mMarkersFile = new File(assetsDirectory, MarkerSet.MARKERS_FILE);
+        mStartup = startup;
+        mParallax = new NewVrRenderer(context, startup);
+        // Transparent, the camera image shows through wherever the parallax is not drawn.
+        mParallax.setClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+    }
+
+    /**
+     * The parallax renderer, for its quality and texture settings.
+     */
+    public NewVrRenderer getParallax() {
+        return mParallax;
+    }
+
+    /**
+     * The markers the image and the cubes are drawn on, updated by the tracking thread after each
+     * detection. Null until the scene was configured.
+     */
+    public MarkerSet getMarkers() {
+        return mMarkers;
+    }
+
+    /**
+     * Pacer of the AR surface, so the parallax can ask for frames while its images load and when
+     * the offset changes.
+     */
+    public void setFramePacer(FramePacer framePacer) {
+        mFramePacer = framePacer;
+        mParallax.setFramePacer(framePacer);
+    }
+
+    @Override
+    public boolean configureARScene() {
+        final MarkerSet markers;
+        try {
+            markers = MarkerSet.load(mMarkersFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading markers from " + mMarkersFile, e);
+            return false;
+        }
+        mMarkers = markers;
+
+        final FrameMetrics metrics = mParallax.getMetrics();
+        metrics.begin(FrameMetrics.STAGE_PROJECTION);
+        mProjection = ARToolKit.getInstance().getProjectionMatrix();
+        metrics.end(FrameMetrics.STAGE_PROJECTION);
+        return markers.register();
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        mParallax.onSurfaceCreated(unused, config);
+
+        // After the parallax, so the clear color stays transparent over the camera image.
+        super.onSurfaceCreated(unused, config);
+
+        // A new context, the cubes' program and buffers went with the old one.
+        mShaderLibrary.invalidate();
+        mCubeProgram = new SimpleShaderProgram(new SimpleVertexShader(mShaderLibrary),
+                new SimpleFragmentShader(mShaderLibrary));
+        if (mCubes != null) {
+            mCubes.onSurfaceCreated(mCubeProgram.getShaderProgramHandle());
+        }
+
+        // Which made its own program current, behind the parallax's state shadow.
+        mParallax.getGlState().invalidate();
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        super.onSurfaceChanged(unused, width, height);
+        mParallax.onSurfaceChanged(unused, width, height);
+    }
+
+    @Override
+    public void draw() {
+        super.draw();
+
+        // Which draws with ARToolKit's base program every frame, behind the state shadow.
+        mParallax.getGlState().invalidateProgram();
+
+        if (mStartup != null) {
+            mStartup.onFirstFrame();
+        }
+
+        final MarkerSet markers = mMarkers;
+        final float[] projection = mProjection;
+        if (markers == null || projection == null) {
+            return;
+        }
+        final MarkerCubes cubes = cubesFor(markers);
+        final int count = markers.getVisiblePoses(mPoses, mVisible);
+        final long detected = markers.getTimestamp();
+        final long now = System.nanoTime();
+
+        // The next detection asks for its own frame, until then keep drawing predicted poses.
+        final FramePacer framePacer = mFramePacer;
+        if (count > 0 && framePacer != null && now - detected < DETECTION_INTERVAL_NANOS) {
+            framePacer.requestFrame();
+        }
+
+        // Visible poses come in marker order, the image's marker is first if it is visible at all.
+        final int first = count > 0 && mVisible[0] == IMAGE_MARKER ? 1 : 0;
+        final FrameMetrics metrics = mParallax.getMetrics();
+        metrics.begin(FrameMetrics.STAGE_MARKERS);
+        cubes.draw(mPoses, mVisible, first, count, detected, now, projection);
+        metrics.end(FrameMetrics.STAGE_MARKERS);
+
+        if (first == 0) {
+            mPredictor.reset();
+            return;
+        }
+        mPredictor.update(mPoses, 0, detected);
+        mPredictor.predict(now, mPose);
+        final float[] pose = mPose;
+
+        PoseMath.viewOffset(pose, MAX_VIEW_ANGLE, mOffset);
+        mParallax.setOffset(mOffset[0], mOffset[1]);
+
+        PoseMath.multiplyScaled(mMVPMatrix, projection, pose, HALF_WIDTH, HALF_HEIGHT, 1.0f);
+
+        // ARToolKit's projection mirrors the winding, and a single quad has no back to hide anyway.
+        final GlState glState = mParallax.getGlState();
+        glState.disable(GLES20.GL_CULL_FACE);
+        glState.enable(GLES20.GL_DEPTH_TEST);
+
+        mParallax.drawParallax(mMVPMatrix);
+    }
+
+    /**
+     * The cubes, one per marker, made on the first frame after the markers were loaded.
+     */
+    private MarkerCubes cubesFor(MarkerSet markers) {
+        if (mCubes == null || mCubes.getMarkerCount() != markers.size()) {
+            if (mCubes != null) {
+                mCubes.release();
+            }
+            mCubes = new MarkerCubes(mParallax.getGlState(), mCube, markers.size());
+            mCubes.onSurfaceCreated(mCubeProgram.getShaderProgramHandle());
+            mPoses = new float[markers.size() * MarkerSet.POSE_SIZE];
+            mVisible = new int[markers.size()];
+        }
+        return mCubes;
+    }
+}
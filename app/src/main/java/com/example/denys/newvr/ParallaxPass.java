@@ -0,0 +1,332 @@
+package com.example.denys.newvr;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import com.example.denys.newvr.gl.Gl;
+import com.example.denys.newvr.gl.GlState;
+import com.example.denys.newvr.gl.RenderTarget;
+import com.example.denys.newvr.gl.StaticMesh;
+import com.example.denys.newvr.shader.DepthPerspectiveBinding;
+import com.example.denys.newvr.shader.LensDistortionBinding;
+import com.example.denys.newvr.shader.TextureBlitBinding;
+
+/**
+ * The GL side of a parallax frame: the quad, drawn straight onto the surface or into a smaller
+ * render target that is stretched onto it afterwards, once or once per eye, and pre-distorted for
+ * the lenses if asked to.
+ * <p>
+ * A frame is {@link #begin}, {@link #bindProgram}, {@link #bindVideo} or {@link #bindPhoto}, then
+ * {@link #draw}. Programs are linked and textures uploaded by the caller, every call of a frame goes
+ * through the {@link Gl} of the state shadow. GL thread only.
+ */
+public class ParallaxPass {
+
+    /** Transform that makes the quad fill the viewport. */
+    public static final float[] IDENTITY = {
+            1.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, 1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 1.0f, 0.0f,
+            0.0f, 0.0f, 0.0f, 1.0f
+    };
+
+    /**
+     * Transform that makes the quad fill the viewport upside down, for copying a render target
+     * whose rows start at the bottom with the quad's texture coordinates, which start at the top.
+     */
+    private static final float[] FLIP_Y = {
+            1.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, -1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 1.0f, 0.0f,
+            0.0f, 0.0f, 0.0f, 1.0f
+    };
+
+    /** Elements of position and texture coordinate per vertex. */
+    private static final int POSITION_SIZE = 3;
+    private static final int TEXTURE_COORDINATE_SIZE = 2;
+
+    /** How far the depth displaces the color, in texture coordinates. */
+    private static final float SCALE = 0.07f; // magic number
+
+    private final GlState mGlState;
+    private final Gl mGl;
+
+    /** The quad, -1 to 1 on x and y, in a static vertex buffer. */
+    private final StaticMesh mSquare;
+
+    /** Where the parallax is drawn when the render scale is below 1 or it is distorted. */
+    private final RenderTarget mRenderTarget = new RenderTarget();
+
+    /** Copies the render target onto the surface. */
+    private int mBlitProgramHandle;
+    private final TextureBlitBinding mBlitBinding = new TextureBlitBinding();
+
+    /** Pre-distorts both eyes for the lenses, 0 until the caller linked it. */
+    private int mDistortProgramHandle;
+    private final LensDistortionBinding mDistortBinding = new LensDistortionBinding();
+
+    /** The transform of one eye, the quad squeezed into half the height to keep its aspect. */
+    private final float[] mEyeMatrix = new float[16];
+
+    /** Size of the surface, the viewport to go back to after drawing offscreen. */
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+
+    /** The frame being drawn, from {@link #begin} and {@link #bindProgram}. */
+    private boolean mStereo;
+    private boolean mDistort;
+    private boolean mOffscreen;
+    private float mEyeOffset;
+    private float mDistortionK1;
+    private float mDistortionK2;
+    private DepthPerspectiveBinding mBinding;
+    private float mOffsetX;
+    private float mOffsetY;
+
+    public ParallaxPass(GlState glState) {
+        mGlState = glState;
+        mGl = glState.getGl();
+
+        // X, Y, Z, U, V
+        final float[] squareVertexData = {
+                -1.0f, 1.0f, 0.0f, 0.0f, 0.0f,
+                -1.0f, -1.0f, 0.0f, 0.0f, 1.0f,
+                1.0f, 1.0f, 0.0f, 1.0f, 0.0f,
+                1.0f, -1.0f, 0.0f, 1.0f, 1.0f
+        };
+
+        // Two counter clockwise triangles sharing the diagonal.
+        final short[] squareIndexData = {
+                0, 1, 2,
+                1, 3, 2
+        };
+
+        mSquare = new StaticMesh(squareVertexData, POSITION_SIZE + TEXTURE_COORDINATE_SIZE, squareIndexData);
+        mSquare.setGlState(glState);
+        mRenderTarget.setGlState(glState);
+    }
+
+    /**
+     * Forget everything that belonged to a lost context.
+     */
+    public void invalidate() {
+        mBlitBinding.invalidate();
+        mDistortBinding.invalidate();
+        mDistortProgramHandle = 0;
+        mRenderTarget.invalidate();
+        mSquare.invalidate();
+    }
+
+    /**
+     * Copy the render target with a program linked in a new context, and upload the quad into it.
+     */
+    public void onSurfaceCreated(int blitProgramHandle) {
+        mBlitProgramHandle = blitProgramHandle;
+        mBlitBinding.bind(mGl, blitProgramHandle);
+
+        // Upload the geometry once, it is only bound per draw from now on.
+        mSquare.invalidate();
+        mSquare.upload();
+    }
+
+    public void setSurfaceSize(int width, int height) {
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+    }
+
+    /**
+     * Switch between a vertex buffer object (default) and client side arrays for the quad.
+     */
+    public void setUseVertexBuffers(boolean useVertexBuffers) {
+        mSquare.setUseBuffers(useVertexBuffers);
+    }
+
+    public boolean hasDistortProgram() {
+        return mDistortProgramHandle != 0;
+    }
+
+    /**
+     * @param programHandle The blit program linked with DISTORT, needed before the first distorted frame
+     */
+    public void setDistortProgram(int programHandle) {
+        mDistortProgramHandle = programHandle;
+        mDistortBinding.bind(mGl, programHandle);
+    }
+
+    /**
+     * Start a frame: below full scale, or to distort it, direct drawing into a cleared render target.
+     *
+     * @param eyeOffset  How far each eye's offset moves sideways, when stereo
+     * @param k1         Radial lens distortion coefficients with k2, both 0 for none; stereo only
+     * @param clearColor Color to put back as the clear color after clearing the render target
+     * @return Whether the frame is drawn offscreen
+     */
+    public boolean begin(float renderScale, boolean stereo, float eyeOffset, float k1, float k2,
+                         float[] clearColor) {
+        mStereo = stereo;
+        mEyeOffset = eyeOffset;
+        mDistortionK1 = k1;
+        mDistortionK2 = k2;
+        mDistort = stereo && (k1 != 0.0f || k2 != 0.0f);
+
+        mOffscreen = (renderScale < 1.0f || mDistort) && mRenderTarget.resize(
+                Math.max(1, Math.round(mSurfaceWidth * renderScale)),
+                Math.max(1, Math.round(mSurfaceHeight * renderScale)));
+        if (mOffscreen) {
+            mRenderTarget.bind();
+            mGl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+            mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            mGl.glClearColor(clearColor[0], clearColor[1], clearColor[2], clearColor[3]);
+        } else {
+            mRenderTarget.release();
+        }
+        return mOffscreen;
+    }
+
+    /**
+     * @return Whether the frame started last needs the distort program
+     */
+    public boolean isDistorted() {
+        return mDistort;
+    }
+
+    /**
+     * Use a parallax program and set its uniforms, leaving texture unit 0 active.
+     *
+     * @param mvpMatrix Maps the quad, -1 to 1 on x and y, to clip space
+     */
+    public void bindProgram(int programHandle, DepthPerspectiveBinding binding, float[] mvpMatrix,
+                            float offsetX, float offsetY, float focus) {
+        mBinding = binding;
+        mOffsetX = offsetX;
+        mOffsetY = offsetY;
+
+        mGlState.useProgram(programHandle);
+        if (mStereo) {
+            // Each eye gets half the width, halve the height as well so the image keeps its aspect.
+            System.arraycopy(mvpMatrix, 0, mEyeMatrix, 0, 16);
+            for (int i = 4; i < 8; i++) {
+                mEyeMatrix[i] *= 0.5f;
+            }
+            mGl.glUniformMatrix4fv(binding.getMVPMatrixHandle(), 1, false, mEyeMatrix, 0);
+        } else {
+            mGl.glUniformMatrix4fv(binding.getMVPMatrixHandle(), 1, false, mvpMatrix, 0);
+            mGl.glUniform2f(binding.getOffsetHandle(), offsetX, offsetY);
+        }
+        mGl.glUniform1f(binding.getScaleHandle(), SCALE);
+        mGl.glUniform1f(binding.getFocusHandle(), focus);
+
+        mGlState.activeTexture(GLES20.GL_TEXTURE0);
+    }
+
+    /**
+     * Color and depth both come from a video frame, placed by its transform.
+     */
+    public void bindVideo(int textureHandle, float[] transform) {
+        mGlState.bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureHandle);
+        mGl.glUniform1i(mBinding.getTextureUniformHandle(), 0);
+        mGl.glUniformMatrix4fv(mBinding.getTexTransformHandle(), 1, false, transform, 0);
+    }
+
+    /**
+     * Bind the textures of a photo from texture unit 0 on.
+     *
+     * @param depthHandle    0 when the color texture carries depth in alpha
+     * @param depthMaxHandle 0 without empty space skipping, the arguments after it are unused then
+     */
+    public void bindPhoto(int colorHandle, int depthHandle, int depthMaxHandle, float depthWidth,
+                          float depthHeight, float depthMaxScaleX, float depthMaxScaleY) {
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, colorHandle);
+        mGl.glUniform1i(mBinding.getTextureUniformHandle(), 0);
+
+        if (depthHandle != 0) {
+            mGlState.bindTexture(GLES20.GL_TEXTURE1, GLES20.GL_TEXTURE_2D, depthHandle);
+            mGl.glUniform1i(mBinding.getDepthUniformHandle(), 1);
+        }
+
+        if (depthMaxHandle != 0) {
+            mGlState.bindTexture(GLES20.GL_TEXTURE2, GLES20.GL_TEXTURE_2D, depthMaxHandle);
+            mGl.glUniform1i(mBinding.getDepthMaxUniformHandle(), 2);
+            mGl.glUniform2f(mBinding.getDepthSizeHandle(), depthWidth, depthHeight);
+            mGl.glUniform2f(mBinding.getDepthMaxScaleHandle(), depthMaxScaleX, depthMaxScaleY);
+        }
+    }
+
+    /**
+     * Draw the quad with the bound program, and copy the render target onto the surface if the
+     * frame was drawn offscreen.
+     */
+    public void draw() {
+        mSquare.bind();
+        mSquare.attribute(mBinding.getPositionHandle(), POSITION_SIZE, 0);
+        mSquare.attribute(mBinding.getTextureCoordinateHandle(), TEXTURE_COORDINATE_SIZE, POSITION_SIZE);
+
+        if (mStereo) {
+            drawEyes();
+        } else {
+            mSquare.draw();
+        }
+
+        if (mOffscreen) {
+            blitRenderTarget();
+        }
+    }
+
+    /**
+     * Draw the bound quad once per eye into the halves of the viewport, with the offset moved
+     * sideways by the eye offset each way.
+     */
+    private void drawEyes() {
+        final int width = mOffscreen ? mRenderTarget.getWidth() : mSurfaceWidth;
+        final int height = mOffscreen ? mRenderTarget.getHeight() : mSurfaceHeight;
+        final int eyeWidth = width / 2;
+
+        mGlState.viewport(0, 0, eyeWidth, height);
+        mGl.glUniform2f(mBinding.getOffsetHandle(), mOffsetX - mEyeOffset, mOffsetY);
+        mSquare.draw();
+
+        mGlState.viewport(eyeWidth, 0, eyeWidth, height);
+        mGl.glUniform2f(mBinding.getOffsetHandle(), mOffsetX + mEyeOffset, mOffsetY);
+        mSquare.draw();
+
+        mGlState.viewport(0, 0, width, height);
+    }
+
+    /**
+     * Stretch the render target over the surface, blended so whatever the parallax did not cover
+     * stays visible, and pre-distort it for the lenses if asked to.
+     */
+    private void blitRenderTarget() {
+        final boolean distort = mDistort && mDistortProgramHandle != 0;
+        final TextureBlitBinding blitBinding = distort ? mDistortBinding : mBlitBinding;
+
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        mGlState.viewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+
+        final boolean cullFace = mGlState.isEnabled(GLES20.GL_CULL_FACE);
+        final boolean depthTest = mGlState.isEnabled(GLES20.GL_DEPTH_TEST);
+        mGlState.disable(GLES20.GL_CULL_FACE);
+        mGlState.disable(GLES20.GL_DEPTH_TEST);
+        mGlState.enable(GLES20.GL_BLEND);
+        mGlState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+        mGlState.useProgram(distort ? mDistortProgramHandle : mBlitProgramHandle);
+        mGl.glUniformMatrix4fv(blitBinding.getMVPMatrixHandle(), 1, false, FLIP_Y, 0);
+        mGlState.bindTexture(GLES20.GL_TEXTURE0, GLES20.GL_TEXTURE_2D, mRenderTarget.getTextureHandle());
+        mGl.glUniform1i(blitBinding.getTextureUniformHandle(), 0);
+        if (distort) {
+            mGl.glUniform2f(mDistortBinding.getDistortionHandle(), mDistortionK1, mDistortionK2);
+            mGl.glUniform1f(mDistortBinding.getEyeAspectHandle(),
+                    mSurfaceWidth / 2.0f / Math.max(1, mSurfaceHeight));
+        }
+
+        mSquare.bind();
+        mSquare.attribute(blitBinding.getPositionHandle(), POSITION_SIZE, 0);
+        mSquare.attribute(blitBinding.getTextureCoordinateHandle(), TEXTURE_COORDINATE_SIZE, POSITION_SIZE);
+        mSquare.draw();
+
+        mGlState.disable(GLES20.GL_BLEND);
+        mGlState.setEnabled(GLES20.GL_CULL_FACE, cullFace);
+        mGlState.setEnabled(GLES20.GL_DEPTH_TEST, depthTest);
+    }
+}
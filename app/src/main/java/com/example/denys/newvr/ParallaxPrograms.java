@@ -0,0 +1,193 @@
+package com.example.denys.newvr;
+
+import android.content.Context;
+
+import com.example.denys.newvr.gl.Gl;
+import com.example.denys.newvr.gl.GlState;
+import com.example.denys.newvr.shader.DepthPerspectiveBinding;
+import com.example.denys.newvr.shader.ProgramCache;
+import com.example.denys.newvr.shader.ShaderLibrary;
+import com.example.denys.newvr.shader.ShaderPreprocessor;
+import com.example.denys.newvr.startup.StartupPipeline;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The programs a {@link NewVrRenderer} draws with: a parallax program per QUALITY preset, built
+ * for the texture layout and the source in effect and with any extra defines, and the blit and
+ * distortion programs of its {@link ParallaxPass}.
+ * <p>
+ * Programs come from the binary {@link ProgramCache} if this driver has linked them before, and the
+ * stages from a {@link ShaderLibrary}, so switching variants only links. Defines are requested from
+ * any thread, everything else runs on the GL thread.
+ */
+public class ParallaxPrograms {
+
+    /** Attribute names, bound to the location of their index. */
+    private static final String[] ATTRIBUTES = {"a_Position", "a_TexCoordinate"};
+
+    /** Shader sources in res/raw. */
+    private static final String VERTEX_SHADER = "vertex_shader.vert";
+    private static final String DEPTH_SHADER = "depth_perspective.frag";
+    private static final String BLIT_SHADER = "fragment_shader.frag";
+
+    private final GlState mGlState;
+    private final Gl mGl;
+
+    /** Linked program binaries kept across launches. */
+    private final ProgramCache mProgramCache;
+
+    /** Shader sources read once, and the stages compiled from them in the current context. */
+    private final ShaderLibrary mShaderLibrary;
+
+    /** Extra defines for the parallax programs, as requested and as in effect. */
+    private volatile String[] mShaderDefinesRequested = new String[0];
+    private String[] mShaderDefines;
+
+    /** Whether the programs in effect skip empty space, read packed textures or sample video. */
+    private boolean mEmptySkip;
+    private boolean mPacked;
+    private boolean mVideo;
+
+    /**
+     * Handles to the parallax programs, one per QUALITY preset starting at
+     * {@link AdaptiveQuality#MIN_LEVEL}.
+     */
+    private final int[] mProgramHandles = new int[AdaptiveQuality.MAX_LEVEL - AdaptiveQuality.MIN_LEVEL + 1];
+
+    /**
+     * Uniform and attribute locations of each program, resolved once after linking.
+     */
+    private final DepthPerspectiveBinding[] mBindings = new DepthPerspectiveBinding[mProgramHandles.length];
+
+    /**
+     * @param startup Start up work to share shader sources with, whose workers start reading them
+     *                right away, may be null
+     */
+    public ParallaxPrograms(Context context, StartupPipeline startup, GlState glState) {
+        mGlState = glState;
+        mGl = glState.getGl();
+        mProgramCache = new ProgramCache(new File(context.getCacheDir(), "programs"));
+
+        final ShaderPreprocessor shaderPreprocessor;
+        if (startup != null) {
+            shaderPreprocessor = startup.getShaderPreprocessor();
+            startup.preloadShaders(VERTEX_SHADER, DEPTH_SHADER, BLIT_SHADER);
+        } else {
+            shaderPreprocessor = new ShaderPreprocessor(ShaderLibrary.rawResources(
+                    context.getResources(), context.getPackageName()));
+        }
+        mShaderLibrary = new ShaderLibrary(shaderPreprocessor);
+        mProgramCache.setShaderLibrary(mShaderLibrary);
+
+        for (int i = 0; i < mBindings.length; i++) {
+            mBindings[i] = new DepthPerspectiveBinding();
+        }
+    }
+
+    /**
+     * Build the parallax programs with extra defines on top of each QUALITY preset. Takes effect
+     * on the next {@link #update(boolean)}.
+     */
+    public void setShaderDefines(String... defines) {
+        mShaderDefinesRequested = defines.clone();
+    }
+
+    /**
+     * Load the parallax programs into a new context. Any locations still held belong to the lost
+     * one, as do the compiled stages.
+     */
+    public void onSurfaceCreated(boolean emptySkip, boolean packed, boolean video) {
+        for (DepthPerspectiveBinding binding : mBindings) {
+            binding.invalidate();
+        }
+        mShaderLibrary.invalidate();
+
+        mEmptySkip = emptySkip;
+        mPacked = packed;
+        mVideo = video;
+        loadPrograms();
+    }
+
+    /**
+     * Rebuild the parallax programs if other defines were asked for or the source changed between
+     * photos and video.
+     *
+     * @param video Whether a video is drawn
+     */
+    public void update(boolean video) {
+        if (mShaderDefinesRequested == mShaderDefines && video == mVideo) {
+            return;
+        }
+        for (int handle : mProgramHandles) {
+            mGl.glDeleteProgram(handle);
+        }
+        mVideo = video;
+        loadPrograms();
+
+        // The new programs may reuse the names of the deleted ones.
+        mGlState.invalidate();
+    }
+
+    /**
+     * @param variant The QUALITY preset minus {@link AdaptiveQuality#MIN_LEVEL}
+     */
+    public int getProgramHandle(int variant) {
+        return mProgramHandles[variant];
+    }
+
+    public DepthPerspectiveBinding getBinding(int variant) {
+        return mBindings[variant];
+    }
+
+    /**
+     * @return A new program that copies a texture onto the surface
+     */
+    public int loadBlitProgram() {
+        return mProgramCache.loadProgram(mShaderLibrary.getVariant(VERTEX_SHADER),
+                mShaderLibrary.getVariant(BLIT_SHADER), "", ATTRIBUTES);
+    }
+
+    /**
+     * @return A new program that copies a texture onto the surface distorted for the lenses
+     */
+    public int loadDistortProgram() {
+        return mProgramCache.loadProgram(mShaderLibrary.getVariant(VERTEX_SHADER),
+                mShaderLibrary.getVariant(BLIT_SHADER, "DISTORT"), "", ATTRIBUTES);
+    }
+
+    /**
+     * Load a program per preset, from the binary cache if this driver has linked it before, so
+     * switching quality later never has to compile.
+     */
+    private void loadPrograms() {
+        mShaderDefines = mShaderDefinesRequested;
+        final String vertexSource = mShaderLibrary.getVariant(VERTEX_SHADER);
+
+        final List<String> defines = new ArrayList<String>();
+        for (int i = 0; i < mProgramHandles.length; i++) {
+            defines.clear();
+            defines.add("QUALITY " + (AdaptiveQuality.MIN_LEVEL + i));
+            if (mEmptySkip) {
+                defines.add("EMPTYSKIP");
+            }
+            if (mPacked) {
+                defines.add("PACKED");
+            }
+            if (mVideo) {
+                defines.add("VIDEO");
+            }
+            Collections.addAll(defines, mShaderDefines);
+
+            final String fragmentSource = mShaderLibrary.getVariant(DEPTH_SHADER,
+                    defines.toArray(new String[defines.size()]));
+            mProgramHandles[i] = mProgramCache.loadProgram(vertexSource, fragmentSource, "", ATTRIBUTES);
+
+            // Resolve uniform and attribute locations once, not every frame.
+            mBindings[i].bind(mGl, mProgramHandles[i]);
+        }
+    }
+}
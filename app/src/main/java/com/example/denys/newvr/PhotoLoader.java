@@ -0,0 +1,627 @@
+package com.example.denys.newvr;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+
+import com.example.denys.newvr.gl.Gl;
+import com.example.denys.newvr.gl.TextureUploader;
+import com.example.denys.newvr.parallax.DepthPyramid;
+import com.example.denys.newvr.startup.StartupPipeline;
+import com.example.denys.newvr.texture.BitmapPool;
+import com.example.denys.newvr.texture.DecodedImage;
+import com.example.denys.newvr.texture.Photo;
+import com.example.denys.newvr.texture.TextureCache;
+import com.example.denys.newvr.texture.TextureLoader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The photos a {@link NewVrRenderer} browses, decoded off the GL thread, uploaded on a shared
+ * context when there is one, and kept in a {@link TextureCache} within a texture memory budget.
+ * <p>
+ * Each frame {@link #update()} collects what finished, starts decoding the requested photo and its
+ * neighbours and hands back the textures to draw, without ever waiting for a decode or an upload.
+ * Photos and settings are requested from any thread, everything else runs on the GL thread.
+ */
+public class PhotoLoader {
+
+    /** Texture memory uploaded photos may take by default, several photos of a large display. */
+    public static final long DEFAULT_TEXTURE_BUDGET = 64L * 1024 * 1024;
+
+    /** Room for about two color images of a large display, beyond that decodes allocate. */
+    private static final long BITMAP_POOL_BYTES = 24L * 1024 * 1024;
+
+    /**
+     * Pyramid level uploaded for empty space skipping, blocks of 2^level texels.
+     */
+    private static final int SKIP_LEVEL = 3;
+
+    private final Gl mGl;
+
+    /** Asks for a frame when a decode or an upload finished. */
+    private final Runnable mFrameRequester;
+
+    /** Told when the first images are decoded, null if there is no start up to time. */
+    private final StartupPipeline mStartup;
+
+    /** Decodes the images off the GL thread. */
+    private final TextureLoader mTextureLoader;
+
+    /** Bitmaps freed by uploads, decoded into again by the next photos. */
+    private final BitmapPool mBitmapPool = new BitmapPool(BITMAP_POOL_BYTES);
+
+    /** Photos to browse, and the one asked for as an index that wraps around both ways. */
+    private volatile List<Photo> mPhotos = Collections.singletonList(
+            new Photo(R.drawable.mango, R.drawable.mango_depthmap));
+    private volatile int mPhotoRequested;
+
+    /**
+     * Uploaded photos: the one on screen, its neighbours decoded ahead of a swipe and whatever was
+     * shown recently, deleted least recently used first beyond the budget.
+     */
+    private final TextureCache<Photo, PhotoTextures> mTextureCache =
+            new TextureCache<Photo, PhotoTextures>(DEFAULT_TEXTURE_BUDGET);
+    private volatile long mTextureBudgetRequested = DEFAULT_TEXTURE_BUDGET;
+
+    /** Photo on screen, null until the first one is uploaded. */
+    private Photo mShownPhoto;
+
+    /** Photos being decoded or uploaded. */
+    private final Map<Photo, PhotoLoad> mLoads = new HashMap<Photo, PhotoLoad>();
+
+    /** Loads no longer wanted whose uploads were started, their textures are deleted once done. */
+    private final List<PhotoLoad> mDroppedLoads = new ArrayList<PhotoLoad>();
+
+    /** Uploads the decoded images on a shared context, null to upload on the GL thread. */
+    private volatile TextureUploader mUploader;
+
+    /** Longer surface side photos are decoded for, and the settings they are decoded with. */
+    private int mRequestedSize;
+    private int mRequestedMaxSize;
+    private boolean mRequestedEmptySkip;
+    private boolean mRequestedPacked;
+
+    /** {@link TextureLoader#FORMAT_RGBA} or {@link TextureLoader#FORMAT_RGB565}. */
+    private volatile int mColorFormat = TextureLoader.FORMAT_RGBA;
+
+    /**
+     * @param decodeExecutor Where the images are decoded
+     * @param gl             Where textures of dropped loads are deleted through
+     * @param startup        Start up work to report the first decoded images to, may be null
+     * @param frameRequester Asks for a frame, run on whichever thread a decode or upload finished
+     */
+    public PhotoLoader(Resources resources, ExecutorService decodeExecutor, Gl gl, StartupPipeline startup,
+                       Runnable frameRequester) {
+        mGl = gl;
+        mStartup = startup;
+        mFrameRequester = frameRequester;
+        mTextureLoader = new TextureLoader(resources, decodeExecutor, mBitmapPool);
+    }
+
+    /**
+     * Set the photos to browse and show the first one. Photos uploaded before stay cached.
+     */
+    public void setPhotos(List<Photo> photos) {
+        if (photos.isEmpty()) {
+            throw new IllegalArgumentException("No photos to show.");
+        }
+        mPhotos = Collections.unmodifiableList(new ArrayList<Photo>(photos));
+        showPhoto(0);
+    }
+
+    public int getPhotoCount() {
+        return mPhotos.size();
+    }
+
+    /**
+     * Show a photo by its index, which wraps around in both directions. Call from one thread, like
+     * the main thread.
+     */
+    public void showPhoto(int index) {
+        mPhotoRequested = index;
+    }
+
+    public int getRequestedPhoto() {
+        return mPhotoRequested;
+    }
+
+    /**
+     * Set the texture memory uploaded photos may take. Takes effect on the next {@link #update()}.
+     */
+    public void setTextureCacheBudget(long bytes) {
+        mTextureBudgetRequested = bytes;
+    }
+
+    /**
+     * Decode the color image as RGB565 instead of RGBA, for loads started from now on.
+     */
+    public void setUseRgb565(boolean useRgb565) {
+        mColorFormat = useRgb565 ? TextureLoader.FORMAT_RGB565 : TextureLoader.FORMAT_RGBA;
+    }
+
+    /**
+     * @return True while uploads or evictions may bind and delete textures behind a state shadow
+     */
+    public boolean isChangingTextures() {
+        return !mLoads.isEmpty() || !mDroppedLoads.isEmpty()
+                || mTextureCache.getMaxBytes() != mTextureBudgetRequested;
+    }
+
+    /**
+     * Decode photos for the given surface size and settings from now on, starting with the
+     * requested one. Decodes for the old size stop; textures of the old size stay in use until
+     * they are replaced.
+     */
+    public void requestTextures(int targetSize, int maxSize, boolean emptySkip, boolean packed) {
+        for (PhotoLoad load : mLoads.values()) {
+            if (!load.cancel()) {
+                mDroppedLoads.add(load);
+            }
+        }
+        mLoads.clear();
+
+        mRequestedSize = targetSize;
+        mRequestedMaxSize = maxSize;
+        mRequestedEmptySkip = emptySkip;
+        mRequestedPacked = packed;
+
+        final List<Photo> photos = mPhotos;
+        startLoad(photos.get(wrap(mPhotoRequested, photos.size())));
+    }
+
+    /**
+     * Decode again if the surface grew beyond the size photos were decoded for.
+     *
+     * @param targetSize The longer side of the surface
+     */
+    public void onSurfaceChanged(int targetSize, int maxSize, boolean emptySkip, boolean packed) {
+        // The quad covers the surface, so textures beyond its longer side are wasted memory.
+        if (targetSize > mRequestedSize) {
+            requestTextures(targetSize, maxSize, emptySkip, packed);
+        }
+    }
+
+    /**
+     * Start over in a new context: uploads in flight went to the old one and are gone with it, as
+     * are the cached textures. Decodes still running, like the one started with the renderer, are
+     * kept if they suit this context and settings, otherwise photos are decoded again once the
+     * surface size is known.
+     */
+    public void onSurfaceCreated(int maxTextureSize, boolean emptySkip, boolean packed) {
+        if (mUploader != null) {
+            mUploader.release();
+        }
+        mUploader = TextureUploader.start();
+        mTextureCache.invalidate();
+        mShownPhoto = null;
+        mDroppedLoads.clear();
+
+        final boolean reusable = mRequestedMaxSize <= maxTextureSize && mRequestedPacked == packed
+                && mRequestedEmptySkip == emptySkip;
+        final Iterator<PhotoLoad> loads = mLoads.values().iterator();
+        while (loads.hasNext()) {
+            final PhotoLoad load = loads.next();
+            if (!reusable || load.isUploading()) {
+                load.discard();
+                loads.remove();
+            }
+        }
+        if (!reusable) {
+            mRequestedSize = 0;
+        }
+    }
+
+    /**
+     * Let go of the background upload context. Call after the surface was paused: the context
+     * shares objects with the surface's and would keep its textures alive.
+     */
+    public void onPause() {
+        final TextureUploader uploader = mUploader;
+        mUploader = null;
+        if (uploader != null) {
+            uploader.release();
+        }
+    }
+
+    /**
+     * Start loading a photo unless it is loading or cached at the requested size already.
+     */
+    private void startLoad(Photo photo) {
+        if (mRequestedSize == 0 || mLoads.containsKey(photo)) {
+            return;
+        }
+        final PhotoTextures cached = mTextureCache.get(photo);
+        if (cached == null || cached.size < mRequestedSize) {
+            mLoads.put(photo, new PhotoLoad(photo, mRequestedSize, mRequestedMaxSize, mRequestedEmptySkip,
+                    mRequestedPacked, mColorFormat));
+        }
+    }
+
+    /**
+     * Collect finished loads, start the ones the requested photo and its neighbours need and pick
+     * the photo to draw: the requested one once it is uploaded, until then the one shown before.
+     * Never waits for a decode or an upload.
+     *
+     * @return The textures to draw, null while no photo is uploaded yet
+     */
+    public PhotoTextures update() {
+        if (mTextureCache.getMaxBytes() != mTextureBudgetRequested) {
+            mTextureCache.setMaxBytes(mTextureBudgetRequested);
+        }
+
+        final TextureUploader uploader = mUploader;
+        final Iterator<PhotoLoad> loads = mLoads.values().iterator();
+        while (loads.hasNext()) {
+            final PhotoLoad load = loads.next();
+            final PhotoTextures textures = load.poll(uploader);
+            if (textures != null) {
+                loads.remove();
+                mTextureCache.put(load.photo, textures, textures.getHandles(), textures.bytes);
+            }
+        }
+        final Iterator<PhotoLoad> dropped = mDroppedLoads.iterator();
+        while (dropped.hasNext()) {
+            final PhotoTextures textures = dropped.next().poll(uploader);
+            if (textures != null) {
+                dropped.remove();
+                mGl.glDeleteTextures(3, textures.getHandles(), 0);
+            }
+        }
+
+        final List<Photo> photos = mPhotos;
+        final int index = wrap(mPhotoRequested, photos.size());
+        final Photo requested = photos.get(index);
+
+        startLoad(requested);
+        PhotoTextures textures = mTextureCache.get(requested);
+        if (textures != null) {
+            mShownPhoto = requested;
+        } else if (mShownPhoto != null) {
+            textures = mTextureCache.get(mShownPhoto);
+        }
+        mTextureCache.pin(mShownPhoto);
+
+        // Decode the neighbours ahead, as many as the budget holds next to the photo on screen.
+        final Photo next = photos.get(wrap(index + 1, photos.size()));
+        final Photo previous = photos.get(wrap(index - 1, photos.size()));
+        final long ahead = textures != null ? mTextureCache.getMaxBytes() / textures.bytes - 1 : 0;
+        if (ahead >= 1) {
+            startLoad(next);
+        }
+        if (ahead >= 2) {
+            startLoad(previous);
+        }
+
+        // Stop decoding photos that were swiped past.
+        final Iterator<Map.Entry<Photo, PhotoLoad>> wanted = mLoads.entrySet().iterator();
+        while (wanted.hasNext()) {
+            final Map.Entry<Photo, PhotoLoad> load = wanted.next();
+            final Photo photo = load.getKey();
+            if (!photo.equals(requested) && !photo.equals(next) && !photo.equals(previous)) {
+                if (!load.getValue().cancel()) {
+                    mDroppedLoads.add(load.getValue());
+                }
+                wanted.remove();
+            }
+        }
+
+        return textures;
+    }
+
+    private static int wrap(int index, int size) {
+        return ((index % size) + size) % size;
+    }
+
+    private static <T> T getDecoded(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted loading texture.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error loading texture.", e.getCause());
+        }
+    }
+
+    /**
+     * Decoding and uploading one photo. Decodes run on the loader's executor and uploads on the
+     * upload context, or on the GL thread without one; both ask for a frame when done, so the GL
+     * thread picks up the result. Used on the GL thread.
+     */
+    private final class PhotoLoad {
+        final Photo photo;
+        final int size;
+        final boolean packed;
+
+        private Future<DecodedImage> decodingColor;
+        private Future<DecodedDepth> decodingDepth;
+        private Future<Integer> uploadingColor;
+        private Future<DecodedDepth> uploadingDepth;
+
+        /** Whether textures were made in the current context, so the load can't just be dropped. */
+        private boolean uploading;
+
+        private int colorHandle;
+        private long colorBytes;
+        private DecodedDepth depth;
+
+        PhotoLoad(final Photo photo, final int targetSize, final int maxSize, final boolean emptySkip,
+                  final boolean packed, final int colorFormat) {
+            this.photo = photo;
+            this.size = targetSize;
+            this.packed = packed;
+
+            // The packed image needs both decodes, so it is merged on the depth task.
+            decodingColor = packed ? null : mTextureLoader.getExecutor().submit(new Callable<DecodedImage>() {
+                @Override
+                public DecodedImage call() throws Exception {
+                    final DecodedImage color = mTextureLoader.decode(photo.getColorResource(), colorFormat,
+                            targetSize, maxSize);
+                    mFrameRequester.run();
+                    return color;
+                }
+            });
+            decodingDepth = mTextureLoader.getExecutor().submit(new Callable<DecodedDepth>() {
+                @Override
+                public DecodedDepth call() throws Exception {
+                    DecodedImage depth = mTextureLoader.decode(photo.getDepthResource(),
+                            TextureLoader.FORMAT_LUMINANCE, targetSize, maxSize);
+                    final DecodedDepth decoded;
+                    if (packed) {
+                        final DecodedImage color = mTextureLoader.decode(photo.getColorResource(),
+                                TextureLoader.FORMAT_RGBA, targetSize, maxSize);
+                        depth = TextureLoader.resizeLuminance(depth, color.getWidth(), color.getHeight());
+                        decoded = new DecodedDepth(TextureLoader.pack(color, depth), depth, emptySkip);
+                    } else {
+                        decoded = new DecodedDepth(depth, depth, emptySkip);
+                    }
+
+                    if (mStartup != null) {
+                        mStartup.mark(StartupPipeline.STAGE_IMAGES);
+                    }
+                    mFrameRequester.run();
+                    return decoded;
+                }
+            });
+        }
+
+        /**
+         * Hand finished decodes to the uploader and collect finished uploads.
+         *
+         * @return The photo's textures once all are uploaded, null before
+         */
+        PhotoTextures poll(TextureUploader uploader) {
+            if (decodingColor != null && decodingColor.isDone()) {
+                final DecodedImage image = getDecoded(decodingColor);
+                decodingColor = null;
+                colorBytes = image.getByteSize();
+                uploading = true;
+
+                if (uploader != null) {
+                    uploadingColor = uploader.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            final int textureHandle = TextureLoader.upload(image);
+                            mFrameRequester.run();
+                            return textureHandle;
+                        }
+                    });
+                } else {
+                    colorHandle = TextureLoader.upload(image);
+                }
+            }
+
+            if (uploadingColor != null && uploadingColor.isDone()) {
+                colorHandle = getDecoded(uploadingColor);
+                uploadingColor = null;
+            }
+
+            if (decodingDepth != null && decodingDepth.isDone()) {
+                final DecodedDepth decoded = getDecoded(decodingDepth);
+                decodingDepth = null;
+                uploading = true;
+
+                if (uploader != null) {
+                    uploadingDepth = uploader.submit(new Callable<DecodedDepth>() {
+                        @Override
+                        public DecodedDepth call() {
+                            decoded.upload();
+                            mFrameRequester.run();
+                            return decoded;
+                        }
+                    });
+                } else {
+                    depth = decoded.upload();
+                }
+            }
+
+            if (uploadingDepth != null && uploadingDepth.isDone()) {
+                depth = getDecoded(uploadingDepth);
+                uploadingDepth = null;
+            }
+
+            if (decodingColor != null || uploadingColor != null || decodingDepth != null || uploadingDepth != null) {
+                return null;
+            }
+            return packed ? new PhotoTextures(size, depth.imageHandle, 0, depth, 0)
+                    : new PhotoTextures(size, colorHandle, depth.imageHandle, depth, colorBytes);
+        }
+
+        /**
+         * @return Whether uploads were started, whose textures belong to the current context
+         */
+        boolean isUploading() {
+            return uploading;
+        }
+
+        /**
+         * Stop decoding if no upload was started yet.
+         *
+         * @return False if uploads were started, the load then has to finish to free its textures
+         */
+        boolean cancel() {
+            if (uploading) {
+                return false;
+            }
+            discard();
+            return true;
+        }
+
+        /**
+         * Stop decoding and hand decoded bitmaps back to the pool. Uploads started are left to
+         * whoever owns their context.
+         */
+        void discard() {
+            if (decodingColor != null) {
+                if (decodingColor.isDone() && !decodingColor.isCancelled()) {
+                    try {
+                        decodingColor.get().recycle();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        // Nothing was decoded.
+                    }
+                }
+                decodingColor.cancel(false);
+            }
+            if (decodingDepth != null) {
+                decodingDepth.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * The textures of an uploaded photo, as cached.
+     */
+    public static class PhotoTextures {
+        /** Longer surface side the photo was decoded for. */
+        final int size;
+
+        /** Color, or color and depth when packed. */
+        final int colorHandle;
+
+        /** Depth, 0 when packed. */
+        final int depthHandle;
+
+        /** The dilated max depth level of the depth pyramid, 0 without empty space skipping. */
+        final int depthMaxHandle;
+
+        /** Size of the depth map in texels and the scale mapping it onto the max depth blocks. */
+        final float depthWidth;
+        final float depthHeight;
+        final float depthMaxScaleX;
+        final float depthMaxScaleY;
+
+        /** Texture memory of all three. */
+        final long bytes;
+
+        PhotoTextures(int size, int colorHandle, int depthHandle, DecodedDepth depth, long colorBytes) {
+            this.size = size;
+            this.colorHandle = colorHandle;
+            this.depthHandle = depthHandle;
+            this.depthMaxHandle = depth.maxHandle;
+            this.depthWidth = depth.image.getWidth();
+            this.depthHeight = depth.image.getHeight();
+            this.depthMaxScaleX = depth.maxScaleX;
+            this.depthMaxScaleY = depth.maxScaleY;
+            this.bytes = colorBytes + depth.getByteSize();
+        }
+
+        int[] getHandles() {
+            return new int[]{colorHandle, depthHandle, depthMaxHandle};
+        }
+    }
+
+    /**
+     * A depth map decoded to one byte per pixel, or packed into the alpha of the color image, with
+     * the dilated {@link #SKIP_LEVEL} of its max depth pyramid, both built off the GL thread.
+     */
+    private static class DecodedDepth {
+        final DecodedImage image;
+        final byte[] maxBlocks;
+        final int maxWidth;
+        final int maxHeight;
+        final float maxScaleX;
+        final float maxScaleY;
+
+        /** Texture handles, set by {@link #upload()}. */
+        int imageHandle;
+        int maxHandle;
+
+        /**
+         * @param image     The image to upload, the depth map itself or the packed image
+         * @param depth     The depth map as one byte per pixel, for the pyramid
+         */
+        DecodedDepth(DecodedImage image, DecodedImage depth, boolean emptySkip) {
+            this.image = image;
+
+            if (!emptySkip) {
+                maxBlocks = null;
+                maxWidth = maxHeight = 0;
+                maxScaleX = maxScaleY = 0.0f;
+                return;
+            }
+
+            final int width = depth.getWidth();
+            final int height = depth.getHeight();
+            final DepthPyramid pyramid = DepthPyramid.fromLuminance(depth.getPixels().array(),
+                    width, height, SKIP_LEVEL + 1);
+
+            maxBlocks = pyramid.dilate(SKIP_LEVEL);
+            maxWidth = pyramid.getWidth(SKIP_LEVEL);
+            maxHeight = pyramid.getHeight(SKIP_LEVEL);
+            maxScaleX = width / (float) (maxWidth << SKIP_LEVEL);
+            maxScaleY = height / (float) (maxHeight << SKIP_LEVEL);
+        }
+
+        /**
+         * @return The texture memory of the image and the max depth blocks
+         */
+        long getByteSize() {
+            return image.getByteSize() + (maxBlocks != null ? maxBlocks.length : 0);
+        }
+
+        /**
+         * Upload the image and the max depth blocks on the current context.
+         *
+         * @return This, with the texture handles set
+         */
+        DecodedDepth upload() {
+            maxHandle = uploadMaxBlocks();
+            imageHandle = TextureLoader.upload(image);
+            return this;
+        }
+
+        /**
+         * @return The texture handle of the max depth blocks, 0 without empty space skipping
+         */
+        private int uploadMaxBlocks() {
+            if (maxBlocks == null) {
+                return 0;
+            }
+
+            final int[] textureHandle = new int[1];
+            GLES20.glGenTextures(1, textureHandle, 0);
+
+            if (textureHandle[0] == 0) {
+                throw new RuntimeException("Error loading texture.");
+            }
+
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+            TextureLoader.setNearestClamped();
+            TextureLoader.uploadPixels(ByteBuffer.wrap(maxBlocks), maxWidth, maxHeight, GLES20.GL_LUMINANCE);
+
+            return textureHandle[0];
+        }
+    }
+}
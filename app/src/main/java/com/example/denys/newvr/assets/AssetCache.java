@@ -0,0 +1,290 @@
+package com.example.denys.newvr.assets;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unpacks an asset folder into the cache directory, where native code can open the files, and
+ * only rewrites what changed.
+ * <p>
+ * A manifest next to the folder records the SHA-1 and size of every unpacked file and which APK
+ * they came from. While the APK is the same and the files are still there, nothing is read at all.
+ * After an update each asset is hashed and only files whose content differs are copied, with
+ * channel transfers; files no longer in the assets are deleted. Files are written under a
+ * temporary name and renamed, so an interrupted run never leaves a half written file behind.
+ */
+public class AssetCache {
+
+    private static final String TAG = "AssetCache";
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String STAMP = "stamp ";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final AssetManager mAssets;
+    private final File mTargetDirectory;
+
+    /** Identifies the APK the assets are read from, changes with every install. */
+    private final String mStamp;
+
+    public AssetCache(Context context) {
+        mAssets = context.getAssets();
+        mTargetDirectory = context.getCacheDir();
+        final File apk = new File(context.getApplicationInfo().sourceDir);
+        mStamp = apk.length() + "-" + apk.lastModified();
+    }
+
+    /**
+     * Bring the unpacked copy of an asset folder up to date.
+     *
+     * @param folder Path of the folder inside the assets, also its path in the cache directory
+     * @return The unpacked folder
+     */
+    public File cacheFolder(String folder) throws IOException {
+        final long start = System.nanoTime();
+        final File manifestFile = new File(mTargetDirectory, folder + MANIFEST_SUFFIX);
+        final Map<String, Entry> previous = new HashMap<String, Entry>();
+        final String previousStamp = readManifest(manifestFile, previous);
+
+        if (mStamp.equals(previousStamp) && allPresent(previous)) {
+            Log.i(TAG, "Assets in '" + folder + "' are up to date.");
+            return new File(mTargetDirectory, folder);
+        }
+
+        final Map<String, Entry> current = new HashMap<String, Entry>();
+        listFiles(folder, current);
+
+        int copied = 0;
+        for (Map.Entry<String, Entry> file : current.entrySet()) {
+            final String path = file.getKey();
+            final Entry entry = file.getValue();
+            final File target = new File(mTargetDirectory, path);
+
+            if (!entry.equals(previous.get(path)) || target.length() != entry.size) {
+                copy(path, target);
+                copied++;
+            }
+        }
+
+        for (String path : previous.keySet()) {
+            if (!current.containsKey(path) && !new File(mTargetDirectory, path).delete()) {
+                Log.w(TAG, "Could not delete stale asset " + path);
+            }
+        }
+
+        writeManifest(manifestFile, current);
+
+        Log.i(TAG, "Unpacked " + copied + " of " + current.size() + " assets in '" + folder + "' in "
+                + (System.nanoTime() - start) / 1000000 + " ms.");
+        return new File(mTargetDirectory, folder);
+    }
+
+    private boolean allPresent(Map<String, Entry> entries) {
+        if (entries.isEmpty()) {
+            return false;
+        }
+        for (Map.Entry<String, Entry> file : entries.entrySet()) {
+            if (new File(mTargetDirectory, file.getKey()).length() != file.getValue().size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash every file below an asset path. AssetManager lists files and folders alike, a path
+     * without children is taken as a file.
+     */
+    private void listFiles(String path, Map<String, Entry> files) throws IOException {
+        final String[] children = mAssets.list(path);
+        if (children == null || children.length == 0) {
+            files.put(path, hash(path));
+            return;
+        }
+        for (String child : children) {
+            listFiles(path + "/" + child, files);
+        }
+    }
+
+    private Entry hash(String path) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error hashing asset.", e);
+        }
+
+        final InputStream in = mAssets.open(path, AssetManager.ACCESS_STREAMING);
+        long size = 0;
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+        } finally {
+            in.close();
+        }
+
+        final StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hash.append(Character.forDigit(b & 0xf, 16));
+        }
+        return new Entry(hash.toString(), size);
+    }
+
+    private void copy(String path, File target) throws IOException {
+        final File directory = target.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Error creating " + directory);
+        }
+
+        final File temp = new File(target.getPath() + TEMP_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            final FileChannel outChannel = out.getChannel();
+            final AssetFileDescriptor descriptor = openFd(path);
+            if (descriptor != null) {
+                // Stored uncompressed: transfer straight from the APK file.
+                try {
+                    final FileChannel inChannel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+                    final long length = descriptor.getLength();
+                    long done = 0;
+                    while (done < length) {
+                        done += inChannel.transferTo(descriptor.getStartOffset() + done, length - done, outChannel);
+                    }
+                } finally {
+                    descriptor.close();
+                }
+            } else {
+                final InputStream in = mAssets.open(path, AssetManager.ACCESS_STREAMING);
+                try {
+                    final ReadableByteChannel inChannel = Channels.newChannel(in);
+                    long done = 0;
+                    long transferred;
+                    while ((transferred = outChannel.transferFrom(inChannel, done, BUFFER_SIZE)) > 0) {
+                        done += transferred;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(target)) {
+            throw new IOException("Error renaming " + temp + " to " + target);
+        }
+    }
+
+    /**
+     * @return A descriptor into the APK, or null if the asset is stored compressed
+     */
+    private AssetFileDescriptor openFd(String path) throws IOException {
+        try {
+            return mAssets.openFd(path);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The stamp the manifest was written with, null if there is no readable manifest
+     */
+    private static String readManifest(File file, Map<String, Entry> entries) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            final BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                final String stampLine = reader.readLine();
+                if (stampLine == null || !stampLine.startsWith(STAMP)) {
+                    return null;
+                }
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] fields = line.split(" ", 3);
+                    if (fields.length != 3) {
+                        entries.clear();
+                        return null;
+                    }
+                    entries.put(fields[2], new Entry(fields[0], Long.parseLong(fields[1])));
+                }
+                return stampLine.substring(STAMP.length());
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Could not read asset manifest " + file, e);
+            entries.clear();
+            return null;
+        }
+    }
+
+    private void writeManifest(File file, Map<String, Entry> entries) throws IOException {
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final PrintWriter writer = new PrintWriter(temp, "UTF-8");
+        try {
+            writer.print(STAMP + mStamp + "\n");
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.print(entry.getValue().hash + " " + entry.getValue().size + " " + entry.getKey() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError() || !temp.renameTo(file)) {
+            throw new IOException("Error writing " + file);
+        }
+    }
+
+    private static final class Entry {
+        final String hash;
+        final long size;
+
+        Entry(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            final Entry entry = (Entry) other;
+            return size == entry.size && hash.equals(entry.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash.hashCode();
+        }
+    }
+}
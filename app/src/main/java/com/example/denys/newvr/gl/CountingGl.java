@@ -0,0 +1,267 @@
+package com.example.denys.newvr.gl;
+
+import java.nio.Buffer;
+
+/**
+ * Passes GL calls on to another {@link Gl} and counts the kinds that show what a frame costs:
+ * programs made current, uniforms set, textures bound and draw calls. Counts are of the calls
+ * that actually reached the backend, so state a {@link GlState} skipped is not counted. GL thread
+ * only.
+ */
+public class CountingGl implements Gl {
+
+    private final Gl mGl;
+
+    private int mPrograms;
+    private int mUniforms;
+    private int mTextureBinds;
+    private int mDrawCalls;
+
+    public CountingGl(Gl gl) {
+        mGl = gl;
+    }
+
+    /**
+     * @return glUseProgram calls since the last {@link #resetCounters()}
+     */
+    public int getPrograms() {
+        return mPrograms;
+    }
+
+    /**
+     * @return glUniform calls of any kind
+     */
+    public int getUniforms() {
+        return mUniforms;
+    }
+
+    /**
+     * @return glBindTexture calls
+     */
+    public int getTextureBinds() {
+        return mTextureBinds;
+    }
+
+    /**
+     * @return glDrawElements calls
+     */
+    public int getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    public void resetCounters() {
+        mPrograms = 0;
+        mUniforms = 0;
+        mTextureBinds = 0;
+        mDrawCalls = 0;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        mGl.glClear(mask);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        mGl.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glEnable(int capability) {
+        mGl.glEnable(capability);
+    }
+
+    @Override
+    public void glDisable(int capability) {
+        mGl.glDisable(capability);
+    }
+
+    @Override
+    public boolean glIsEnabled(int capability) {
+        return mGl.glIsEnabled(capability);
+    }
+
+    @Override
+    public void glFrontFace(int mode) {
+        mGl.glFrontFace(mode);
+    }
+
+    @Override
+    public void glBlendFunc(int source, int destination) {
+        mGl.glBlendFunc(source, destination);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        mGl.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public int glGetError() {
+        return mGl.glGetError();
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        mPrograms++;
+        mGl.glUseProgram(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        mGl.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        mGl.glBindAttribLocation(program, index, name);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return mGl.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return mGl.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        mUniforms++;
+        mGl.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        mUniforms++;
+        mGl.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y) {
+        mUniforms++;
+        mGl.glUniform2f(location, x, y);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        mUniforms++;
+        mGl.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glActiveTexture(int unit) {
+        mGl.glActiveTexture(unit);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        mGl.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        mGl.glDeleteTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        mTextureBinds++;
+        mGl.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int name, int param) {
+        mGl.glTexParameteri(target, name, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        mGl.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        mGl.glGenFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        mGl.glDeleteFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        mGl.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+        mGl.glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        return mGl.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        mGl.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        mGl.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        mGl.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        mGl.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        mGl.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        mGl.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        mGl.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer data) {
+        mGl.glVertexAttribPointer(index, size, type, normalized, stride, data);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        mGl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        mDrawCalls++;
+        mGl.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        mDrawCalls++;
+        mGl.glDrawElements(mode, count, type, offset);
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.denys.newvr.gl;
+
+import android.annotation.TargetApi;
+import android.opengl.GLSurfaceView;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders a {@link GLSurfaceView} only when something asked for a frame, paced to the display.
+ * <p>
+ * The view is switched to {@link GLSurfaceView#RENDERMODE_WHEN_DIRTY}. Any number of
+ * {@link #requestFrame()} calls from any thread between two frames collapse into one render,
+ * issued on the next vsync (through {@link Choreographer}, or a timer before Jelly Bean) that
+ * respects the frame cap. Nothing is scheduled while no one asks, so an idle scene costs neither
+ * GPU time nor wakeups.
+ */
+public class FramePacer {
+
+    /** Passed to {@link #setMaxFrameRate(int)} to render on every vsync. */
+    public static final int UNCAPPED = 0;
+
+    /** Vsync timestamps jitter, a frame this early still counts as on time. */
+    private static final long FRAME_SLACK_NANOS = 2000000L;
+
+    /** Frame interval assumed for the display when there is no cap. */
+    private static final long VSYNC_NANOS = 16666667L;
+
+    private final GLSurfaceView mView;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mRequested = new AtomicBoolean();
+
+    private volatile long mMinIntervalNanos;
+    private volatile long mRequestNanos;
+    private volatile boolean mContinuous;
+    private volatile boolean mReleased;
+
+    /** Main thread only. */
+    private boolean mScheduled;
+    private long mLastFrameNanos;
+
+    private final Runnable mSchedule = new Runnable() {
+        @Override
+        public void run() {
+            if (!mReleased && !mScheduled) {
+                mScheduled = true;
+                scheduleVsync();
+            }
+        }
+    };
+
+    private final Runnable mTimerFrame = new Runnable() {
+        @Override
+        public void run() {
+            onVsync(System.nanoTime());
+        }
+    };
+
+    private Object mFrameCallback;
+
+    /**
+     * @param maxFps Most frames per second to render, or {@link #UNCAPPED}
+     */
+    public FramePacer(GLSurfaceView view, int maxFps) {
+        mView = view;
+        mView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        setMaxFrameRate(maxFps);
+    }
+
+    /**
+     * @param maxFps Most frames per second to render, or {@link #UNCAPPED}
+     */
+    public void setMaxFrameRate(int maxFps) {
+        mMinIntervalNanos = maxFps <= 0 ? 0 : 1000000000L / maxFps;
+    }
+
+    /**
+     * Ask for a frame. Safe to call from any thread, as often as inputs change.
+     */
+    public void requestFrame() {
+        if (mReleased || !mRequested.compareAndSet(false, true)) {
+            return;
+        }
+        mRequestNanos = System.nanoTime();
+        mHandler.post(mSchedule);
+    }
+
+    /**
+     * Whether the frame being drawn was asked for before the previous one was due, i.e. frames
+     * follow each other as fast as the cap allows. Only then does the interval between two frames
+     * say something about rendering speed; otherwise it just measures how often inputs changed.
+     */
+    public boolean isContinuous() {
+        return mContinuous;
+    }
+
+    /**
+     * Stop issuing frames, e.g. when the activity pauses. Pending requests are dropped.
+     */
+    public void release() {
+        mReleased = true;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mSchedule);
+                mHandler.removeCallbacks(mTimerFrame);
+                if (mFrameCallback != null) {
+                    Api16.removeFrameCallback(mFrameCallback);
+                }
+                mScheduled = false;
+            }
+        });
+    }
+
+    private void scheduleVsync() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mFrameCallback == null) {
+                mFrameCallback = Api16.newFrameCallback(this);
+            }
+            Api16.postFrameCallback(mFrameCallback);
+        } else {
+            // No vsync signal, wait until the cap allows the next frame.
+            final long due = mLastFrameNanos + Math.max(mMinIntervalNanos, VSYNC_NANOS);
+            final long delayMillis = Math.max(0, (due - System.nanoTime()) / 1000000L);
+            mHandler.postAtTime(mTimerFrame, SystemClock.uptimeMillis() + delayMillis);
+        }
+    }
+
+    private void onVsync(long frameTimeNanos) {
+        if (mReleased) {
+            mScheduled = false;
+            return;
+        }
+
+        final long interval = Math.max(mMinIntervalNanos, VSYNC_NANOS);
+        if (mLastFrameNanos != 0 && frameTimeNanos - mLastFrameNanos < mMinIntervalNanos - FRAME_SLACK_NANOS) {
+            // Too early for the cap, try again on the next vsync.
+            scheduleVsync();
+            return;
+        }
+
+        mContinuous = mLastFrameNanos != 0 && mRequestNanos - mLastFrameNanos <= interval + FRAME_SLACK_NANOS;
+        mLastFrameNanos = frameTimeNanos;
+        mScheduled = false;
+
+        // Requests from now on are for the frame after this one.
+        mRequested.set(false);
+        mView.requestRender();
+    }
+
+    /**
+     * Keeps the references to {@link Choreographer} out of classes loaded on older platforms.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class Api16 {
+
+        static Object newFrameCallback(final FramePacer pacer) {
+            return new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    pacer.onVsync(frameTimeNanos);
+                }
+            };
+        }
+
+        static void postFrameCallback(Object callback) {
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) callback);
+        }
+
+        static void removeFrameCallback(Object callback) {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) callback);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Indexed geometry with interleaved float vertex attributes in a vertex and an index buffer object,
+ * and the client side arrays they are filled from. The buffer lifecycle {@link StaticMesh} and
+ * {@link InstanceBatch} share: upload, release, binding and drawing, with the fallback to the client
+ * arrays when the driver fails to create or fill the buffers or they are switched off.
+ */
+final class GeometryBuffers {
+
+    /** How many bytes per float. */
+    static final int BYTES_PER_FLOAT = 4;
+
+    /** Tag of the owner, the warnings are about its geometry. */
+    private final String mTag;
+
+    private final FloatBuffer mVertices;
+    private final Buffer mIndices;
+    private final int mIndexType;
+    private final int mIndexBytes;
+    private final int mStrideBytes;
+
+    /** Vertices rewritten every frame with {@link #streamVertices(int)}, rather than uploaded once. */
+    private final boolean mStream;
+
+    private int mVertexBufferHandle;
+    private int mIndexBufferHandle;
+    private boolean mUseBuffers = true;
+
+    /** Shadowed state to enable attribute arrays through, null to call GL directly. */
+    private GlState mGlState;
+
+    /** Where the GL calls go. */
+    private Gl mGl = AndroidGl.INSTANCE;
+
+    /**
+     * @param tag          Log tag of the owner
+     * @param vertices     Interleaved vertex data
+     * @param strideFloats Number of floats per vertex
+     * @param indices      Triangle indices into the vertices
+     * @param indexType    GL_UNSIGNED_BYTE or GL_UNSIGNED_SHORT
+     * @param stream       True if the vertices change every frame
+     */
+    GeometryBuffers(String tag, FloatBuffer vertices, int strideFloats, Buffer indices, int indexType,
+                    boolean stream) {
+        mTag = tag;
+        mVertices = vertices;
+        mIndices = indices;
+        mIndexType = indexType;
+        mIndexBytes = indexType == GLES20.GL_UNSIGNED_SHORT ? indices.capacity() * 2 : indices.capacity();
+        mStrideBytes = strideFloats * BYTES_PER_FLOAT;
+        mStream = stream;
+    }
+
+    void setGlState(GlState glState) {
+        mGlState = glState;
+        mGl = glState != null ? glState.getGl() : AndroidGl.INSTANCE;
+    }
+
+    void setUseBuffers(boolean useBuffers) {
+        mUseBuffers = useBuffers;
+    }
+
+    boolean isUsingBuffers() {
+        return mUseBuffers && mVertexBufferHandle != 0;
+    }
+
+    /**
+     * Create the buffer objects and fill them, streamed vertices only get their space. On failure
+     * the geometry keeps drawing from the client arrays.
+     */
+    void upload() {
+        release();
+
+        final int[] handles = new int[2];
+        mGl.glGenBuffers(2, handles, 0);
+
+        if (handles[0] == 0 || handles[1] == 0) {
+            Log.w(mTag, "Could not create buffer objects, using client arrays.");
+            return;
+        }
+
+        // Clear any error left over by someone else, so we only see our own.
+        while (mGl.glGetError() != GLES20.GL_NO_ERROR) {
+            // discard
+        }
+
+        final int vertexBytes = mVertices.capacity() * BYTES_PER_FLOAT;
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, handles[0]);
+        if (mStream) {
+            // Sized once, each frame only replaces the part that is drawn.
+            mGl.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexBytes, null, GLES20.GL_STREAM_DRAW);
+        } else {
+            mVertices.position(0);
+            mGl.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexBytes, mVertices, GLES20.GL_STATIC_DRAW);
+        }
+
+        mIndices.position(0);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, handles[1]);
+        mGl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBytes, mIndices, GLES20.GL_STATIC_DRAW);
+
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        int error = mGl.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            Log.w(mTag, "Uploading buffer objects failed with error " + error + ", using client arrays.");
+            mGl.glDeleteBuffers(2, handles, 0);
+            return;
+        }
+
+        mVertexBufferHandle = handles[0];
+        mIndexBufferHandle = handles[1];
+    }
+
+    void release() {
+        if (mVertexBufferHandle != 0) {
+            mGl.glDeleteBuffers(2, new int[]{mVertexBufferHandle, mIndexBufferHandle}, 0);
+        }
+        invalidate();
+    }
+
+    void invalidate() {
+        mVertexBufferHandle = 0;
+        mIndexBufferHandle = 0;
+    }
+
+    void bind() {
+        if (isUsingBuffers()) {
+            mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferHandle);
+            mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandle);
+        }
+    }
+
+    /**
+     * Copy the first vertices from the client array into the bound vertex buffer. Nothing to do
+     * when drawing from the client array.
+     */
+    void streamVertices(int floats) {
+        if (isUsingBuffers()) {
+            mVertices.position(0);
+            mGl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, floats * BYTES_PER_FLOAT, mVertices);
+        }
+    }
+
+    /**
+     * Point a vertex attribute at part of the interleaved data and enable it.
+     */
+    void attribute(int handle, int size, int offsetFloats) {
+        if (isUsingBuffers()) {
+            mGl.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, mStrideBytes,
+                    offsetFloats * BYTES_PER_FLOAT);
+        } else {
+            mVertices.position(offsetFloats);
+            mGl.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, mStrideBytes, mVertices);
+        }
+        if (mGlState != null) {
+            mGlState.enableVertexAttribArray(handle);
+        } else {
+            mGl.glEnableVertexAttribArray(handle);
+        }
+    }
+
+    /**
+     * Draw the first indices as triangles and unbind the buffers again, so following client array
+     * draws (like the ARToolKit camera background) are not affected.
+     */
+    void draw(int indexCount) {
+        if (isUsingBuffers()) {
+            mGl.glDrawElements(GLES20.GL_TRIANGLES, indexCount, mIndexType, 0);
+            mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        } else {
+            mIndices.position(0);
+            mGl.glDrawElements(GLES20.GL_TRIANGLES, indexCount, mIndexType, mIndices);
+        }
+    }
+}
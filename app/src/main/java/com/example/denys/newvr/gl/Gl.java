@@ -0,0 +1,101 @@
+package com.example.denys.newvr.gl;
+
+import java.nio.Buffer;
+
+/**
+ * The GL calls the render paths make, behind an interface so they can run without a context.
+ * <p>
+ * {@link AndroidGl} passes them on to {@link android.opengl.GLES20}; tests substitute a backend
+ * that records them, to check how many calls, lookups and allocations a frame costs. Methods are
+ * named and typed like their GLES20 counterparts. Program compilation, texture decoding and
+ * uploads still call GLES20 directly, they happen once and not per frame.
+ */
+public interface Gl {
+
+    void glClear(int mask);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glEnable(int capability);
+
+    void glDisable(int capability);
+
+    boolean glIsEnabled(int capability);
+
+    void glFrontFace(int mode);
+
+    void glBlendFunc(int source, int destination);
+
+    void glViewport(int x, int y, int width, int height);
+
+    int glGetError();
+
+    void glUseProgram(int program);
+
+    void glDeleteProgram(int program);
+
+    void glBindAttribLocation(int program, int index, String name);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glUniform1i(int location, int x);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform2f(int location, float x, float y);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glActiveTexture(int unit);
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    void glDeleteTextures(int n, int[] textures, int offset);
+
+    void glBindTexture(int target, int texture);
+
+    void glTexParameteri(int target, int name, int param);
+
+    void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                      int format, int type, Buffer pixels);
+
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+    void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+
+    void glBindFramebuffer(int target, int framebuffer);
+
+    void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level);
+
+    int glCheckFramebufferStatus(int target);
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer data);
+
+    /**
+     * @param offset Byte offset into the bound array buffer
+     */
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    /**
+     * @param offset Byte offset into the bound element array buffer
+     */
+    void glDrawElements(int mode, int count, int type, int offset);
+}
@@ -0,0 +1,296 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+/**
+ * A shadow of the GL state the renderers change every frame, so calls that would set what is
+ * already set are skipped instead of reaching the driver.
+ * <p>
+ * Covers capabilities, front face, blend function, the program, the active texture unit, texture
+ * bindings per unit, enabled vertex attribute arrays and the viewport. State starts out unknown, so
+ * the first call always goes through. The shadow is only right while all changes to that state go
+ * through it: call {@link #invalidate()} for a new context or after code that changes GL state on
+ * its own, {@link #invalidateProgram()} after code that drew with a program of its own, and
+ * {@link #invalidateTextures()} after textures were created, uploaded or deleted outside, which
+ * binds them on whatever unit is active. One per context, GL thread only.
+ * <p>
+ * Calls go through a {@link Gl}, which the classes drawing with this shadow use for their other
+ * calls too.
+ */
+public class GlState {
+
+    /** Texture units and attribute locations shadowed, more go straight through. */
+    private static final int MAX_UNITS = 8;
+    private static final int MAX_ATTRIBUTES = 16;
+
+    private static final int UNKNOWN = -1;
+
+    /** Capabilities that are shadowed, everything else goes straight through. */
+    private static final int[] CAPABILITIES = {
+            GLES20.GL_BLEND, GLES20.GL_CULL_FACE, GLES20.GL_DEPTH_TEST, GLES20.GL_SCISSOR_TEST,
+            GLES20.GL_STENCIL_TEST, GLES20.GL_DITHER, GLES20.GL_POLYGON_OFFSET_FILL
+    };
+
+    /** Targets texture bindings are shadowed for. */
+    private static final int[] TARGETS = {
+            GLES20.GL_TEXTURE_2D, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_CUBE_MAP
+    };
+
+    /** Per capability and attribute: UNKNOWN, 0 for disabled, 1 for enabled. */
+    private final int[] mCapabilities = new int[CAPABILITIES.length];
+    private final int[] mAttributes = new int[MAX_ATTRIBUTES];
+
+    /** Bound texture per unit and target. */
+    private final int[] mTextures = new int[MAX_UNITS * TARGETS.length];
+
+    private int mFrontFace;
+    private int mBlendSource;
+    private int mBlendDestination;
+    private int mProgram;
+    private int mActiveTexture;
+    private int mViewportX;
+    private int mViewportY;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
+    private final Gl mGl;
+
+    private int mIssued;
+    private int mSkipped;
+
+    public GlState() {
+        this(AndroidGl.INSTANCE);
+    }
+
+    public GlState(Gl gl) {
+        mGl = gl;
+        invalidate();
+    }
+
+    /**
+     * @return The GL calls go to
+     */
+    public Gl getGl() {
+        return mGl;
+    }
+
+    /**
+     * Forget all state, so the next call of each kind goes through.
+     */
+    public void invalidate() {
+        fill(mCapabilities);
+        fill(mAttributes);
+        fill(mTextures);
+        mFrontFace = UNKNOWN;
+        mBlendSource = UNKNOWN;
+        mBlendDestination = UNKNOWN;
+        mProgram = UNKNOWN;
+        mActiveTexture = UNKNOWN;
+        mViewportX = UNKNOWN;
+        mViewportY = UNKNOWN;
+        mViewportWidth = UNKNOWN;
+        mViewportHeight = UNKNOWN;
+    }
+
+    /**
+     * Forget the program and the enabled attribute arrays, after code that draws with a program
+     * of its own, like ARToolKit's base renderer.
+     */
+    public void invalidateProgram() {
+        fill(mAttributes);
+        mProgram = UNKNOWN;
+    }
+
+    /**
+     * Forget the active unit and the texture bindings.
+     */
+    public void invalidateTextures() {
+        fill(mTextures);
+        mActiveTexture = UNKNOWN;
+    }
+
+    public void enable(int capability) {
+        setEnabled(capability, true);
+    }
+
+    public void disable(int capability) {
+        setEnabled(capability, false);
+    }
+
+    public void setEnabled(int capability, boolean enabled) {
+        final int index = indexOf(CAPABILITIES, capability);
+        final int value = enabled ? 1 : 0;
+        if (index >= 0) {
+            if (mCapabilities[index] == value) {
+                mSkipped++;
+                return;
+            }
+            mCapabilities[index] = value;
+        }
+        mIssued++;
+        if (enabled) {
+            mGl.glEnable(capability);
+        } else {
+            mGl.glDisable(capability);
+        }
+    }
+
+    /**
+     * @return Whether a capability is enabled, asking GL only while it is unknown
+     */
+    public boolean isEnabled(int capability) {
+        final int index = indexOf(CAPABILITIES, capability);
+        if (index < 0) {
+            return mGl.glIsEnabled(capability);
+        }
+        if (mCapabilities[index] == UNKNOWN) {
+            mCapabilities[index] = mGl.glIsEnabled(capability) ? 1 : 0;
+        }
+        return mCapabilities[index] == 1;
+    }
+
+    public void frontFace(int mode) {
+        if (mFrontFace == mode) {
+            mSkipped++;
+            return;
+        }
+        mFrontFace = mode;
+        mIssued++;
+        mGl.glFrontFace(mode);
+    }
+
+    public void blendFunc(int source, int destination) {
+        if (mBlendSource == source && mBlendDestination == destination) {
+            mSkipped++;
+            return;
+        }
+        mBlendSource = source;
+        mBlendDestination = destination;
+        mIssued++;
+        mGl.glBlendFunc(source, destination);
+    }
+
+    public void useProgram(int program) {
+        if (mProgram == program) {
+            mSkipped++;
+            return;
+        }
+        mProgram = program;
+        mIssued++;
+        mGl.glUseProgram(program);
+    }
+
+    /**
+     * @param unit {@code GL_TEXTURE0} and up
+     */
+    public void activeTexture(int unit) {
+        if (mActiveTexture == unit) {
+            mSkipped++;
+            return;
+        }
+        mActiveTexture = unit;
+        mIssued++;
+        mGl.glActiveTexture(unit);
+    }
+
+    /**
+     * Bind a texture to the active unit.
+     */
+    public void bindTexture(int target, int texture) {
+        final int unit = mActiveTexture - GLES20.GL_TEXTURE0;
+        final int index = indexOf(TARGETS, target);
+        if (mActiveTexture != UNKNOWN && unit < MAX_UNITS && index >= 0) {
+            final int slot = unit * TARGETS.length + index;
+            if (mTextures[slot] == texture) {
+                mSkipped++;
+                return;
+            }
+            mTextures[slot] = texture;
+        }
+        mIssued++;
+        mGl.glBindTexture(target, texture);
+    }
+
+    /**
+     * Bind a texture to a unit, making it the active one.
+     *
+     * @param unit {@code GL_TEXTURE0} and up
+     */
+    public void bindTexture(int unit, int target, int texture) {
+        activeTexture(unit);
+        bindTexture(target, texture);
+    }
+
+    public void enableVertexAttribArray(int location) {
+        setAttributeEnabled(location, true);
+    }
+
+    public void disableVertexAttribArray(int location) {
+        setAttributeEnabled(location, false);
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if (mViewportX == x && mViewportY == y && mViewportWidth == width && mViewportHeight == height) {
+            mSkipped++;
+            return;
+        }
+        mViewportX = x;
+        mViewportY = y;
+        mViewportWidth = width;
+        mViewportHeight = height;
+        mIssued++;
+        mGl.glViewport(x, y, width, height);
+    }
+
+    /**
+     * @return State calls passed on to GL since the last {@link #resetCounters()}
+     */
+    public int getIssuedCalls() {
+        return mIssued;
+    }
+
+    /**
+     * @return State calls skipped because they would not have changed anything
+     */
+    public int getSkippedCalls() {
+        return mSkipped;
+    }
+
+    public void resetCounters() {
+        mIssued = 0;
+        mSkipped = 0;
+    }
+
+    private void setAttributeEnabled(int location, boolean enabled) {
+        final int value = enabled ? 1 : 0;
+        if (location >= 0 && location < MAX_ATTRIBUTES) {
+            if (mAttributes[location] == value) {
+                mSkipped++;
+                return;
+            }
+            mAttributes[location] = value;
+        }
+        mIssued++;
+        if (enabled) {
+            mGl.glEnableVertexAttribArray(location);
+        } else {
+            mGl.glDisableVertexAttribArray(location);
+        }
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void fill(int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Many copies of one piece of geometry, each placed by its own matrix, drawn with a single buffer
+ * upload and a single draw call.
+ * <p>
+ * GLES 2.0 has no instancing, so the positions of every copy are transformed on the CPU into one
+ * preallocated vertex array, which {@link #draw(int, int, int, int, int)} streams into a vertex
+ * buffer object with glBufferSubData. Everything but the positions, like colors, is copied once at
+ * creation, and the indices of all copies are built and uploaded once. Drawing allocates nothing.
+ * Falls back to client side arrays like {@link StaticMesh} when buffer objects fail, both keep their
+ * buffers in {@link GeometryBuffers}.
+ */
+public class InstanceBatch {
+
+    private static final String TAG = "InstanceBatch";
+
+    /** Indices are unsigned shorts, so all copies together can have this many vertices. */
+    private static final int MAX_VERTICES = 65536;
+
+    private final float[] mPositions;
+    private final int mStride;
+    private final int mVertexCount;
+    private final int mIndexCount;
+    private final int mMaxInstances;
+
+    /** All copies, interleaved, positions rewritten by {@link #setInstance(int, float[], int)}. */
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private final GeometryBuffers mBuffers;
+
+    /**
+     * @param vertices     Interleaved vertex data of one copy, starting with a 3 float position
+     * @param strideFloats Number of floats per vertex
+     * @param indices      Triangle indices of one copy
+     * @param maxInstances How many copies can be drawn at most
+     */
+    public InstanceBatch(float[] vertices, int strideFloats, byte[] indices, int maxInstances) {
+        mStride = strideFloats;
+        mVertexCount = vertices.length / strideFloats;
+        mIndexCount = indices.length;
+        if (mVertexCount * maxInstances > MAX_VERTICES) {
+            throw new IllegalArgumentException("Too many instances for short indices: " + maxInstances);
+        }
+        mMaxInstances = maxInstances;
+
+        mPositions = new float[mVertexCount * 3];
+        for (int v = 0; v < mVertexCount; v++) {
+            System.arraycopy(vertices, v * strideFloats, mPositions, v * 3, 3);
+        }
+
+        mVertices = new float[vertices.length * maxInstances];
+        final short[] allIndices = new short[mIndexCount * maxInstances];
+        for (int i = 0; i < maxInstances; i++) {
+            System.arraycopy(vertices, 0, mVertices, i * vertices.length, vertices.length);
+            for (int j = 0; j < mIndexCount; j++) {
+                allIndices[i * mIndexCount + j] = (short) (i * mVertexCount + (indices[j] & 0xff));
+            }
+        }
+        mVertexBuffer = NativeBuffers.of(mVertices);
+        mBuffers = new GeometryBuffers(TAG, mVertexBuffer, strideFloats, NativeBuffers.of(allIndices),
+                GLES20.GL_UNSIGNED_SHORT, true);
+    }
+
+    /**
+     * Enable attribute arrays through a state shadow, so arrays that are already enabled are not
+     * enabled again every draw. All other calls go through the shadow's {@link Gl} as well.
+     */
+    public void setGlState(GlState glState) {
+        mBuffers.setGlState(glState);
+    }
+
+    public int getMaxInstances() {
+        return mMaxInstances;
+    }
+
+    /**
+     * Place a copy: its positions become {@code matrix * position}.
+     *
+     * @param index  Which copy, below {@link #getMaxInstances()}
+     * @param matrix Column major 4x4 matrices
+     * @param offset Where the matrix starts in the array
+     */
+    public void setInstance(int index, float[] matrix, int offset) {
+        final float m0 = matrix[offset];
+        final float m1 = matrix[offset + 1];
+        final float m2 = matrix[offset + 2];
+        final float m4 = matrix[offset + 4];
+        final float m5 = matrix[offset + 5];
+        final float m6 = matrix[offset + 6];
+        final float m8 = matrix[offset + 8];
+        final float m9 = matrix[offset + 9];
+        final float m10 = matrix[offset + 10];
+        final float m12 = matrix[offset + 12];
+        final float m13 = matrix[offset + 13];
+        final float m14 = matrix[offset + 14];
+
+        int target = index * mVertexCount * mStride;
+        for (int v = 0; v < mVertexCount; v++) {
+            final float x = mPositions[v * 3];
+            final float y = mPositions[v * 3 + 1];
+            final float z = mPositions[v * 3 + 2];
+            mVertices[target] = m0 * x + m4 * y + m8 * z + m12;
+            mVertices[target + 1] = m1 * x + m5 * y + m9 * z + m13;
+            mVertices[target + 2] = m2 * x + m6 * y + m10 * z + m14;
+            target += mStride;
+        }
+    }
+
+    /**
+     * Create the buffer objects and upload the indices. Must be called on the GL thread, typically
+     * from onSurfaceCreated. On failure the batch keeps drawing from client side arrays.
+     */
+    public void upload() {
+        mBuffers.upload();
+    }
+
+    /**
+     * Delete the buffer objects. Must be called on the GL thread that owns them.
+     */
+    public void release() {
+        mBuffers.release();
+    }
+
+    /**
+     * Forget the buffer objects without deleting them, because the context owning them is gone.
+     */
+    public void invalidate() {
+        mBuffers.invalidate();
+    }
+
+    /**
+     * Upload the first copies and draw them with one call, with the program already in use.
+     *
+     * @param count          How many copies, from the first
+     * @param positionHandle Location of the 3 float position attribute
+     * @param otherHandle    Location of the attribute following the position, -1 for none
+     * @param otherSize      Number of floats of that attribute
+     * @param otherOffset    Its offset inside a vertex in floats
+     */
+    public void draw(int count, int positionHandle, int otherHandle, int otherSize, int otherOffset) {
+        if (count <= 0) {
+            return;
+        }
+        final int floats = count * mVertexCount * mStride;
+        mVertexBuffer.position(0);
+        mVertexBuffer.put(mVertices, 0, floats);
+
+        mBuffers.bind();
+        mBuffers.streamVertices(floats);
+        mBuffers.attribute(positionHandle, 3, 0);
+        if (otherHandle >= 0) {
+            mBuffers.attribute(otherHandle, otherSize, otherOffset);
+        }
+        mBuffers.draw(count * mIndexCount);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.denys.newvr.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Direct buffers in native byte order holding a copy of an array, the form GL takes client side
+ * data in. Plain Java, so building them can be measured off the device.
+ */
+public final class NativeBuffers {
+
+    private NativeBuffers() {
+    }
+
+    /**
+     * @return A buffer with the values, positioned at 0
+     */
+    public static FloatBuffer of(float[] values) {
+        final FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(values).position(0);
+        return buffer;
+    }
+
+    /**
+     * @return A buffer with the values, positioned at 0
+     */
+    public static ShortBuffer of(short[] values) {
+        final ShortBuffer buffer = ByteBuffer.allocateDirect(values.length * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        buffer.put(values).position(0);
+        return buffer;
+    }
+
+    /**
+     * @return A buffer with the values, positioned at 0
+     */
+    public static ByteBuffer of(byte[] values) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(values.length).order(ByteOrder.nativeOrder());
+        buffer.put(values).position(0);
+        return buffer;
+    }
+
+    /**
+     * Interleave two attributes held in separate buffers, like the positions and colors of
+     * ARToolKit's shapes, into one array of vertices.
+     *
+     * @param firstSize  Floats per vertex in the first buffer
+     * @param secondSize Floats per vertex in the second buffer
+     */
+    public static float[] interleave(FloatBuffer first, int firstSize, FloatBuffer second, int secondSize) {
+        final int stride = firstSize + secondSize;
+        final int vertexCount = first.capacity() / firstSize;
+        final float[] vertices = new float[vertexCount * stride];
+        for (int v = 0; v < vertexCount; v++) {
+            for (int i = 0; i < firstSize; i++) {
+                vertices[v * stride + i] = first.get(v * firstSize + i);
+            }
+            for (int i = 0; i < secondSize; i++) {
+                vertices[v * stride + firstSize + i] = second.get(v * secondSize + i);
+            }
+        }
+        return vertices;
+    }
+
+    /**
+     * @return All bytes of a buffer, whatever its position
+     */
+    public static byte[] toArray(ByteBuffer buffer) {
+        final byte[] values = new byte[buffer.capacity()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.get(i);
+        }
+        return values;
+    }
+}
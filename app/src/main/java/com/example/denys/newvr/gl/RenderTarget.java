@@ -0,0 +1,132 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * An offscreen framebuffer with a color texture, for passes drawn at a different resolution than
+ * the surface and copied onto it afterwards. There is no depth attachment.
+ */
+public class RenderTarget {
+
+    private static final String TAG = "RenderTarget";
+
+    private int mFramebufferHandle;
+    private int mTextureHandle;
+    private int mWidth;
+    private int mHeight;
+
+    /** Shadowed state to bind and set the viewport through, null to call GL directly. */
+    private GlState mGlState;
+
+    /** Where the GL calls go. */
+    private Gl mGl = AndroidGl.INSTANCE;
+
+    /**
+     * Bind the texture and set the viewport through a state shadow, and tell it when the texture
+     * is deleted. All other calls go through the shadow's {@link Gl} as well.
+     */
+    public void setGlState(GlState glState) {
+        mGlState = glState;
+        mGl = glState != null ? glState.getGl() : AndroidGl.INSTANCE;
+    }
+
+    /**
+     * Make sure the target exists with the given size, recreating it if the size changed. Must be
+     * called on the GL thread.
+     *
+     * @return False if the driver can't render to a texture of that size, the target is released then
+     */
+    public boolean resize(int width, int height) {
+        if (mFramebufferHandle != 0 && width == mWidth && height == mHeight) {
+            return true;
+        }
+
+        release();
+
+        final int[] handle = new int[1];
+        mGl.glGenTextures(1, handle, 0);
+        mTextureHandle = handle[0];
+        if (mGlState != null) {
+            mGlState.bindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle);
+        } else {
+            mGl.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureHandle);
+        }
+        // Linear, the texture is stretched onto the surface.
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+
+        mGl.glGenFramebuffers(1, handle, 0);
+        mFramebufferHandle = handle[0];
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferHandle);
+        mGl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTextureHandle, 0);
+
+        final int status = mGl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.w(TAG, "Framebuffer " + width + "x" + height + " incomplete: 0x" + Integer.toHexString(status));
+            release();
+            return false;
+        }
+
+        mWidth = width;
+        mHeight = height;
+        return true;
+    }
+
+    /**
+     * Direct drawing into the target and set the viewport to cover it.
+     */
+    public void bind() {
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferHandle);
+        if (mGlState != null) {
+            mGlState.viewport(0, 0, mWidth, mHeight);
+        } else {
+            mGl.glViewport(0, 0, mWidth, mHeight);
+        }
+    }
+
+    /**
+     * Delete the framebuffer and texture. Must be called on the GL thread.
+     */
+    public void release() {
+        if (mFramebufferHandle != 0) {
+            mGl.glDeleteFramebuffers(1, new int[]{mFramebufferHandle}, 0);
+        }
+        if (mTextureHandle != 0) {
+            mGl.glDeleteTextures(1, new int[]{mTextureHandle}, 0);
+            if (mGlState != null) {
+                mGlState.invalidateTextures();
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * Forget the handles without deleting them, after the context that owned them was lost.
+     */
+    public void invalidate() {
+        mFramebufferHandle = 0;
+        mTextureHandle = 0;
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    public int getTextureHandle() {
+        return mTextureHandle;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+/**
+ * Indexed geometry with interleaved float vertex attributes that never changes after creation.
+ * <p>
+ * The data is uploaded once into a vertex and an index buffer object with {@link #upload()} and
+ * only bound when drawing. If the driver fails to create or fill the buffers, or
+ * {@link #setUseBuffers(boolean)} switched them off, the mesh falls back to client side arrays
+ * holding the same data. The buffers themselves are kept by {@link GeometryBuffers}.
+ */
+public class StaticMesh {
+
+    private static final String TAG = "StaticMesh";
+
+    private final GeometryBuffers mBuffers;
+    private final int mIndexCount;
+
+    /**
+     * @param vertices     Interleaved vertex data
+     * @param strideFloats Number of floats per vertex
+     * @param indices      Triangle indices into the vertices
+     */
+    public StaticMesh(float[] vertices, int strideFloats, short[] indices) {
+        this(vertices, strideFloats, NativeBuffers.of(indices), GLES20.GL_UNSIGNED_SHORT, indices.length);
+    }
+
+    /**
+     * @param vertices     Interleaved vertex data
+     * @param strideFloats Number of floats per vertex
+     * @param indices      Triangle indices into the vertices
+     */
+    public StaticMesh(float[] vertices, int strideFloats, byte[] indices) {
+        this(vertices, strideFloats, NativeBuffers.of(indices), GLES20.GL_UNSIGNED_BYTE, indices.length);
+    }
+
+    private StaticMesh(float[] vertices, int strideFloats, Buffer indices, int indexType, int indexCount) {
+        mBuffers = new GeometryBuffers(TAG, NativeBuffers.of(vertices), strideFloats, indices, indexType, false);
+        mIndexCount = indexCount;
+    }
+
+    /**
+     * Enable attribute arrays through a state shadow, so arrays that are already enabled are not
+     * enabled again every draw. All other calls go through the shadow's {@link Gl} as well.
+     */
+    public void setGlState(GlState glState) {
+        mBuffers.setGlState(glState);
+    }
+
+    /**
+     * Switch between buffer objects and client side arrays. Buffers that were already uploaded are
+     * kept, so switching back does not need another upload.
+     */
+    public void setUseBuffers(boolean useBuffers) {
+        mBuffers.setUseBuffers(useBuffers);
+    }
+
+    /**
+     * @return True if draws are sourced from buffer objects
+     */
+    public boolean isUsingBuffers() {
+        return mBuffers.isUsingBuffers();
+    }
+
+    /**
+     * Copy the geometry into buffer objects. Must be called on the GL thread, typically from
+     * onSurfaceCreated. On failure the mesh keeps drawing from client side arrays.
+     */
+    public void upload() {
+        mBuffers.upload();
+    }
+
+    /**
+     * Delete the buffer objects. Must be called on the GL thread that owns them.
+     */
+    public void release() {
+        mBuffers.release();
+    }
+
+    /**
+     * Forget the buffer objects without deleting them, because the context owning them is gone.
+     */
+    public void invalidate() {
+        mBuffers.invalidate();
+    }
+
+    /**
+     * Bind the geometry for drawing. Follow up with {@link #attribute(int, int, int)} for every
+     * vertex attribute, then {@link #draw()}.
+     */
+    public void bind() {
+        mBuffers.bind();
+    }
+
+    /**
+     * Point a vertex attribute at part of the interleaved data and enable it.
+     *
+     * @param handle       The attribute location
+     * @param size         Number of floats of the attribute
+     * @param offsetFloats Offset of the attribute inside a vertex in floats
+     */
+    public void attribute(int handle, int size, int offsetFloats) {
+        mBuffers.attribute(handle, size, offsetFloats);
+    }
+
+    /**
+     * Draw all triangles and unbind the buffers again, so following client array draws (like the
+     * ARToolKit camera background) are not affected.
+     */
+    public void draw() {
+        mBuffers.draw(mIndexCount);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * Runs GL uploads on a background thread whose EGL context shares objects with the renderer's,
+ * so big texture uploads don't stall the GL thread.
+ * <p>
+ * Every job ends with glFinish, so once its future is done the objects it created are complete and
+ * the GL thread only has to bind them. Some drivers can't create a second context; {@link #start}
+ * then returns null and uploads stay on the GL thread.
+ */
+public class TextureUploader {
+
+    private static final String TAG = "TextureUploader";
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int EGL_OPENGL_ES2_BIT = 4;
+
+    private final EGL10 mEgl;
+    private final EGLDisplay mDisplay;
+    private final EGLContext mContext;
+    private final EGLSurface mSurface;
+    private final ExecutorService mExecutor;
+
+    /**
+     * Create an upload context sharing with the current one. Must be called on the GL thread.
+     *
+     * @return The uploader, or null if no shared context could be made current
+     */
+    public static TextureUploader start() {
+        final EGL10 egl = (EGL10) EGLContext.getEGL();
+        final EGLDisplay display = egl.eglGetCurrentDisplay();
+        final EGLContext shared = egl.eglGetCurrentContext();
+        if (shared == null || shared.equals(EGL10.EGL_NO_CONTEXT)) {
+            return null;
+        }
+
+        final int[] configAttributes = {
+                EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+                EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+                EGL10.EGL_NONE
+        };
+        final EGLConfig[] configs = new EGLConfig[1];
+        final int[] configCount = new int[1];
+        if (!egl.eglChooseConfig(display, configAttributes, configs, 1, configCount) || configCount[0] == 0) {
+            Log.w(TAG, "No pbuffer config, uploading on the GL thread.");
+            return null;
+        }
+
+        final EGLContext context = egl.eglCreateContext(display, configs[0], shared,
+                new int[]{EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE});
+        if (context == null || context.equals(EGL10.EGL_NO_CONTEXT)) {
+            Log.w(TAG, "Could not create a shared context (" + egl.eglGetError() + "), uploading on the GL thread.");
+            return null;
+        }
+
+        // The context needs a surface to be made current, a pixel is enough.
+        final EGLSurface surface = egl.eglCreatePbufferSurface(display, configs[0],
+                new int[]{EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE});
+        if (surface == null || surface.equals(EGL10.EGL_NO_SURFACE)) {
+            Log.w(TAG, "Could not create a pbuffer (" + egl.eglGetError() + "), uploading on the GL thread.");
+            egl.eglDestroyContext(display, context);
+            return null;
+        }
+
+        final TextureUploader uploader = new TextureUploader(egl, display, context, surface);
+        if (!uploader.makeCurrent()) {
+            Log.w(TAG, "Could not make the shared context current, uploading on the GL thread.");
+            uploader.release();
+            return null;
+        }
+        return uploader;
+    }
+
+    private TextureUploader(EGL10 egl, EGLDisplay display, EGLContext context, EGLSurface surface) {
+        mEgl = egl;
+        mDisplay = display;
+        mContext = context;
+        mSurface = surface;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "texture-upload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private boolean makeCurrent() {
+        final Future<Boolean> current = mExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mEgl.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext);
+            }
+        });
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Run a job with the upload context current.
+     *
+     * @return Done once the job's GL commands have completed
+     */
+    public <T> Future<T> submit(final Callable<T> job) {
+        return mExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final T result = job.call();
+                GLES20.glFinish();
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Destroy the upload context once queued jobs are done. Can be called from any thread.
+     */
+    public void release() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+                mEgl.eglDestroySurface(mDisplay, mSurface);
+                mEgl.eglDestroyContext(mDisplay, mContext);
+            }
+        });
+        mExecutor.shutdown();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.denys.newvr.input;
+
+/**
+ * Estimates when the frame being drawn will reach the screen, from measured frame times.
+ * <p>
+ * A frame shows up after its draw call returns and the compositor latches it, about one refresh
+ * later. Both are measured: how long drawing takes and the interval between frames, each as a
+ * moving average. Call from the render thread only.
+ */
+public class FrameLatency {
+
+    /** Weight of the newest measurement. */
+    private static final float SMOOTHING = 0.1f;
+
+    /** Intervals longer than this are pauses, not frames. */
+    private static final long MAX_INTERVAL_NANOS = 250000000L;
+
+    private float mDrawNanos;
+    private float mIntervalNanos = 16666667.0f;
+    private long mFrameStartNanos;
+
+    /**
+     * Report the start of a frame.
+     *
+     * @param nowNanos {@link System#nanoTime()}
+     * @return When this frame is expected on screen
+     */
+    public long beginFrame(long nowNanos) {
+        final long interval = nowNanos - mFrameStartNanos;
+        if (mFrameStartNanos != 0 && interval > 0 && interval < MAX_INTERVAL_NANOS) {
+            mIntervalNanos += SMOOTHING * (interval - mIntervalNanos);
+        }
+        mFrameStartNanos = nowNanos;
+        return nowNanos + getLatencyNanos();
+    }
+
+    /**
+     * Report that drawing the frame returned.
+     *
+     * @param nowNanos {@link System#nanoTime()}
+     */
+    public void endFrame(long nowNanos) {
+        mDrawNanos += SMOOTHING * ((nowNanos - mFrameStartNanos) - mDrawNanos);
+    }
+
+    /**
+     * @return Expected time from the start of a frame until it is on screen
+     */
+    public long getLatencyNanos() {
+        return (long) (mDrawNanos + mIntervalNanos);
+    }
+}
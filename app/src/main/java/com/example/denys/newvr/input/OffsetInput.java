@@ -0,0 +1,105 @@
+package com.example.denys.newvr.input;
+
+import com.example.denys.newvr.gl.FramePacer;
+
+/**
+ * A source of the parallax offset, e.g. device rotation or a touch drag.
+ * <p>
+ * Subclasses {@link #publish} samples from their own thread. The renderer asks for the offset
+ * {@link #predict predicted} to the time its frame will be on screen, extrapolating from the
+ * latest sample with its velocity. Nothing here allocates once constructed.
+ */
+public abstract class OffsetInput {
+
+    /** Don't extrapolate further than this, the motion is unlikely to hold that long. */
+    private static final long MAX_PREDICTION_NANOS = 50000000L;
+
+    /** Samples further apart than this start a new motion, the velocity restarts at 0. */
+    private static final long MAX_SAMPLE_GAP_NANOS = 100000000L;
+
+    /** Weight of the newest velocity estimate, smoothing out sensor jitter. */
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final OffsetMailbox mMailbox = new OffsetMailbox();
+    private volatile FramePacer mFramePacer;
+
+    // Writer thread only.
+    private float mLastX;
+    private float mLastY;
+    private float mVelocityX;
+    private float mVelocityY;
+    private long mLastNanos;
+
+    // Reader thread only.
+    private final float[] mSample = new float[4];
+
+    /**
+     * Ask for a frame on every new sample, for renderers drawn on demand.
+     */
+    public void setFramePacer(FramePacer framePacer) {
+        mFramePacer = framePacer;
+    }
+
+    /**
+     * Hand a new offset to the renderer. Call from a single thread.
+     *
+     * @param x              In [-1, 1]
+     * @param y              In [-1, 1]
+     * @param timestampNanos When the input was measured, in {@link System#nanoTime()} time
+     */
+    protected void publish(float x, float y, long timestampNanos) {
+        final long dt = timestampNanos - mLastNanos;
+        if (mLastNanos == 0 || dt > MAX_SAMPLE_GAP_NANOS) {
+            mVelocityX = 0.0f;
+            mVelocityY = 0.0f;
+        } else if (dt > 0) {
+            final float seconds = dt / 1000000000.0f;
+            mVelocityX += VELOCITY_SMOOTHING * ((x - mLastX) / seconds - mVelocityX);
+            mVelocityY += VELOCITY_SMOOTHING * ((y - mLastY) / seconds - mVelocityY);
+        }
+        mLastX = x;
+        mLastY = y;
+        mLastNanos = timestampNanos;
+
+        mMailbox.write(x, y, mVelocityX, mVelocityY, timestampNanos);
+
+        final FramePacer framePacer = mFramePacer;
+        if (framePacer != null) {
+            framePacer.requestFrame();
+        }
+    }
+
+    /**
+     * Stop the motion where it is, e.g. when the input goes away.
+     */
+    protected void hold(long timestampNanos) {
+        mVelocityX = 0.0f;
+        mVelocityY = 0.0f;
+        mLastNanos = 0;
+        mMailbox.write(mLastX, mLastY, 0.0f, 0.0f, timestampNanos);
+    }
+
+    /**
+     * The offset extrapolated to the given time. Call from a single thread, usually the GL thread.
+     *
+     * @param displayNanos When the frame is expected on screen, in {@link System#nanoTime()} time
+     * @param offset       Receives x and y
+     * @return False if there was no sample yet, offset is left alone then
+     */
+    public boolean predict(long displayNanos, float[] offset) {
+        final long timestampNanos = mMailbox.read(mSample);
+        if (timestampNanos == 0) {
+            return false;
+        }
+
+        final long ahead = Math.max(0, Math.min(MAX_PREDICTION_NANOS, displayNanos - timestampNanos));
+        final float seconds = ahead / 1000000000.0f;
+        offset[0] = clamp(mSample[0] + mSample[2] * seconds);
+        offset[1] = clamp(mSample[1] + mSample[3] * seconds);
+        return true;
+    }
+
+    protected static float clamp(float value) {
+        return Math.max(-1.0f, Math.min(1.0f, value));
+    }
+}
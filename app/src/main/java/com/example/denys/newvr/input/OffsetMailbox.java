@@ -0,0 +1,62 @@
+package com.example.denys.newvr.input;
+
+/**
+ * Hands the latest offset sample from one writer thread to any reader without locks or allocation.
+ * <p>
+ * A sequence lock: the writer makes the sequence odd, writes the fields and makes it even again. A
+ * reader that sees an odd sequence, or a different sequence after reading, caught a write in
+ * progress and simply reads again. Readers never block the writer, so a slow frame cannot delay
+ * sensor delivery. All fields are volatile, which keeps the reads ordered between the two sequence
+ * reads.
+ */
+public class OffsetMailbox {
+
+    private volatile int mSequence;
+    private volatile float mX;
+    private volatile float mY;
+    private volatile float mVelocityX;
+    private volatile float mVelocityY;
+    private volatile long mTimestampNanos;
+
+    /**
+     * Publish a sample. Only one thread may write.
+     *
+     * @param velocityX Offset units per second
+     * @param velocityY Offset units per second
+     */
+    public void write(float x, float y, float velocityX, float velocityY, long timestampNanos) {
+        final int sequence = mSequence;
+        mSequence = sequence + 1;
+        mX = x;
+        mY = y;
+        mVelocityX = velocityX;
+        mVelocityY = velocityY;
+        mTimestampNanos = timestampNanos;
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * Read the latest sample.
+     *
+     * @param sample Receives x, y, velocity x and velocity y
+     * @return The timestamp of the sample, 0 if nothing was written yet
+     */
+    public long read(float[] sample) {
+        while (true) {
+            final int sequence = mSequence;
+            if ((sequence & 1) != 0) {
+                continue;
+            }
+
+            sample[0] = mX;
+            sample[1] = mY;
+            sample[2] = mVelocityX;
+            sample[3] = mVelocityY;
+            final long timestampNanos = mTimestampNanos;
+
+            if (mSequence == sequence) {
+                return timestampNanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.denys.newvr.input;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Drives the offset by tilting the device, from the rotation vector sensor.
+ * <p>
+ * Events are delivered on a dedicated thread and go straight into the offset mailbox, they never
+ * wait for the main thread. The attitude at {@link #start()} (or the last {@link #recenter()}) is
+ * the neutral offset; tilting by {@link #setMaxAngle max angle} either way reaches the edge.
+ */
+public class RotationInput extends OffsetInput implements SensorEventListener {
+
+    /** Event timestamps older than this are from a clock we can't map, use the arrival time. */
+    private static final long MAX_EVENT_AGE_NANOS = 100000000L;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+
+    private HandlerThread mThread;
+    private volatile float mMaxAngle = (float) Math.toRadians(20.0);
+    private volatile boolean mRecenter = true;
+
+    // Sensor thread only.
+    private final float[] mRotationVector = new float[4];
+    private final float[] mRotationMatrix = new float[9];
+    private final float[] mOrientation = new float[3];
+    private float mNeutralPitch;
+    private float mNeutralRoll;
+
+    public RotationInput(Context context) {
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+    }
+
+    /**
+     * @return False if the device has no rotation vector sensor
+     */
+    public boolean isAvailable() {
+        return mSensor != null;
+    }
+
+    /**
+     * Tilt in radians that moves the offset from the center to an edge.
+     */
+    public void setMaxAngle(float maxAngle) {
+        mMaxAngle = maxAngle;
+    }
+
+    /**
+     * Take the current attitude as the neutral one.
+     */
+    public void recenter() {
+        mRecenter = true;
+    }
+
+    /**
+     * Start listening, e.g. from {@code onResume}.
+     */
+    public void start() {
+        if (mSensor == null || mThread != null) {
+            return;
+        }
+
+        mThread = new HandlerThread("rotation-input", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mThread.start();
+        mRecenter = true;
+        mSensorManager.registerListener(this, mSensor, SensorManager.SENSOR_DELAY_GAME,
+                new Handler(mThread.getLooper()));
+    }
+
+    /**
+     * Stop listening, e.g. from {@code onPause}.
+     */
+    public void stop() {
+        if (mThread == null) {
+            return;
+        }
+
+        mSensorManager.unregisterListener(this);
+        mThread.quit();
+        mThread = null;
+        hold(System.nanoTime());
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // Some devices report extra values that getRotationMatrixFromVector rejects.
+        System.arraycopy(event.values, 0, mRotationVector, 0, Math.min(event.values.length, 4));
+        SensorManager.getRotationMatrixFromVector(mRotationMatrix, mRotationVector);
+        SensorManager.getOrientation(mRotationMatrix, mOrientation);
+
+        final float pitch = mOrientation[1];
+        final float roll = mOrientation[2];
+
+        if (mRecenter) {
+            mRecenter = false;
+            mNeutralPitch = pitch;
+            mNeutralRoll = roll;
+        }
+
+        final float maxAngle = mMaxAngle;
+        publish(clamp(wrap(roll - mNeutralRoll) / maxAngle),
+                clamp(wrap(pitch - mNeutralPitch) / maxAngle),
+                eventNanos(event.timestamp));
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    /**
+     * Map a sensor timestamp to {@link System#nanoTime()}. Sensors count from boot including deep
+     * sleep on most devices, which we can only correct for on Jelly Bean MR1 and later.
+     */
+    private static long eventNanos(long timestamp) {
+        final long now = System.nanoTime();
+        long nanos = timestamp;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            nanos = Api17.toNanoTime(timestamp, now);
+        }
+        return nanos > now || now - nanos > MAX_EVENT_AGE_NANOS ? now : nanos;
+    }
+
+    private static float wrap(float angle) {
+        if (angle > Math.PI) {
+            return angle - (float) (2.0 * Math.PI);
+        }
+        if (angle < -Math.PI) {
+            return angle + (float) (2.0 * Math.PI);
+        }
+        return angle;
+    }
+
+    /**
+     * Keeps the references to {@link SystemClock#elapsedRealtimeNanos()} out of classes loaded on
+     * older platforms.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static class Api17 {
+
+        static long toNanoTime(long elapsedRealtimeNanos, long now) {
+            return elapsedRealtimeNanos + now - SystemClock.elapsedRealtimeNanos();
+        }
+    }
+}
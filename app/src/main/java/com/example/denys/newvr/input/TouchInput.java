@@ -0,0 +1,54 @@
+package com.example.denys.newvr.input;
+
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Drives the offset by dragging across a view. Dragging over the full width or height moves the
+ * offset from one edge to the other; the offset stays where the drag left it.
+ */
+public class TouchInput extends OffsetInput implements View.OnTouchListener {
+
+    // Main thread only.
+    private float mX;
+    private float mY;
+    private float mLastTouchX;
+    private float mLastTouchY;
+
+    @Override
+    public boolean onTouch(View view, MotionEvent event) {
+        final long nanos = event.getEventTime() * 1000000L;
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mLastTouchX = event.getX();
+                mLastTouchY = event.getY();
+                return true;
+
+            case MotionEvent.ACTION_MOVE:
+                // Batched historical points carry the motion between frames, use them for velocity.
+                for (int i = 0; i < event.getHistorySize(); i++) {
+                    move(view, event.getHistoricalX(i), event.getHistoricalY(i),
+                            event.getHistoricalEventTime(i) * 1000000L);
+                }
+                move(view, event.getX(), event.getY(), nanos);
+                return true;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                hold(nanos);
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private void move(View view, float touchX, float touchY, long nanos) {
+        mX = clamp(mX + 2.0f * (touchX - mLastTouchX) / Math.max(1, view.getWidth()));
+        mY = clamp(mY + 2.0f * (touchY - mLastTouchY) / Math.max(1, view.getHeight()));
+        mLastTouchX = touchX;
+        mLastTouchY = touchY;
+        publish(mX, mY, nanos);
+    }
+}
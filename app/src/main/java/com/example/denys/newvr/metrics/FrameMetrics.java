@@ -0,0 +1,247 @@
+package com.example.denys.newvr.metrics;
+
+import android.util.Log;
+
+import com.example.denys.newvr.gl.CountingGl;
+import com.example.denys.newvr.gl.GlState;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+
+/**
+ * Per frame timings and GL call counts of a renderer, kept in preallocated rings with bucketed
+ * percentiles.
+ * <p>
+ * CPU stages are timed with {@link System#nanoTime()} between {@link #begin} and {@link #end}, the
+ * GPU time of a whole frame with a disjoint timer query where the driver has one. Counters are
+ * summed per frame. Recording and reading percentiles never allocate; {@link #log} and
+ * {@link #writeTo} format text and are meant to be called on demand. Each stage must be recorded from a
+ * single thread, different stages may come from different threads (tracking runs on its own
+ * thread, the rest on the GL thread).
+ */
+public class FrameMetrics {
+
+    private static final String TAG = "FrameMetrics";
+
+    /** Texture uploads, program selection and other work before the uniforms. */
+    public static final int STAGE_SETUP = 0;
+    /** Uniform and sampler updates. */
+    public static final int STAGE_UNIFORMS = 1;
+    /** Attribute setup and draw calls. */
+    public static final int STAGE_DRAW = 2;
+    /** Marker detection and pose queries. */
+    public static final int STAGE_TRACKING = 3;
+    /** The whole frame on the CPU, from {@link #beginFrame} to {@link #endFrame}. */
+    public static final int STAGE_FRAME = 4;
+    /** The whole frame on the GPU. */
+    public static final int STAGE_GPU = 5;
+    /** Predicting and drawing the cubes on the markers. */
+    public static final int STAGE_MARKERS = 6;
+    /** Asking ARToolKit for the camera projection. */
+    public static final int STAGE_PROJECTION = 7;
+
+    private static final String[] STAGE_NAMES = {"setup", "uniforms", "draw", "tracking", "frame", "gpu",
+            "markers", "projection"};
+
+    public static final int COUNTER_DRAW_CALLS = 0;
+    public static final int COUNTER_TEXTURE_BINDS = 1;
+    public static final int COUNTER_UNIFORMS = 2;
+    public static final int COUNTER_PROGRAMS = 3;
+    /** GL state calls passed on to the driver, and skipped because they would change nothing. */
+    public static final int COUNTER_STATE_ISSUED = 4;
+    public static final int COUNTER_STATE_SKIPPED = 5;
+
+    private static final String[] COUNTER_NAMES = {"draw calls", "texture binds", "uniforms", "programs",
+            "state issued", "state skipped"};
+
+    private final SampleRing[] mStages = new SampleRing[STAGE_NAMES.length];
+    private final long[] mStageStarts = new long[STAGE_NAMES.length];
+    private final SampleRing[] mCounters = new SampleRing[COUNTER_NAMES.length];
+    private final int[] mFrameCounts = new int[COUNTER_NAMES.length];
+    private final GpuTimer mGpuTimer = new GpuTimer();
+
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @param capacity Number of most recent frames kept per stage and counter
+     */
+    public FrameMetrics(int capacity) {
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new SampleRing(capacity);
+        }
+        for (int i = 0; i < mCounters.length; i++) {
+            mCounters[i] = new SampleRing(capacity);
+        }
+    }
+
+    /**
+     * Turn recording on or off, off leaves only a volatile read per call.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Set up GPU timing for a new context. Must be called on the GL thread.
+     */
+    public void onSurfaceCreated() {
+        mGpuTimer.init();
+    }
+
+    /**
+     * @return Whether {@link #STAGE_GPU} gets measured on this device
+     */
+    public boolean isGpuTimingSupported() {
+        return mGpuTimer.isSupported();
+    }
+
+    /**
+     * Start a frame on the GL thread.
+     */
+    public void beginFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        for (int i = 0; i < mFrameCounts.length; i++) {
+            mFrameCounts[i] = 0;
+        }
+        mGpuTimer.collect(mStages[STAGE_GPU]);
+        mGpuTimer.begin();
+        mStageStarts[STAGE_FRAME] = System.nanoTime();
+    }
+
+    /**
+     * End the frame started with {@link #beginFrame}.
+     */
+    public void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        mStages[STAGE_FRAME].add(System.nanoTime() - mStageStarts[STAGE_FRAME]);
+        mGpuTimer.end();
+        for (int i = 0; i < mFrameCounts.length; i++) {
+            mCounters[i].add(mFrameCounts[i]);
+        }
+    }
+
+    public void begin(int stage) {
+        if (mEnabled) {
+            mStageStarts[stage] = System.nanoTime();
+        }
+    }
+
+    public void end(int stage) {
+        if (mEnabled) {
+            mStages[stage].add(System.nanoTime() - mStageStarts[stage]);
+        }
+    }
+
+    /**
+     * Add GL calls of a kind to the current frame.
+     */
+    public void count(int counter, int calls) {
+        if (mEnabled) {
+            mFrameCounts[counter] += calls;
+        }
+    }
+
+    /**
+     * Add the draw calls, texture binds, uniforms and programs that went through a counting GL to
+     * the current frame and restart its counters.
+     */
+    public void countCalls(CountingGl gl) {
+        count(COUNTER_DRAW_CALLS, gl.getDrawCalls());
+        count(COUNTER_TEXTURE_BINDS, gl.getTextureBinds());
+        count(COUNTER_UNIFORMS, gl.getUniforms());
+        count(COUNTER_PROGRAMS, gl.getPrograms());
+        gl.resetCounters();
+    }
+
+    /**
+     * Add the state calls a shadow saw to the current frame and restart its counters.
+     */
+    public void countState(GlState glState) {
+        count(COUNTER_STATE_ISSUED, glState.getIssuedCalls());
+        count(COUNTER_STATE_SKIPPED, glState.getSkippedCalls());
+        glState.resetCounters();
+    }
+
+    /**
+     * @param percentile Between 0 and 100, e.g. 50, 95 or 99
+     * @return The stage time at that percentile in nanoseconds, to 1/16 of it
+     */
+    public long getStagePercentile(int stage, double percentile) {
+        return mStages[stage].percentile(percentile);
+    }
+
+    /**
+     * @param percentile Between 0 and 100, e.g. 50, 95 or 99
+     * @return The calls per frame at that percentile
+     */
+    public long getCounterPercentile(int counter, double percentile) {
+        return mCounters[counter].percentile(percentile);
+    }
+
+    /**
+     * Forget all samples, e.g. before measuring a scenario.
+     */
+    public void reset() {
+        for (SampleRing ring : mStages) {
+            ring.clear();
+        }
+        for (SampleRing ring : mCounters) {
+            ring.clear();
+        }
+    }
+
+    /**
+     * Print p50, p95 and p99 of every stage and counter that has samples.
+     */
+    public void dump(PrintWriter writer) {
+        for (int i = 0; i < mStages.length; i++) {
+            final SampleRing ring = mStages[i];
+            if (ring.size() > 0) {
+                writer.println(String.format(Locale.US, "%-10s p50 %7.3f ms  p95 %7.3f ms  p99 %7.3f ms  (%d samples)",
+                        STAGE_NAMES[i], ring.percentile(50) / 1e6, ring.percentile(95) / 1e6,
+                        ring.percentile(99) / 1e6, ring.size()));
+            }
+        }
+        for (int i = 0; i < mCounters.length; i++) {
+            final SampleRing ring = mCounters[i];
+            if (ring.size() > 0) {
+                writer.println(String.format(Locale.US, "%-14s p50 %4d  p95 %4d  p99 %4d per frame",
+                        COUNTER_NAMES[i], ring.percentile(50), ring.percentile(95), ring.percentile(99)));
+            }
+        }
+    }
+
+    /**
+     * {@link #dump} to logcat.
+     */
+    public void log() {
+        final StringWriter text = new StringWriter();
+        dump(new PrintWriter(text));
+        for (String line : text.toString().split("\n")) {
+            Log.i(TAG, line);
+        }
+    }
+
+    /**
+     * {@link #dump} to a file, replacing it.
+     */
+    public void writeTo(File file) throws IOException {
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Error writing " + file);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.denys.newvr.metrics;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+/**
+ * Measures how long the GPU spends on a span of GL commands through GL_EXT_disjoint_timer_query.
+ * <p>
+ * Results arrive a few frames late, so a small ring of queries is kept in flight and finished ones
+ * are collected without waiting. Where the extension or the ES 3.0 entry points it aliases are
+ * missing, every call is a no-op. Must be used on the GL thread.
+ */
+class GpuTimer {
+
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    /** Queries in flight, enough for the GPU to run a few frames behind. */
+    private static final int QUERY_COUNT = 4;
+
+    private final int[] mQueries = new int[QUERY_COUNT];
+    private final boolean[] mPending = new boolean[QUERY_COUNT];
+    private final int[] mResult = new int[1];
+    private boolean mSupported;
+    private boolean mActive;
+    private int mNext;
+    private int mOldest;
+
+    /**
+     * Check for the extension and create the queries, after a context was created.
+     */
+    void init() {
+        mSupported = false;
+        mActive = false;
+        mNext = 0;
+        mOldest = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            mPending[i] = false;
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return;
+        }
+
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        final String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (extensions == null || !extensions.contains("GL_EXT_disjoint_timer_query")
+                || version == null || !version.startsWith("OpenGL ES 3")) {
+            return;
+        }
+
+        Api18.genQueries(mQueries);
+        mSupported = GLES20.glGetError() == GLES20.GL_NO_ERROR;
+    }
+
+    boolean isSupported() {
+        return mSupported;
+    }
+
+    /**
+     * Start timing, skipped if all queries are still waiting for results.
+     */
+    void begin() {
+        if (!mSupported || mPending[mNext]) {
+            return;
+        }
+        Api18.beginQuery(mQueries[mNext]);
+        mActive = true;
+    }
+
+    void end() {
+        if (!mActive) {
+            return;
+        }
+        Api18.endQuery();
+        mPending[mNext] = true;
+        mNext = (mNext + 1) % QUERY_COUNT;
+        mActive = false;
+    }
+
+    /**
+     * Move finished measurements into the ring, oldest first, without waiting for the GPU.
+     */
+    void collect(SampleRing nanos) {
+        if (!mSupported) {
+            return;
+        }
+
+        // A disjoint event (frequency change, context switch) makes all running results useless.
+        if (Api18.isDisjoint(mResult)) {
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                mPending[i] = false;
+            }
+            mOldest = mNext;
+            return;
+        }
+
+        while (mPending[mOldest] && Api18.isAvailable(mQueries[mOldest], mResult)) {
+            nanos.add(Api18.getResult(mQueries[mOldest], mResult) & 0xffffffffL);
+            mPending[mOldest] = false;
+            mOldest = (mOldest + 1) % QUERY_COUNT;
+        }
+    }
+
+    /**
+     * The extension's entry points are the ES 3.0 query functions, which is how Android exposes
+     * them. Keeps the references to {@link GLES30} out of classes loaded on older platforms.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static class Api18 {
+
+        static void genQueries(int[] queries) {
+            GLES30.glGenQueries(queries.length, queries, 0);
+        }
+
+        static void beginQuery(int query) {
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+        }
+
+        static void endQuery() {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        }
+
+        static boolean isDisjoint(int[] result) {
+            GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+            return result[0] != 0;
+        }
+
+        static boolean isAvailable(int query, int[] result) {
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+            return result[0] != 0;
+        }
+
+        static int getResult(int query, int[] result) {
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, result, 0);
+            return result[0];
+        }
+    }
+}
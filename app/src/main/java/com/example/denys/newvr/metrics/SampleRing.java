@@ -0,0 +1,117 @@
+package com.example.denys.newvr.metrics;
+
+/**
+ * The last N samples of a measurement in a preallocated ring, with percentiles over them.
+ * <p>
+ * Each sample is also counted in a fixed bucket of a preallocated histogram, and taken out of it
+ * again when the ring drops it, so percentiles walk the buckets instead of sorting the samples.
+ * Values below {@link #EXACT_LIMIT} have a bucket each; above, every power of two is split into
+ * {@link #SUB_BUCKETS} buckets and a percentile is the lower bound of its bucket, at most 1/16
+ * below the sample. Neither adding nor reading allocates. Methods are synchronized so one thread
+ * can record while another reads; the lock is uncontended nearly always.
+ */
+public class SampleRing {
+
+    /** Buckets per power of two above the exact range. */
+    static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Values below this, like call counts, are kept exactly. */
+    static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+    private static final int EXACT_BITS = SUB_BUCKET_BITS + 1;
+
+    /** Powers of two above the exact range up to 2^47, some 39 hours in nanoseconds. */
+    private static final int MAX_EXPONENT = 47;
+    private static final int BUCKETS = EXACT_LIMIT + (MAX_EXPONENT - EXACT_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] mSamples;
+    private final int[] mBuckets = new int[BUCKETS];
+    private int mCount;
+    private int mNext;
+    private long mTotal;
+
+    /**
+     * @param capacity Number of most recent samples kept
+     */
+    public SampleRing(int capacity) {
+        mSamples = new long[capacity];
+    }
+
+    public synchronized void add(long sample) {
+        if (mCount == mSamples.length) {
+            mBuckets[bucketOf(mSamples[mNext])]--;
+        } else {
+            mCount++;
+        }
+        mSamples[mNext] = sample;
+        mBuckets[bucketOf(sample)]++;
+        mNext = (mNext + 1) % mSamples.length;
+        mTotal++;
+    }
+
+    /**
+     * @return Number of samples currently kept
+     */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * @return Number of samples ever added
+     */
+    public synchronized long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Nearest rank percentile of the kept samples, to the resolution of the buckets.
+     *
+     * @param percentile Between 0 and 100
+     * @return The lower bound of the bucket holding the sample at that rank, 0 while empty
+     */
+    public synchronized long percentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+
+        final int rank = Math.max(1, Math.min(mCount, (int) Math.ceil(percentile / 100.0 * mCount)));
+        int seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mBuckets[bucket];
+            if (seen >= rank) {
+                return lowerBound(bucket);
+            }
+        }
+        return lowerBound(BUCKETS - 1);
+    }
+
+    public synchronized void clear() {
+        mCount = 0;
+        mNext = 0;
+        mTotal = 0;
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = 0;
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) Math.max(0, value);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT_LIMIT + (exponent - EXACT_BITS) * SUB_BUCKETS + mantissa;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < EXACT_LIMIT) {
+            return bucket;
+        }
+        final int exponent = (bucket - EXACT_LIMIT) / SUB_BUCKETS + EXACT_BITS;
+        final int mantissa = (bucket - EXACT_LIMIT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+    }
+}
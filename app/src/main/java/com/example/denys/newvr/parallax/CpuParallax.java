@@ -0,0 +1,279 @@
+package com.example.denys.newvr.parallax;
+
+/**
+ * The depth perspective effect of {@code res/raw/depth_perspective.frag} on the CPU, for testing
+ * shader changes against and for rendering without a GL context.
+ * <p>
+ * It follows the shader's METHOD 1 raymarch with BRANCHLOOP and BRANCHSAMPLE, the CORRECT path,
+ * ANTIALIAS 2, COLORAVG and the QUALITY presets, optionally with EMPTYSKIP. Textures are sampled
+ * like the GL ones: nearest texel, clamped to the edge, depth upside down relative to color. Images
+ * are ARGB ints, row by row from the top. Rows are rendered in parallel and nothing is allocated per
+ * pixel.
+ */
+public class CpuParallax {
+
+    /** Constants the shader doesn't vary per preset. */
+    private static final float UPSCALE = 1.06f;
+    private static final float COMPRESSION = 0.8f;
+    private static final float DMIN = (1.0f - COMPRESSION) / 2.0f;
+    private static final float DMAX = (1.0f + COMPRESSION) / 2.0f;
+    private static final float VECTOR_CUTOFF = 0.0f + DMIN - 0.0001f;
+    private static final float AA_TRIGGER = 0.8f;
+    private static final float SKIP_BLOCK = 8.0f;
+
+    /** Pyramid level of the max depth blocks, SKIP_BLOCK texels wide. */
+    private static final int SKIP_LEVEL = 3;
+
+    /** Don't split rendering into bands smaller than this. */
+    private static final int MIN_ROWS_PER_TASK = 8;
+
+    /**
+     * The defines of one QUALITY preset. METHOD 1 and CORRECT are part of every preset.
+     */
+    public static final class Preset {
+        final float maxSteps;
+        final float enlarge;
+        final float confidenceMax;
+        final boolean antialias;
+        final boolean colorAverage;
+
+        Preset(float maxSteps, float enlarge, float confidenceMax, boolean antialias, boolean colorAverage) {
+            this.maxSteps = maxSteps;
+            this.enlarge = enlarge;
+            this.confidenceMax = confidenceMax;
+            this.antialias = antialias;
+            this.colorAverage = colorAverage;
+        }
+
+        /**
+         * @param quality QUALITY as in depth_quality.glsl, 2 to 5
+         */
+        public static Preset forQuality(int quality) {
+            switch (quality) {
+                case 2:
+                    return new Preset(4.0f, 0.8f, 2.5f, false, false);
+                case 3:
+                    return new Preset(6.0f, 1.0f, 2.5f, true, false);
+                case 4:
+                    return new Preset(16.0f, 1.5f, 2.5f, true, false);
+                case 5:
+                    return new Preset(40.0f, 1.5f, 4.5f, false, true);
+                default:
+                    throw new IllegalArgumentException("No QUALITY preset " + quality);
+            }
+        }
+    }
+
+    private final int[] mColor;
+    private final int mColorWidth;
+    private final int mColorHeight;
+    private final int[] mDepth;
+    private final int mDepthWidth;
+    private final int mDepthHeight;
+
+    private boolean mEmptySkip;
+    private byte[] mMaxBlocks;
+    private int mMaxWidth;
+    private int mMaxHeight;
+    private float mMaxScaleX;
+    private float mMaxScaleY;
+
+    /**
+     * @param color ARGB color image
+     * @param depth ARGB depth map, only red is used, brighter is nearer
+     */
+    public CpuParallax(int[] color, int colorWidth, int colorHeight, int[] depth, int depthWidth, int depthHeight) {
+        mColor = color;
+        mColorWidth = colorWidth;
+        mColorHeight = colorHeight;
+        mDepth = depth;
+        mDepthWidth = depthWidth;
+        mDepthHeight = depthHeight;
+    }
+
+    /**
+     * March with EMPTYSKIP, skipping steps the max depth pyramid proves empty. The result must not
+     * change, only the number of depth fetches.
+     */
+    public void setEmptySkip(boolean emptySkip) {
+        mEmptySkip = emptySkip;
+        if (emptySkip && mMaxBlocks == null) {
+            final DepthPyramid pyramid = DepthPyramid.fromArgb(mDepth, mDepthWidth, mDepthHeight, SKIP_LEVEL + 1);
+            mMaxBlocks = pyramid.dilate(SKIP_LEVEL);
+            mMaxWidth = pyramid.getWidth(SKIP_LEVEL);
+            mMaxHeight = pyramid.getHeight(SKIP_LEVEL);
+            mMaxScaleX = mDepthWidth / (float) (mMaxWidth << SKIP_LEVEL);
+            mMaxScaleY = mDepthHeight / (float) (mMaxHeight << SKIP_LEVEL);
+        }
+    }
+
+    /**
+     * Render the effect over the whole output, like the full screen quad.
+     *
+     * @param offset Offset uniform, each component in [-1, 1]
+     * @param focus  Focus uniform, the depth that stays in place
+     * @param scale  Scale uniform, 0.07 in the renderer
+     * @param out    Receives ARGB pixels, {@code width * height} of them
+     */
+    public void render(final Preset preset, final float offsetX, final float offsetY, final float focus,
+                       final float scale, final int[] out, final int width, final int height) {
+        Rows.forEach(height, MIN_ROWS_PER_TASK, new Rows.Task() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                renderRows(preset, offsetX, offsetY, focus, scale, out, width, height, fromRow, toRow);
+            }
+        });
+    }
+
+    /**
+     * Render the rows {@code [fromRow, toRow)} on the calling thread.
+     *
+     * @see #render
+     */
+    public void renderRows(Preset preset, float offsetX, float offsetY, float focus, float scale,
+                           int[] out, int width, int height, int fromRow, int toRow) {
+        final float steps = preset.maxSteps;
+        final float maxSteps = preset.maxSteps;
+        final float confidenceMax = preset.confidenceMax;
+        final boolean antialias = preset.antialias;
+        final boolean colorAverage = preset.colorAverage;
+        final boolean emptySkip = mEmptySkip;
+
+        // scale2 with aspect 1
+        final float scaleX = scale * preset.enlarge;
+        final float scaleY = -scale * preset.enlarge;
+
+        // baseVector, perspective is 0 so it is the same for every pixel
+        final float vector0X = ((0.5f - focus) * offsetX - offsetX / 2.0f) * scaleX;
+        final float vector0Y = ((0.5f - focus) * offsetY - offsetY / 2.0f) * scaleY;
+        final float vector1X = ((0.5f - focus) * offsetX + offsetX / 2.0f) * scaleX;
+        final float vector1Y = ((0.5f - focus) * offsetY + offsetY / 2.0f) * scaleY;
+
+        final float dstep = COMPRESSION / (steps - 1.0f);
+        final float vstepX = (vector1X - vector0X) / (steps - 1.0f);
+        final float vstepY = (vector1Y - vector0Y) / (steps - 1.0f);
+
+        float skipReach = 0.0f;
+        if (emptySkip) {
+            final float texelsX = Math.abs(vstepX * mDepthWidth);
+            final float texelsY = Math.abs(vstepY * mDepthHeight);
+            skipReach = (float) Math.floor((SKIP_BLOCK - 0.001f) / Math.max(Math.max(texelsX, texelsY), 0.0001f)) + 1.0f;
+        }
+
+        for (int y = fromRow; y < toRow; y++) {
+            final float posY = ((y + 0.5f) / height - 0.5f) / UPSCALE + 0.5f;
+
+            for (int x = 0; x < width; x++) {
+                final float posX = ((x + 0.5f) / width - 0.5f) / UPSCALE + 0.5f;
+
+                float colR = 0.0f;
+                float colG = 0.0f;
+                float colB = 0.0f;
+                float colA = 0.0f;
+                float posSumX = 0.0f;
+                float posSumY = 0.0f;
+                float confidenceSum = 0.0f;
+                float j = 0.0f;
+                float skipped = 0.0f;
+
+                for (float n = 0.0f; n < maxSteps; ++n) {
+                    final float i = n + skipped;
+                    if (i >= maxSteps) {
+                        break;
+                    }
+
+                    final float index = antialias ? j : i;
+                    final float vposX = posX + vector1X - index * vstepX;
+                    final float vposY = posY + vector1Y - index * vstepY;
+                    final float dpos = 0.5f + COMPRESSION / 2.0f - index * dstep;
+
+                    if (emptySkip) {
+                        if (dpos < VECTOR_CUTOFF || confidenceSum >= confidenceMax) {
+                            break;
+                        }
+
+                        final float maxDepth = clamp(sampleMax(vposX * mMaxScaleX, (1.0f - vposY) * mMaxScaleY), DMIN, DMAX);
+                        final float skip = Math.min(skipReach,
+                                (float) Math.ceil((dpos - maxDepth - 0.001f - 1.0f / 512.0f) / dstep));
+                        if (skip >= 1.0f) {
+                            skipped += skip - 1.0f;
+                            j += skip;
+                            continue;
+                        }
+                    }
+
+                    if (dpos >= VECTOR_CUTOFF && confidenceSum < confidenceMax) {
+                        final float depth = clamp(1.0f - sampleDepth(vposX, 1.0f - vposY), DMIN, DMAX);
+                        final float confidence = depth + 0.001f >= dpos ? 1.0f : 0.0f;
+
+                        if (antialias) {
+                            j += 1.0f + (confidence >= AA_TRIGGER ? 1.0f : 0.0f) * (j >= i ? 1.0f : 0.0f) * -1.5f;
+                        }
+
+                        if (confidence > 0.0f) {
+                            // CORRECT
+                            final float correction = (depth - dpos) / dstep;
+                            final float sampleX = vposX + correction * vstepX;
+                            final float sampleY = vposY + correction * vstepY;
+
+                            if (colorAverage) {
+                                final int argb = mColor[texel(sampleX, mColorWidth) + texel(sampleY, mColorHeight) * mColorWidth];
+                                colR += ((argb >> 16) & 0xff) / 255.0f * confidence;
+                                colG += ((argb >> 8) & 0xff) / 255.0f * confidence;
+                                colB += (argb & 0xff) / 255.0f * confidence;
+                                colA += ((argb >>> 24) & 0xff) / 255.0f * confidence;
+                            } else {
+                                posSumX += sampleX * confidence;
+                                posSumY += sampleY * confidence;
+                            }
+                            confidenceSum += confidence;
+                        }
+                    }
+                }
+
+                final int pixel;
+                if (confidenceSum == 0.0f) {
+                    // Undefined on the GPU (a division by zero), show the undisplaced color.
+                    pixel = mColor[texel(posX, mColorWidth) + texel(posY, mColorHeight) * mColorWidth];
+                } else if (colorAverage) {
+                    pixel = (channel(colA / confidenceSum) << 24) | (channel(colR / confidenceSum) << 16)
+                            | (channel(colG / confidenceSum) << 8) | channel(colB / confidenceSum);
+                } else {
+                    pixel = mColor[texel(posSumX / confidenceSum, mColorWidth)
+                            + texel(posSumY / confidenceSum, mColorHeight) * mColorWidth];
+                }
+                out[y * width + x] = pixel;
+            }
+        }
+    }
+
+    /**
+     * @return Red of the depth map at the coordinate, 0 to 1
+     */
+    private float sampleDepth(float s, float t) {
+        return ((mDepth[texel(s, mDepthWidth) + texel(t, mDepthHeight) * mDepthWidth] >> 16) & 0xff) / 255.0f;
+    }
+
+    /**
+     * @return The max depth block at the coordinate, 0 to 1
+     */
+    private float sampleMax(float s, float t) {
+        return (mMaxBlocks[texel(s, mMaxWidth) + texel(t, mMaxHeight) * mMaxWidth] & 0xff) / 255.0f;
+    }
+
+    /**
+     * Nearest texel for a texture coordinate, clamped to the edge.
+     */
+    private static int texel(float coordinate, int size) {
+        final int texel = (int) Math.floor(coordinate * size);
+        return texel < 0 ? 0 : texel >= size ? size - 1 : texel;
+    }
+
+    private static int channel(float value) {
+        return Math.round(clamp(value, 0.0f, 1.0f) * 255.0f);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : value > max ? max : value;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.denys.newvr.parallax;
+
+/**
+ * Max depth pyramid of a depth map, used to skip empty space in the parallax raymarch.
+ * <p>
+ * Depth is stored the way depth_perspective.frag sees it, {@code 255 - red}, so larger values are
+ * closer to the viewer. Level 0 is the full resolution map and every further level keeps the
+ * maximum of a 2x2 block of the level below. A ray sample can only hit if the depth at its position
+ * reaches the ray depth, so a coarse maximum below the ray depth proves a whole block empty.
+ */
+public class DepthPyramid {
+
+    /** Don't split reductions into bands smaller than this. */
+    private static final int MIN_ROWS_PER_TASK = 16;
+
+    private final byte[][] mLevels;
+    private final int[] mWidths;
+    private final int[] mHeights;
+
+    private DepthPyramid(int levelCount, int width, int height) {
+        mLevels = new byte[levelCount][];
+        mWidths = new int[levelCount];
+        mHeights = new int[levelCount];
+
+        for (int level = 0; level < levelCount; level++) {
+            mWidths[level] = width;
+            mHeights[level] = height;
+            mLevels[level] = new byte[width * height];
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+    }
+
+    /**
+     * Build the pyramid from a depth map given as ARGB pixels, only the red channel is used.
+     *
+     * @param levelCount Number of levels including the full resolution one
+     */
+    public static DepthPyramid fromArgb(final int[] pixels, final int width, int height, int levelCount) {
+        final DepthPyramid pyramid = new DepthPyramid(levelCount, width, height);
+        final byte[] base = pyramid.mLevels[0];
+
+        Rows.forEach(height, MIN_ROWS_PER_TASK, new Rows.Task() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                for (int i = fromRow * width, end = toRow * width; i < end; i++) {
+                    base[i] = (byte) (255 - ((pixels[i] >> 16) & 0xff));
+                }
+            }
+        });
+
+        pyramid.reduce();
+        return pyramid;
+    }
+
+    /**
+     * Build the pyramid from a single channel depth map as it is stored in the image.
+     *
+     * @param levelCount Number of levels including the full resolution one
+     */
+    public static DepthPyramid fromLuminance(final byte[] luminance, final int width, int height, int levelCount) {
+        final DepthPyramid pyramid = new DepthPyramid(levelCount, width, height);
+        final byte[] base = pyramid.mLevels[0];
+
+        Rows.forEach(height, MIN_ROWS_PER_TASK, new Rows.Task() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                for (int i = fromRow * width, end = toRow * width; i < end; i++) {
+                    base[i] = (byte) (255 - (luminance[i] & 0xff));
+                }
+            }
+        });
+
+        pyramid.reduce();
+        return pyramid;
+    }
+
+    private void reduce() {
+        for (int level = 1; level < mLevels.length; level++) {
+            final byte[] src = mLevels[level - 1];
+            final int srcWidth = mWidths[level - 1];
+            final int srcHeight = mHeights[level - 1];
+            final byte[] dst = mLevels[level];
+            final int dstWidth = mWidths[level];
+
+            Rows.forEach(mHeights[level], MIN_ROWS_PER_TASK, new Rows.Task() {
+                @Override
+                public void run(int fromRow, int toRow) {
+                    for (int y = fromRow; y < toRow; y++) {
+                        final int row0 = 2 * y * srcWidth;
+                        final int row1 = Math.min(2 * y + 1, srcHeight - 1) * srcWidth;
+                        for (int x = 0; x < dstWidth; x++) {
+                            final int x0 = 2 * x;
+                            final int x1 = Math.min(x0 + 1, srcWidth - 1);
+                            int max = Math.max(src[row0 + x0] & 0xff, src[row0 + x1] & 0xff);
+                            max = Math.max(max, src[row1 + x0] & 0xff);
+                            max = Math.max(max, src[row1 + x1] & 0xff);
+                            dst[y * dstWidth + x] = (byte) max;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The maximum of every texel of a level and its eight neighbours. A lookup at any point then
+     * bounds the depth of everything within one block (2^level texels) of that point, clamped at
+     * the borders like a CLAMP_TO_EDGE texture.
+     */
+    public byte[] dilate(int level) {
+        final byte[] src = mLevels[level];
+        final int width = mWidths[level];
+        final int height = mHeights[level];
+        final byte[] dst = new byte[width * height];
+
+        Rows.forEach(height, MIN_ROWS_PER_TASK, new Rows.Task() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                for (int y = fromRow; y < toRow; y++) {
+                    final int y0 = Math.max(y - 1, 0);
+                    final int y1 = Math.min(y + 1, height - 1);
+                    for (int x = 0; x < width; x++) {
+                        final int x0 = Math.max(x - 1, 0);
+                        final int x1 = Math.min(x + 1, width - 1);
+                        int max = 0;
+                        for (int yy = y0; yy <= y1; yy++) {
+                            for (int xx = x0; xx <= x1; xx++) {
+                                max = Math.max(max, src[yy * width + xx] & 0xff);
+                            }
+                        }
+                        dst[y * width + x] = (byte) max;
+                    }
+                }
+            }
+        });
+
+        return dst;
+    }
+
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * @return The max depth texels of a level, row by row from the top
+     */
+    public byte[] getLevel(int level) {
+        return mLevels[level];
+    }
+
+    public int getWidth(int level) {
+        return mWidths[level];
+    }
+
+    public int getHeight(int level) {
+        return mHeights[level];
+    }
+}
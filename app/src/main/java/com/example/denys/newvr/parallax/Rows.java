@@ -0,0 +1,104 @@
+package com.example.denys.newvr.parallax;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs row based image work in bands across all cores.
+ * <p>
+ * Bands run on one shared pool, and a band that splits its own rows again would wait on bands
+ * queued behind it on the same pool. So work started from a pool thread runs inline on that
+ * thread, already spread out by the outer call.
+ */
+public final class Rows {
+
+    /**
+     * Work on the rows {@code [fromRow, toRow)}.
+     */
+    public interface Task {
+        void run(int fromRow, int toRow);
+    }
+
+    private static ExecutorService sPool;
+
+    private Rows() {
+    }
+
+    /**
+     * @return A shared pool with one daemon thread per core
+     */
+    public static synchronized ExecutorService pool() {
+        if (sPool == null) {
+            sPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private int mCount;
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new PoolThread(runnable, "rows-" + mCount++);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return sPool;
+    }
+
+    /**
+     * Split {@code rows} into one band per core and run them on the shared pool, the calling thread
+     * takes the last band. Returns when all bands are done. Called from a band, all rows run on
+     * the calling thread.
+     *
+     * @param minRows Bands are never smaller than this, so tiny images stay on one thread
+     */
+    public static void forEach(int rows, int minRows, final Task task) {
+        final int bands = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                rows / Math.max(1, minRows)));
+
+        if (bands == 1 || Thread.currentThread() instanceof PoolThread) {
+            task.run(0, rows);
+            return;
+        }
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+        final ExecutorService pool = pool();
+
+        for (int band = 0; band < bands - 1; band++) {
+            final int fromRow = rows * band / bands;
+            final int toRow = rows * (band + 1) / bands;
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(fromRow, toRow);
+                }
+            }));
+        }
+
+        task.run(rows * (bands - 1) / bands, rows);
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while processing rows.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error processing rows.", e.getCause());
+        }
+    }
+
+    /**
+     * A thread of the shared pool, to tell nested calls apart.
+     */
+    private static final class PoolThread extends Thread {
+        PoolThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+}
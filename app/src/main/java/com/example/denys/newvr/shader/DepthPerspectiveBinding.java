@@ -0,0 +1,106 @@
+package com.example.denys.newvr.shader;
+
+/**
+ * Locations of the depth perspective program built from {@code R.raw.vertex_shader} and
+ * {@code R.raw.depth_perspective}.
+ */
+public class DepthPerspectiveBinding extends ProgramBinding {
+
+    private int mTextureUniformHandle = INVALID_LOCATION;
+    private int mDepthUniformHandle = INVALID_LOCATION;
+    private int mScaleHandle = INVALID_LOCATION;
+    private int mOffsetHandle = INVALID_LOCATION;
+    private int mFocusHandle = INVALID_LOCATION;
+    private int mMVPMatrixHandle = INVALID_LOCATION;
+    private int mPositionHandle = INVALID_LOCATION;
+    private int mTextureCoordinateHandle = INVALID_LOCATION;
+    private int mDepthMaxUniformHandle = INVALID_LOCATION;
+    private int mDepthSizeHandle = INVALID_LOCATION;
+    private int mDepthMaxScaleHandle = INVALID_LOCATION;
+    private int mTexTransformHandle = INVALID_LOCATION;
+
+    @Override
+    protected void onBind(int programHandle) {
+        mTextureUniformHandle = uniform(programHandle, "u_Texture");
+        mDepthUniformHandle = uniform(programHandle, "u_Depth");
+        mScaleHandle = uniform(programHandle, "scale");
+        mOffsetHandle = uniform(programHandle, "offset");
+        mFocusHandle = uniform(programHandle, "focus");
+
+        mMVPMatrixHandle = uniform(programHandle, "u_MVPMatrix");
+        mPositionHandle = attribute(programHandle, "a_Position");
+        mTextureCoordinateHandle = attribute(programHandle, "a_TexCoordinate");
+
+        // Only present in programs built with EMPTYSKIP.
+        mDepthMaxUniformHandle = uniform(programHandle, "u_DepthMax");
+        mDepthSizeHandle = uniform(programHandle, "u_DepthSize");
+        mDepthMaxScaleHandle = uniform(programHandle, "u_DepthMaxScale");
+
+        // Only present in programs built with VIDEO.
+        mTexTransformHandle = uniform(programHandle, "u_TexTransform");
+    }
+
+    @Override
+    protected void onInvalidate() {
+        mTextureUniformHandle = INVALID_LOCATION;
+        mDepthUniformHandle = INVALID_LOCATION;
+        mScaleHandle = INVALID_LOCATION;
+        mOffsetHandle = INVALID_LOCATION;
+        mFocusHandle = INVALID_LOCATION;
+        mMVPMatrixHandle = INVALID_LOCATION;
+        mPositionHandle = INVALID_LOCATION;
+        mTextureCoordinateHandle = INVALID_LOCATION;
+        mDepthMaxUniformHandle = INVALID_LOCATION;
+        mDepthSizeHandle = INVALID_LOCATION;
+        mDepthMaxScaleHandle = INVALID_LOCATION;
+        mTexTransformHandle = INVALID_LOCATION;
+    }
+
+    public int getTextureUniformHandle() {
+        return mTextureUniformHandle;
+    }
+
+    public int getDepthUniformHandle() {
+        return mDepthUniformHandle;
+    }
+
+    public int getScaleHandle() {
+        return mScaleHandle;
+    }
+
+    public int getOffsetHandle() {
+        return mOffsetHandle;
+    }
+
+    public int getFocusHandle() {
+        return mFocusHandle;
+    }
+
+    public int getMVPMatrixHandle() {
+        return mMVPMatrixHandle;
+    }
+
+    public int getPositionHandle() {
+        return mPositionHandle;
+    }
+
+    public int getTextureCoordinateHandle() {
+        return mTextureCoordinateHandle;
+    }
+
+    public int getDepthMaxUniformHandle() {
+        return mDepthMaxUniformHandle;
+    }
+
+    public int getDepthSizeHandle() {
+        return mDepthSizeHandle;
+    }
+
+    public int getDepthMaxScaleHandle() {
+        return mDepthMaxScaleHandle;
+    }
+
+    public int getTexTransformHandle() {
+        return mTexTransformHandle;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.denys.newvr.shader;
+
+/**
+ * Locations of the texture copy program with {@code DISTORT} defined, which pre-distorts the two
+ * eye halves of a stereo frame for the lenses of a viewer.
+ */
+public class LensDistortionBinding extends TextureBlitBinding {
+
+    private int mDistortionHandle = INVALID_LOCATION;
+    private int mEyeAspectHandle = INVALID_LOCATION;
+
+    @Override
+    protected void onBind(int programHandle) {
+        super.onBind(programHandle);
+        mDistortionHandle = uniform(programHandle, "u_Distortion");
+        mEyeAspectHandle = uniform(programHandle, "u_EyeAspect");
+    }
+
+    @Override
+    protected void onInvalidate() {
+        super.onInvalidate();
+        mDistortionHandle = INVALID_LOCATION;
+        mEyeAspectHandle = INVALID_LOCATION;
+    }
+
+    public int getDistortionHandle() {
+        return mDistortionHandle;
+    }
+
+    public int getEyeAspectHandle() {
+        return mEyeAspectHandle;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.denys.newvr.shader;
+
+import com.example.denys.newvr.gl.AndroidGl;
+import com.example.denys.newvr.gl.Gl;
+
+/**
+ * Resolves the uniform and attribute locations of a linked program once and keeps them in plain
+ * int fields, so the render loop never has to look them up by name.
+ * <p>
+ * Call {@link #bind(int)} right after the program has been linked and {@link #invalidate()} when
+ * the GL context that owns the program is lost.
+ */
+public abstract class ProgramBinding {
+
+    /**
+     * The location GL reports for names that are not active in the program.
+     */
+    public static final int INVALID_LOCATION = -1;
+
+    private int mProgramHandle;
+    private Gl mGl = AndroidGl.INSTANCE;
+
+    /**
+     * Resolve all locations of the given program. Must be called on the GL thread.
+     *
+     * @param programHandle A successfully linked program
+     */
+    public final void bind(int programHandle) {
+        bind(AndroidGl.INSTANCE, programHandle);
+    }
+
+    /**
+     * Resolve all locations of the given program through a GL backend.
+     *
+     * @param programHandle A successfully linked program
+     */
+    public final void bind(Gl gl, int programHandle) {
+        mGl = gl;
+        mProgramHandle = programHandle;
+        onBind(programHandle);
+    }
+
+    /**
+     * Forget the program and all resolved locations, e.g. because the GL context was lost.
+     */
+    public final void invalidate() {
+        mProgramHandle = 0;
+        onInvalidate();
+    }
+
+    /**
+     * @return True if the locations belong to a live program
+     */
+    public boolean isBound() {
+        return mProgramHandle != 0;
+    }
+
+    /**
+     * @return The program the locations were resolved from, or 0 if not bound
+     */
+    public int getProgramHandle() {
+        return mProgramHandle;
+    }
+
+    /**
+     * Query all locations from the program and store them.
+     */
+    protected abstract void onBind(int programHandle);
+
+    /**
+     * Reset all stored locations to {@link #INVALID_LOCATION}.
+     */
+    protected abstract void onInvalidate();
+
+    protected int uniform(int programHandle, String name) {
+        return mGl.glGetUniformLocation(programHandle, name);
+    }
+
+    protected int attribute(int programHandle, String name) {
+        return mGl.glGetAttribLocation(programHandle, name);
+    }
+}
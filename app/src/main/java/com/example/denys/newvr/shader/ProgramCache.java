@@ -0,0 +1,351 @@
+package com.example.denys.newvr.shader;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds linked shader programs and keeps their driver binaries on disk, so that a program that was
+ * linked once does not have to be compiled again on the next launch or after a context loss.
+ * <p>
+ * Binaries are retrieved through GL_OES_get_program_binary (the OES entry points are the same as the
+ * ES 3.0 core ones, which is how Android exposes them). Each entry is keyed by a hash of the shader
+ * sources, the defines and the GL vendor, renderer and version strings, so a driver update simply
+ * misses the cache. A miss, an unreadable file or a binary the driver rejects all fall back to
+ * compiling from source.
+ */
+public class ProgramCache {
+
+    private static final String TAG = "ProgramCache";
+
+    private static final int GL_PROGRAM_BINARY_LENGTH_OES = 0x8741;
+    private static final int GL_NUM_PROGRAM_BINARY_FORMATS_OES = 0x87FE;
+
+    /** Marks a cache file written by this class, bump it when the file layout changes. */
+    private static final int FILE_MAGIC = 0x4e565201;
+
+    private final File mDirectory;
+
+    /** Compiles and keeps the stages on a miss, null to compile them for each program. */
+    private ShaderLibrary mShaderLibrary;
+
+    /**
+     * @param directory Where to keep the binaries, usually a folder in {@code Context.getCacheDir()}
+     */
+    public ProgramCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Take the stages of programs that miss the cache from a library, so programs sharing a stage
+     * compile it once.
+     */
+    public void setShaderLibrary(ShaderLibrary shaderLibrary) {
+        mShaderLibrary = shaderLibrary;
+    }
+
+    /**
+     * Get a linked program for the given sources. Must be called on the GL thread.
+     *
+     * @param vertexSource   Vertex shader source
+     * @param fragmentSource Fragment shader source
+     * @param defines        Preprocessor lines prepended to both sources, may be empty
+     * @param attributes     Attribute names, bound to the location of their index before linking
+     * @return The program handle
+     */
+    public int loadProgram(String vertexSource, String fragmentSource, String defines, String[] attributes) {
+        final String fullVertexSource = defines + vertexSource;
+        final String fullFragmentSource = defines + fragmentSource;
+
+        final boolean binarySupported = isBinarySupported();
+        File file = null;
+
+        if (binarySupported && mDirectory != null) {
+            file = new File(mDirectory, key(fullVertexSource, fullFragmentSource, defines, attributes) + ".bin");
+
+            int programHandle = loadBinary(file);
+            if (programHandle != 0) {
+                return programHandle;
+            }
+        }
+
+        int programHandle = compileAndLink(fullVertexSource, fullFragmentSource, attributes);
+
+        if (file != null) {
+            storeBinary(programHandle, file);
+        }
+
+        return programHandle;
+    }
+
+    /**
+     * Compile a single shader stage.
+     *
+     * @return The shader handle
+     */
+    public static int compileShader(int shaderType, String source) {
+        // Load in the shader.
+        int shaderHandle = GLES20.glCreateShader(shaderType);
+
+        if (shaderHandle == 0) {
+            throw new RuntimeException("Error creating shader.");
+        }
+
+        // Pass in the shader source and compile it.
+        GLES20.glShaderSource(shaderHandle, source);
+        GLES20.glCompileShader(shaderHandle);
+
+        // Get the compilation status.
+        final int[] compileStatus = new int[1];
+        GLES20.glGetShaderiv(shaderHandle, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+
+        // If the compilation failed, delete the shader.
+        if (compileStatus[0] == 0) {
+            String error = GLES20.glGetShaderInfoLog(shaderHandle);
+            GLES20.glDeleteShader(shaderHandle);
+            throw new RuntimeException("Error compiling shader: " + error);
+        }
+
+        return shaderHandle;
+    }
+
+    /**
+     * Link two compiled stages into a program, binding each attribute to the location of its index.
+     *
+     * @return The program handle
+     */
+    public static int linkProgram(int vertexShaderHandle, int fragmentShaderHandle, String[] attributes) {
+        int programHandle = GLES20.glCreateProgram();
+
+        if (programHandle != 0) {
+            GLES20.glAttachShader(programHandle, vertexShaderHandle);
+            GLES20.glAttachShader(programHandle, fragmentShaderHandle);
+
+            for (int i = 0; i < attributes.length; i++) {
+                GLES20.glBindAttribLocation(programHandle, i, attributes[i]);
+            }
+
+            GLES20.glLinkProgram(programHandle);
+
+            if (!isLinked(programHandle)) {
+                Log.e(TAG, "Error linking program: " + GLES20.glGetProgramInfoLog(programHandle));
+                GLES20.glDeleteProgram(programHandle);
+                programHandle = 0;
+            }
+        }
+
+        if (programHandle == 0) {
+            throw new RuntimeException("Error creating program.");
+        }
+
+        return programHandle;
+    }
+
+    private int compileAndLink(String vertexSource, String fragmentSource, String[] attributes) {
+        final ShaderLibrary shaderLibrary = mShaderLibrary;
+        if (shaderLibrary != null) {
+            // The library owns the stages and keeps them for the next program.
+            return linkProgram(shaderLibrary.getShader(GLES20.GL_VERTEX_SHADER, vertexSource),
+                    shaderLibrary.getShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource), attributes);
+        }
+
+        int vertexShaderHandle = compileShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShaderHandle = compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+
+        int programHandle = linkProgram(vertexShaderHandle, fragmentShaderHandle, attributes);
+
+        // The program keeps what it needs, flag the stages for deletion with it.
+        GLES20.glDeleteShader(vertexShaderHandle);
+        GLES20.glDeleteShader(fragmentShaderHandle);
+
+        return programHandle;
+    }
+
+    private static boolean isLinked(int programHandle) {
+        final int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(programHandle, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        return linkStatus[0] != 0;
+    }
+
+    private static boolean isBinarySupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        if (extensions == null || !extensions.contains("GL_OES_get_program_binary")) {
+            return false;
+        }
+
+        final int[] formats = new int[1];
+        GLES20.glGetIntegerv(GL_NUM_PROGRAM_BINARY_FORMATS_OES, formats, 0);
+        return formats[0] > 0;
+    }
+
+    private static String key(String vertexSource, String fragmentSource, String defines, String[] attributes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            update(digest, vertexSource);
+            update(digest, fragmentSource);
+            update(digest, defines);
+            // Attribute locations are bound before linking and baked into the binary.
+            update(digest, String.valueOf(attributes.length));
+            for (String attribute : attributes) {
+                update(digest, attribute);
+            }
+            update(digest, GLES20.glGetString(GLES20.GL_VENDOR));
+            update(digest, GLES20.glGetString(GLES20.GL_RENDERER));
+            update(digest, GLES20.glGetString(GLES20.GL_VERSION));
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error hashing shader source.", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(String.valueOf(value).getBytes("UTF-8"));
+            // Separator, so "ab" + "c" and "a" + "bc" hash differently.
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int loadBinary(File file) {
+        if (!file.isFile()) {
+            return 0;
+        }
+
+        final int binaryFormat;
+        final ByteBuffer binary;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown file format.");
+            }
+            binaryFormat = in.readInt();
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+            binary.put(bytes).position(0);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable program binary " + file.getName(), e);
+            file.delete();
+            return 0;
+        } finally {
+            close(in);
+        }
+
+        int programHandle = GLES20.glCreateProgram();
+        Api18.programBinary(programHandle, binaryFormat, binary);
+
+        // Drivers reject binaries they no longer like by failing the link status.
+        if (!isLinked(programHandle)) {
+            Log.i(TAG, "Driver rejected program binary " + file.getName() + ", recompiling.");
+            GLES20.glDeleteProgram(programHandle);
+            file.delete();
+            return 0;
+        }
+
+        return programHandle;
+    }
+
+    private void storeBinary(int programHandle, File file) {
+        final int[] length = new int[1];
+        GLES20.glGetProgramiv(programHandle, GL_PROGRAM_BINARY_LENGTH_OES, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+
+        final ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        final int[] binaryFormat = new int[1];
+        final int written = Api18.getProgramBinary(programHandle, length[0], binaryFormat, binary);
+        if (written <= 0) {
+            return;
+        }
+
+        final byte[] bytes = new byte[written];
+        binary.position(0);
+        binary.get(bytes);
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Cannot create program cache directory " + mDirectory);
+            return;
+        }
+
+        // Write next to the target and rename, so a crash never leaves a truncated entry behind.
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(binaryFormat[0]);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error storing program binary " + file.getName(), e);
+            temp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Keeps the references to {@link GLES30} out of classes loaded on older platforms.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static class Api18 {
+
+        static void programBinary(int programHandle, int binaryFormat, ByteBuffer binary) {
+            GLES30.glProgramBinary(programHandle, binaryFormat, binary, binary.capacity());
+        }
+
+        static int getProgramBinary(int programHandle, int bufferSize, int[] binaryFormat, ByteBuffer binary) {
+            final int[] length = new int[1];
+            GLES30.glGetProgramBinary(programHandle, bufferSize, length, 0, binaryFormat, 0, binary);
+            return length[0];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.denys.newvr.shader;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shader variants of one GL context, compiled once each and shared by every program that links
+ * them.
+ * <p>
+ * Sources come through a {@link ShaderPreprocessor}, so each is read once and variants only cost
+ * the define lines put in front. Compiled shader objects are kept by the hash of their final
+ * source: asking for a variant that was compiled before, say when switching back to an earlier
+ * set of defines, returns the existing shader. Must be used on the GL thread.
+ */
+public class ShaderLibrary {
+
+    private final ShaderPreprocessor mPreprocessor;
+
+    /** Compiled shader handles by the hash of their source. */
+    private final Map<String, Integer> mShaders = new HashMap<String, Integer>();
+
+    /**
+     * @param preprocessor Where named sources come from, null if shaders are only passed in as
+     *                     source text through {@link #getShader}
+     */
+    public ShaderLibrary(ShaderPreprocessor preprocessor) {
+        mPreprocessor = preprocessor;
+    }
+
+    /**
+     * Reads sources from res/raw. A name is the file name, the extension is dropped to find the
+     * resource, so {@code "depth_perspective.frag"} opens {@code R.raw.depth_perspective}.
+     */
+    public static ShaderPreprocessor.Loader rawResources(final Resources resources, final String packageName) {
+        return new ShaderPreprocessor.Loader() {
+            @Override
+            public InputStream open(String name) throws IOException {
+                final int dot = name.lastIndexOf('.');
+                final String resourceName = dot < 0 ? name : name.substring(0, dot);
+                final int resourceId = resources.getIdentifier(resourceName, "raw", packageName);
+                if (resourceId == 0) {
+                    throw new IOException("No raw resource " + resourceName);
+                }
+                return resources.openRawResource(resourceId);
+            }
+        };
+    }
+
+    public ShaderPreprocessor getPreprocessor() {
+        return mPreprocessor;
+    }
+
+    /**
+     * @see ShaderPreprocessor#getVariant
+     */
+    public String getVariant(String name, String... defines) {
+        return mPreprocessor.getVariant(name, defines);
+    }
+
+    /**
+     * Get a compiled shader for the source, compiling it only the first time.
+     *
+     * @param shaderType GL_VERTEX_SHADER or GL_FRAGMENT_SHADER
+     * @return The shader handle, owned by the library
+     */
+    public int getShader(int shaderType, String source) {
+        final String key = shaderType + ":" + ShaderPreprocessor.hash(source);
+        final Integer cached = mShaders.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int shaderHandle = ProgramCache.compileShader(shaderType, source);
+        mShaders.put(key, shaderHandle);
+        return shaderHandle;
+    }
+
+    /**
+     * @return The number of compiled shaders kept
+     */
+    public int size() {
+        return mShaders.size();
+    }
+
+    /**
+     * Delete all compiled shaders. Programs they were linked into keep working.
+     */
+    public void release() {
+        for (int shaderHandle : mShaders.values()) {
+            GLES20.glDeleteShader(shaderHandle);
+        }
+        invalidate();
+    }
+
+    /**
+     * Forget the compiled shaders without deleting them, because the context owning them is gone.
+     * The sources stay, a new context only needs to compile again.
+     */
+    public void invalidate() {
+        mShaders.clear();
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.denys.newvr.shader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns named shader sources into variants: reads each source once, expands
+ * {@code #include "name"} lines and puts {@code #define} lines in front. Plain Java, so it can be
+ * tested and measured off the device, and safe to use from any thread.
+ */
+public class ShaderPreprocessor {
+
+    /**
+     * Opens a source by the name it is asked for or included with.
+     */
+    public interface Loader {
+        InputStream open(String name) throws IOException;
+    }
+
+    private static final String INCLUDE = "#include";
+
+    private final Loader mLoader;
+
+    /** Sources with their includes expanded, by name. */
+    private final Map<String, String> mSources = new HashMap<String, String>();
+
+    public ShaderPreprocessor(Loader loader) {
+        mLoader = loader;
+    }
+
+    /**
+     * @return The source with its includes expanded, read on the first call only
+     */
+    public synchronized String getSource(String name) {
+        return expand(name, new ArrayList<String>());
+    }
+
+    /**
+     * Build a variant of a source.
+     *
+     * @param defines Each a name or a name and a value, like {@code "PACKED"} or
+     *                {@code "QUALITY 3"}. They go after a leading {@code #version} line, if any.
+     * @return The source text to compile
+     */
+    public String getVariant(String name, String... defines) {
+        final String source = getSource(name);
+        if (defines.length == 0) {
+            return source;
+        }
+
+        int start = 0;
+        if (source.startsWith("#version")) {
+            start = source.indexOf('\n') + 1;
+        }
+
+        final StringBuilder variant = new StringBuilder(source.length() + defines.length * 24);
+        variant.append(source, 0, start);
+        for (String define : defines) {
+            variant.append("#define ").append(define).append('\n');
+        }
+        variant.append(source, start, source.length());
+        return variant.toString();
+    }
+
+    /**
+     * Forget the sources read so far, so they are read again on next use.
+     */
+    public synchronized void clear() {
+        mSources.clear();
+    }
+
+    /**
+     * @return A hex SHA-1 of the source, what variants are told apart by
+     */
+    public static String hash(String source) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes("UTF-8"));
+            final StringBuilder hash = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hash.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hash.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error hashing shader source.", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String expand(String name, List<String> including) {
+        String source = mSources.get(name);
+        if (source != null) {
+            return source;
+        }
+
+        if (including.contains(name)) {
+            throw new RuntimeException("Error including shader " + name + ", it includes itself through " + including);
+        }
+
+        final InputStream inputStream;
+        try {
+            inputStream = mLoader.open(name);
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening shader " + name, e);
+        }
+        source = ShaderSource.read(inputStream);
+
+        if (source.contains(INCLUDE)) {
+            including.add(name);
+            source = expandIncludes(name, source, including);
+            including.remove(including.size() - 1);
+        }
+
+        mSources.put(name, source);
+        return source;
+    }
+
+    private String expandIncludes(String name, String source, List<String> including) {
+        final StringBuilder expanded = new StringBuilder(source.length());
+        int lineStart = 0;
+        while (lineStart < source.length()) {
+            // Every line read by ShaderSource ends with '\n'.
+            final int lineEnd = source.indexOf('\n', lineStart) + 1;
+            final String line = source.substring(lineStart, lineEnd).trim();
+
+            if (line.startsWith(INCLUDE)) {
+                final int open = line.indexOf('"');
+                final int close = line.lastIndexOf('"');
+                if (open < 0 || close <= open) {
+                    throw new RuntimeException("Error in shader " + name + ": malformed " + line);
+                }
+                expanded.append(expand(line.substring(open + 1, close), including));
+            } else {
+                expanded.append(source, lineStart, lineEnd);
+            }
+            lineStart = lineEnd;
+        }
+        return expanded.toString();
+    }
+}
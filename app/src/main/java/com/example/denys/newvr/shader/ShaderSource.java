@@ -0,0 +1,41 @@
+package com.example.denys.newvr.shader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads GLSL source text. Plain Java, so it can be measured off the device.
+ */
+public final class ShaderSource {
+
+    private ShaderSource() {
+    }
+
+    /**
+     * Read a whole shader, normalizing line endings to '\n'. Closes the stream.
+     */
+    public static String read(InputStream inputStream) {
+        final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+
+        final StringBuilder body = new StringBuilder();
+        String nextLine;
+        try {
+            while ((nextLine = bufferedReader.readLine()) != null) {
+                body.append(nextLine);
+                body.append('\n');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading shader source.");
+        } finally {
+            try {
+                bufferedReader.close();
+            } catch (IOException e) {
+                // Nothing left to read from it anyway.
+            }
+        }
+
+        return body.toString();
+    }
+}
@@ -37,6 +37,8 @@
 
 package com.example.denys.newvr.shader;
 
+import android.opengl.GLES20;
+
 import org.artoolkit.ar.base.rendering.gles20.BaseFragmentShader;
 
 /**
@@ -53,7 +55,7 @@ public class SimpleFragmentShader extends BaseFragmentShader {
      * We don't do anything with it, just simply pass it to the rendering pipe.
      * Therefor OpenGL 2.0 uses the gl_FragColor variable
      */
-    final String fragmentShader =
+    static final String fragmentShader =
             "precision mediump float;       \n"     // Set the default precision to medium. We don't need as high of a
                     // precision in the fragment shader.
                     + "varying vec4 v_Color;          \n"     // This is the color from the vertex shader interpolated across the
@@ -63,6 +65,19 @@ public class SimpleFragmentShader extends BaseFragmentShader {
                     + "   gl_FragColor = v_Color;     \n"     // Pass the color directly through the pipeline.
                     + "}                              \n";
 
+    /**
+     * Compiles the source once per context through the library, null to compile it every time.
+     */
+    private final ShaderLibrary shaderLibrary;
+
+    public SimpleFragmentShader() {
+        this(null);
+    }
+
+    public SimpleFragmentShader(ShaderLibrary shaderLibrary) {
+        this.shaderLibrary = shaderLibrary;
+    }
+
     /**
      * This method gets called by the {@link org.artoolkit.ar.base.rendering.gles20.BaseShaderProgram}
      * during initializing the shaders.
@@ -73,6 +88,9 @@ public class SimpleFragmentShader extends BaseFragmentShader {
      */
     @Override
     public int configureShader() {
+        if (shaderLibrary != null) {
+            return shaderLibrary.getShader(GLES20.GL_FRAGMENT_SHADER, fragmentShader);
+        }
         this.setShaderSource(fragmentShader);
         return super.configureShader();
     }
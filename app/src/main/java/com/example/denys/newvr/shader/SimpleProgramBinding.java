@@ -0,0 +1,47 @@
+package com.example.denys.newvr.shader;
+
+import org.artoolkit.ar.base.rendering.gles20.OpenGLShader;
+
+/**
+ * Locations of the cube program built from {@link SimpleVertexShader} and {@link SimpleFragmentShader}.
+ */
+public class SimpleProgramBinding extends ProgramBinding {
+
+    private int mProjectionMatrixHandle = INVALID_LOCATION;
+    private int mModelViewMatrixHandle = INVALID_LOCATION;
+    private int mPositionHandle = INVALID_LOCATION;
+    private int mColorHandle = INVALID_LOCATION;
+
+    @Override
+    protected void onBind(int programHandle) {
+        mProjectionMatrixHandle = uniform(programHandle, OpenGLShader.projectionMatrixString);
+        mModelViewMatrixHandle = uniform(programHandle, OpenGLShader.modelViewMatrixString);
+
+        mPositionHandle = attribute(programHandle, OpenGLShader.positionVectorString);
+        mColorHandle = attribute(programHandle, SimpleVertexShader.colorVectorString);
+    }
+
+    @Override
+    protected void onInvalidate() {
+        mProjectionMatrixHandle = INVALID_LOCATION;
+        mModelViewMatrixHandle = INVALID_LOCATION;
+        mPositionHandle = INVALID_LOCATION;
+        mColorHandle = INVALID_LOCATION;
+    }
+
+    public int getProjectionMatrixHandle() {
+        return mProjectionMatrixHandle;
+    }
+
+    public int getModelViewMatrixHandle() {
+        return mModelViewMatrixHandle;
+    }
+
+    public int getPositionHandle() {
+        return mPositionHandle;
+    }
+
+    public int getColorHandle() {
+        return mColorHandle;
+    }
+}
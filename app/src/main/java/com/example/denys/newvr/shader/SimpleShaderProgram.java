@@ -38,6 +38,10 @@ package com.example.denys.newvr.shader;
 
 import android.opengl.GLES20;
 
+import com.example.denys.newvr.gl.AndroidGl;
+import com.example.denys.newvr.gl.Gl;
+import com.example.denys.newvr.gl.GlState;
+
 import org.artoolkit.ar.base.rendering.gles20.OpenGLShader;
 import org.artoolkit.ar.base.rendering.gles20.ShaderProgram;
 
@@ -55,6 +59,17 @@ import java.nio.FloatBuffer;
  */
 public class SimpleShaderProgram extends ShaderProgram {
 
+    /**
+     * Uniform and attribute locations, resolved once after the program has been linked.
+     */
+    private final SimpleProgramBinding binding = new SimpleProgramBinding();
+
+    /** Shadowed state to use the program and enable attributes through, null to call GL directly. */
+    private GlState glState;
+
+    /** Where the calls of this class go; the base class always calls GLES20. */
+    private Gl gl = AndroidGl.INSTANCE;
+
     /**
      * Constructor for the shader program. Most of the work is done in the {@link ShaderProgram} directly.
      *
@@ -64,6 +79,24 @@ public class SimpleShaderProgram extends ShaderProgram {
     public SimpleShaderProgram(OpenGLShader vertexShader, OpenGLShader fragmentShader) {
         super(vertexShader, fragmentShader);
         bindAttributes();
+        binding.bind(shaderProgramHandle);
+    }
+
+    /**
+     * Drop the cached locations. Call this when the GL context owning the program has been lost.
+     */
+    public void invalidate() {
+        binding.invalidate();
+    }
+
+    /**
+     * Use the program and enable attribute arrays through a state shadow, so what is already set
+     * is not set again for every draw. All other calls of this class go through the shadow's
+     * {@link Gl} as well.
+     */
+    public void setGlState(GlState glState) {
+        this.glState = glState;
+        this.gl = glState != null ? glState.getGl() : AndroidGl.INSTANCE;
     }
 
     /**
@@ -74,7 +107,7 @@ public class SimpleShaderProgram extends ShaderProgram {
      */
     @Override
     public int getProjectionMatrixHandle() {
-        return GLES20.glGetUniformLocation(shaderProgramHandle, OpenGLShader.projectionMatrixString);
+        return binding.getProjectionMatrixHandle();
     }
 
     /**
@@ -85,7 +118,7 @@ public class SimpleShaderProgram extends ShaderProgram {
      */
     @Override
     public int getModelViewMatrixHandle() {
-        return GLES20.glGetUniformLocation(shaderProgramHandle, OpenGLShader.modelViewMatrixString);
+        return binding.getModelViewMatrixHandle();
     }
 
     /**
@@ -94,8 +127,8 @@ public class SimpleShaderProgram extends ShaderProgram {
     @Override
     protected void bindAttributes() {
         // Bind attributes
-        GLES20.glBindAttribLocation(shaderProgramHandle, 0, OpenGLShader.positionVectorString);
-        GLES20.glBindAttribLocation(shaderProgramHandle, 1, SimpleVertexShader.colorVectorString);
+        gl.glBindAttribLocation(shaderProgramHandle, 0, OpenGLShader.positionVectorString);
+        gl.glBindAttribLocation(shaderProgramHandle, 1, SimpleVertexShader.colorVectorString);
     }
 
     /**
@@ -103,7 +136,7 @@ public class SimpleShaderProgram extends ShaderProgram {
      * the marker that comes from the ARToolKit.
      */
     public int getPositionHandle() {
-        return GLES20.glGetAttribLocation(shaderProgramHandle, OpenGLShader.positionVectorString);
+        return binding.getPositionHandle();
     }
 
     /**
@@ -111,7 +144,7 @@ public class SimpleShaderProgram extends ShaderProgram {
      * the geometry.
      */
     public int getColorHandle() {
-        return GLES20.glGetAttribLocation(shaderProgramHandle, SimpleVertexShader.colorVectorString);
+        return binding.getColorHandle();
     }
 
     /**
@@ -127,6 +160,9 @@ public class SimpleShaderProgram extends ShaderProgram {
     public void render(FloatBuffer vertexBuffer, FloatBuffer colorBuffer, ByteBuffer indexBuffer) {
         setupShaderUsage();
 
+        final int positionHandle = getPositionHandle();
+        final int colorHandle = getColorHandle();
+
         vertexBuffer.position(0);
         /**
          * We use the OpenGL methods to set the vertex information in the following order.
@@ -143,9 +179,9 @@ public class SimpleShaderProgram extends ShaderProgram {
          * 6. The vertex information itself.
          */
         //camPosition.length * 4 bytes per float
-        GLES20.glVertexAttribPointer(this.getPositionHandle(), positionDataSize, GLES20.GL_FLOAT, false,
+        gl.glVertexAttribPointer(positionHandle, positionDataSize, GLES20.GL_FLOAT, false,
                 positionStrideBytes, vertexBuffer);
-        GLES20.glEnableVertexAttribArray(this.getPositionHandle());
+        enableAttribute(positionHandle);
 
         // Pass in the color information
         colorBuffer.position(0);
@@ -154,16 +190,43 @@ public class SimpleShaderProgram extends ShaderProgram {
          * 2. Pass in 1 as count of color vertexes (my line has only one color)
          * 3. The color information itself.
          */
-        GLES20.glVertexAttribPointer(this.getColorHandle(), colorDataSize, GLES20.GL_FLOAT, false,
+        gl.glVertexAttribPointer(colorHandle, colorDataSize, GLES20.GL_FLOAT, false,
                 colorStrideBytes, colorBuffer);
 
-        GLES20.glEnableVertexAttribArray(this.getColorHandle());
+        enableAttribute(colorHandle);
 
         //Finally draw the geometry as triangles
         //The geometry consists of 36 points each represented by a x,y,z vector
         //The index buffer tells the renderer how the vector points are combined together.
         //eg. combine vertex 1,2,3 for the first triangle and 2,3,4 for the next triangle, ...
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, 36, GLES20.GL_UNSIGNED_BYTE, indexBuffer);
+        gl.glDrawElements(GLES20.GL_TRIANGLES, 36, GLES20.GL_UNSIGNED_BYTE, indexBuffer);
+
+    }
+
+    /**
+     * What {@link ShaderProgram} does, with the program made current through the state shadow.
+     */
+    @Override
+    protected void setupShaderUsage() {
+        if (glState == null) {
+            super.setupShaderUsage();
+            return;
+        }
+        if (projectionMatrix == null) {
+            throw new RuntimeException("You need to set the projection matrix.");
+        }
+        glState.useProgram(shaderProgramHandle);
+        gl.glUniformMatrix4fv(getProjectionMatrixHandle(), 1, false, projectionMatrix, 0);
+        if (modelViewMatrix != null) {
+            gl.glUniformMatrix4fv(getModelViewMatrixHandle(), 1, false, modelViewMatrix, 0);
+        }
+    }
 
+    private void enableAttribute(int handle) {
+        if (glState != null) {
+            glState.enableVertexAttribArray(handle);
+        } else {
+            gl.glEnableVertexAttribArray(handle);
+        }
     }
 }
@@ -36,6 +36,8 @@
  */
 package com.example.denys.newvr.shader;
 
+import android.opengl.GLES20;
+
 import org.artoolkit.ar.base.rendering.gles20.BaseVertexShader;
 import org.artoolkit.ar.base.rendering.gles20.OpenGLShader;
 
@@ -48,9 +50,9 @@ import org.artoolkit.ar.base.rendering.gles20.OpenGLShader;
  */
 public class SimpleVertexShader extends BaseVertexShader {
 
-    public static String colorVectorString = "a_Color";
+    public static final String colorVectorString = "a_Color";
 
-    final String vertexShader =
+    static final String vertexShader =
             "uniform mat4 u_MVPMatrix;        \n"     // A constant representing the combined model/view/projection matrix.
 
                     + "uniform mat4 " + OpenGLShader.projectionMatrixString + "; \n"        // projection matrix
@@ -70,6 +72,19 @@ public class SimpleVertexShader extends BaseVertexShader {
                     + "                     * p;              \n"     // Multiply the vertex by the matrix to get the final point in
                     + "}                              \n";    // normalized screen coordinates.
 
+    /**
+     * Compiles the source once per context through the library, null to compile it every time.
+     */
+    private final ShaderLibrary shaderLibrary;
+
+    public SimpleVertexShader() {
+        this(null);
+    }
+
+    public SimpleVertexShader(ShaderLibrary shaderLibrary) {
+        this.shaderLibrary = shaderLibrary;
+    }
+
     @Override
     /**
      * This method gets called by the {@link org.artoolkit.ar.base.rendering.gles20.BaseShaderProgram}
@@ -80,6 +95,9 @@ public class SimpleVertexShader extends BaseVertexShader {
      * @return The handle of the fragment shader
      */
     public int configureShader() {
+        if (shaderLibrary != null) {
+            return shaderLibrary.getShader(GLES20.GL_VERTEX_SHADER, vertexShader);
+        }
         this.setShaderSource(vertexShader);
         return super.configureShader();
     }
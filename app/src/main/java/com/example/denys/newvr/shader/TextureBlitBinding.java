@@ -0,0 +1,46 @@
+package com.example.denys.newvr.shader;
+
+/**
+ * Locations of the texture copy program built from {@code R.raw.vertex_shader} and
+ * {@code R.raw.fragment_shader}.
+ */
+public class TextureBlitBinding extends ProgramBinding {
+
+    private int mTextureUniformHandle = INVALID_LOCATION;
+    private int mMVPMatrixHandle = INVALID_LOCATION;
+    private int mPositionHandle = INVALID_LOCATION;
+    private int mTextureCoordinateHandle = INVALID_LOCATION;
+
+    @Override
+    protected void onBind(int programHandle) {
+        mTextureUniformHandle = uniform(programHandle, "u_Texture");
+        mMVPMatrixHandle = uniform(programHandle, "u_MVPMatrix");
+
+        mPositionHandle = attribute(programHandle, "a_Position");
+        mTextureCoordinateHandle = attribute(programHandle, "a_TexCoordinate");
+    }
+
+    @Override
+    protected void onInvalidate() {
+        mTextureUniformHandle = INVALID_LOCATION;
+        mMVPMatrixHandle = INVALID_LOCATION;
+        mPositionHandle = INVALID_LOCATION;
+        mTextureCoordinateHandle = INVALID_LOCATION;
+    }
+
+    public int getTextureUniformHandle() {
+        return mTextureUniformHandle;
+    }
+
+    public int getMVPMatrixHandle() {
+        return mMVPMatrixHandle;
+    }
+
+    public int getPositionHandle() {
+        return mPositionHandle;
+    }
+
+    public int getTextureCoordinateHandle() {
+        return mTextureCoordinateHandle;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.denys.newvr.startup;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.denys.newvr.assets.AssetCache;
+import com.example.denys.newvr.shader.ShaderLibrary;
+import com.example.denys.newvr.shader.ShaderPreprocessor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the independent parts of app start concurrently on a pool of workers and records when each
+ * was done, up to the first frame.
+ * <p>
+ * Created with the application, it starts unpacking the assets at once. The renderer, created with
+ * the activity, reads its shader sources and decodes its images on the same workers while the
+ * camera and the GL surface come up, and the GL thread only picks up what is ready. ARToolKit
+ * loads the camera parameters and markers natively once tracking starts, which is set up from a
+ * callback on the main thread once the files are unpacked ({@link #whenAssetsReady}).
+ * <p>
+ * Time to first frame counts from process start where the platform reports it (API 24), from the
+ * creation of this object otherwise, and is logged with all stages done by then.
+ */
+public class StartupPipeline {
+
+    private static final String TAG = "Startup";
+
+    public static final String STAGE_ASSETS = "assets";
+    public static final String STAGE_SHADER_SOURCES = "shader sources";
+    public static final String STAGE_IMAGES = "images";
+    public static final String STAGE_PROGRAMS = "programs";
+    public static final String STAGE_TEXTURES = "textures";
+    public static final String STAGE_FIRST_FRAME = "first frame";
+
+    /** Asset unpacking and the two image decodes run side by side. */
+    private static final int WORKERS = 3;
+
+    private final long mStartMillis;
+    private final ExecutorService mWorkers;
+    private final ShaderPreprocessor mShaderPreprocessor;
+    private final FutureTask<File> mAssets;
+
+    /** Waiting for the assets until they are unpacked, then null. Guarded by mAssetsLock. */
+    private final Object mAssetsLock = new Object();
+    private List<AssetsListener> mAssetsListeners = new ArrayList<AssetsListener>();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Milliseconds from start to the end of each stage, in the order they were done. */
+    private final Map<String, Long> mStages = new LinkedHashMap<String, Long>();
+    private volatile boolean mFirstFrameDone;
+
+    public StartupPipeline(final Context context) {
+        mStartMillis = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Api24.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+
+        mWorkers = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "startup-" + mCount++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mShaderPreprocessor = new ShaderPreprocessor(ShaderLibrary.rawResources(context.getResources(),
+                context.getPackageName()));
+
+        final AssetCache assetCache = new AssetCache(context);
+        mAssets = new FutureTask<File>(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                final File folder = assetCache.cacheFolder("Data");
+                mark(STAGE_ASSETS);
+                return folder;
+            }
+        }) {
+            @Override
+            protected void done() {
+                final List<AssetsListener> listeners;
+                synchronized (mAssetsLock) {
+                    listeners = mAssetsListeners;
+                    mAssetsListeners = null;
+                }
+                for (AssetsListener listener : listeners) {
+                    postAssetsReady(listener);
+                }
+            }
+        };
+        mWorkers.execute(mAssets);
+    }
+
+    /**
+     * @return The workers, for more start up work like decoding
+     */
+    public ExecutorService getWorkers() {
+        return mWorkers;
+    }
+
+    /**
+     * @return Shader sources from res/raw, shared so they are read once
+     */
+    public ShaderPreprocessor getShaderPreprocessor() {
+        return mShaderPreprocessor;
+    }
+
+    /**
+     * Read shader sources on a worker, so the GL thread finds them in memory.
+     */
+    public void preloadShaders(final String... names) {
+        mWorkers.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String name : names) {
+                    mShaderPreprocessor.getSource(name);
+                }
+                mark(STAGE_SHADER_SOURCES);
+            }
+        });
+    }
+
+    /**
+     * Called on the main thread once the assets are unpacked.
+     */
+    public interface AssetsListener {
+
+        /**
+         * @param unpacked False if unpacking failed
+         */
+        void onAssetsReady(boolean unpacked);
+    }
+
+    /**
+     * Call a listener on the main thread once the assets are unpacked, posted at once if they
+     * already are. Use it to hand asset paths to the native library without blocking the caller.
+     */
+    public void whenAssetsReady(AssetsListener listener) {
+        synchronized (mAssetsLock) {
+            if (mAssetsListeners != null) {
+                mAssetsListeners.add(listener);
+                return;
+            }
+        }
+        postAssetsReady(listener);
+    }
+
+    private void postAssetsReady(final AssetsListener listener) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Done by now, this does not wait.
+                listener.onAssetsReady(awaitAssets());
+            }
+        });
+    }
+
+    /**
+     * Wait until the assets are unpacked. Call before handing asset paths to the native library,
+     * or use {@link #whenAssetsReady} on threads that must not block.
+     *
+     * @return False if unpacking failed
+     */
+    public boolean awaitAssets() {
+        try {
+            mAssets.get();
+            return true;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error unpacking assets.", e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Record that a stage is done. Only the first time counts. Can be called from any thread.
+     */
+    public void mark(String stage) {
+        final long millis = SystemClock.elapsedRealtime() - mStartMillis;
+        synchronized (mStages) {
+            if (mStages.containsKey(stage)) {
+                return;
+            }
+            mStages.put(stage, millis);
+        }
+        if (mFirstFrameDone) {
+            Log.i(TAG, stage + " after the first frame, at " + millis + " ms");
+        }
+    }
+
+    /**
+     * Record the first frame and log the time to it, only the first call does anything.
+     */
+    public void onFirstFrame() {
+        if (mFirstFrameDone) {
+            return;
+        }
+        mark(STAGE_FIRST_FRAME);
+        mFirstFrameDone = true;
+
+        final StringBuilder stages = new StringBuilder();
+        synchronized (mStages) {
+            for (Map.Entry<String, Long> stage : mStages.entrySet()) {
+                stages.append(stages.length() == 0 ? "" : ", ")
+                        .append(stage.getKey()).append(' ').append(stage.getValue()).append(" ms");
+            }
+        }
+        Log.i(TAG, "Time to first frame " + getTimeToFirstFrame() + " ms (" + stages + ")");
+    }
+
+    /**
+     * @return Milliseconds from start to the first frame, -1 before it
+     */
+    public long getTimeToFirstFrame() {
+        synchronized (mStages) {
+            final Long millis = mStages.get(STAGE_FIRST_FRAME);
+            return millis != null ? millis : -1;
+        }
+    }
+
+    /**
+     * Keeps the reference to the API 24 method out of classes loaded on older platforms.
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private static class Api24 {
+
+        static long getStartElapsedRealtime() {
+            return Process.getStartElapsedRealtime();
+        }
+    }
+}
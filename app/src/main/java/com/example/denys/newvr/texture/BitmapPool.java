@@ -0,0 +1,122 @@
+package com.example.denys.newvr.texture;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bitmaps that are no longer needed, kept up to a byte budget so later decodes can write into them
+ * through {@code inBitmap} instead of allocating new pixel memory.
+ * <p>
+ * From API 19 any pooled bitmap with enough memory can be reused, before that only one of the
+ * same size and config, decoded without subsampling. When the budget is exceeded the oldest
+ * bitmaps are recycled. Can be used from any thread.
+ */
+public class BitmapPool {
+
+    private final long mMaxBytes;
+
+    /** Oldest first. */
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>();
+    private long mBytes;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap out of the pool that an image of the given size can be decoded into.
+     *
+     * @return The bitmap, or null if none fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        final Iterator<Bitmap> bitmaps = mBitmaps.iterator();
+        while (bitmaps.hasNext()) {
+            final Bitmap bitmap = bitmaps.next();
+            if (canDecodeInto(bitmap, width, height, config)) {
+                bitmaps.remove();
+                mBytes -= byteSize(bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hand a bitmap back for reuse, or recycle it if it can't be decoded into or is too big.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        final long size = byteSize(bitmap);
+        if (!bitmap.isMutable() || size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        mBitmaps.addLast(bitmap);
+        mBytes += size;
+        while (mBytes > mMaxBytes) {
+            final Bitmap oldest = mBitmaps.removeFirst();
+            mBytes -= byteSize(oldest);
+            oldest.recycle();
+        }
+    }
+
+    /**
+     * Recycle all pooled bitmaps.
+     */
+    public synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * @return The pixel memory held by pooled bitmaps
+     */
+    public synchronized long getByteSize() {
+        return mBytes;
+    }
+
+    private static boolean canDecodeInto(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return (long) width * height * bytesPerPixel(config) <= Api19.getAllocationByteCount(bitmap);
+        }
+        return bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config;
+    }
+
+    private static long byteSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return Api19.getAllocationByteCount(bitmap);
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    /**
+     * Keeps the reference to the API 19 method out of classes loaded on older platforms.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static class Api19 {
+
+        static int getAllocationByteCount(Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+    }
+}
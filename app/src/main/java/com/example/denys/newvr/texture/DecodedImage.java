@@ -0,0 +1,93 @@
+package com.example.denys.newvr.texture;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An image decoded off the GL thread, waiting to be uploaded by {@link TextureLoader#upload(DecodedImage)}.
+ * Plain color images are held as a {@link Bitmap}, everything else as tightly packed bytes in
+ * the GL format it is uploaded with. A bitmap from a {@link BitmapPool} goes back there when
+ * recycled.
+ */
+public class DecodedImage {
+
+    private final int mWidth;
+    private final int mHeight;
+    private Bitmap mBitmap;
+    private final ByteBuffer mPixels;
+    private final int mFormat;
+    private final BitmapPool mBitmapPool;
+    private final long mByteSize;
+
+    DecodedImage(Bitmap bitmap, BitmapPool bitmapPool) {
+        mWidth = bitmap.getWidth();
+        mHeight = bitmap.getHeight();
+        mBitmap = bitmap;
+        mPixels = null;
+        mFormat = 0;
+        mBitmapPool = bitmapPool;
+        mByteSize = (long) mWidth * mHeight * (bitmap.getConfig() == Bitmap.Config.RGB_565 ? 2 : 4);
+    }
+
+    DecodedImage(ByteBuffer pixels, int width, int height, int format) {
+        mWidth = width;
+        mHeight = height;
+        mBitmap = null;
+        mPixels = pixels;
+        mFormat = format;
+        mBitmapPool = null;
+        mByteSize = pixels.capacity();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The color pixels, or null for a byte image or once recycled
+     */
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * @return The pixels row by row from the top in {@link #getFormat()}, or null for a bitmap
+     */
+    public ByteBuffer getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * @return GL_LUMINANCE or GL_RGBA for byte images
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * @return The memory the pixels take as a texture
+     */
+    public long getByteSize() {
+        return mByteSize;
+    }
+
+    /**
+     * Free the pixel memory of a bitmap, or hand it back to its pool. Byte images stay, they are
+     * plain Java heap.
+     */
+    public void recycle() {
+        if (mBitmap != null) {
+            if (mBitmapPool != null) {
+                mBitmapPool.put(mBitmap);
+            } else {
+                mBitmap.recycle();
+            }
+            mBitmap = null;
+        }
+    }
+}
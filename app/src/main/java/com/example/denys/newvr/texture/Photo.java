@@ -0,0 +1,37 @@
+package com.example.denys.newvr.texture;
+
+/**
+ * A color image and its depth map, as drawable resources. Equal photos share cached textures.
+ */
+public final class Photo {
+
+    private final int mColorResource;
+    private final int mDepthResource;
+
+    public Photo(int colorResource, int depthResource) {
+        mColorResource = colorResource;
+        mDepthResource = depthResource;
+    }
+
+    public int getColorResource() {
+        return mColorResource;
+    }
+
+    public int getDepthResource() {
+        return mDepthResource;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Photo)) {
+            return false;
+        }
+        final Photo photo = (Photo) other;
+        return mColorResource == photo.mColorResource && mDepthResource == photo.mDepthResource;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mColorResource + mDepthResource;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.denys.newvr.texture;
+
+import android.opengl.GLES20;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Textures kept on the GPU between uses, up to a byte budget.
+ * <p>
+ * Each entry holds the texture handles of one key, like the color and depth textures of a photo,
+ * with a value describing them. Entries are ordered by last use; when an entry is added beyond the
+ * budget, the least recently used ones are deleted with glDeleteTextures. The new entry and the
+ * pinned one, the one on screen, are never evicted, so the cache can exceed its budget by at most
+ * those two. Must be used on the GL thread.
+ */
+public class TextureCache<K, V> {
+
+    private long mMaxBytes;
+    private long mBytes;
+    private K mPinned;
+    private int mEvictions;
+
+    /** Entries by key, least recently used first. */
+    private final LinkedHashMap<K, Entry<V>> mEntries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+    public TextureCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Change the budget, evicting what no longer fits.
+     */
+    public void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim(null);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return The texture memory held by the cached entries
+     */
+    public long getByteSize() {
+        return mBytes;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return How many entries were evicted to stay within the budget so far
+     */
+    public int getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * Keep the entry of a key, present or added later, from being evicted. Pass null to pin none.
+     */
+    public void pin(K key) {
+        mPinned = key;
+    }
+
+    /**
+     * Get the value of a key and mark it as just used.
+     *
+     * @return The value, or null if it isn't cached
+     */
+    public V get(K key) {
+        final Entry<V> entry = mEntries.get(key);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * @return Whether a key is cached, without marking it as used
+     */
+    public boolean contains(K key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Add textures, taking ownership of them. Replaces and deletes what the key held before, then
+     * evicts least recently used entries until the cache is within budget.
+     *
+     * @param textures Texture handles, 0 for unused slots
+     * @param bytes    The texture memory they take
+     */
+    public void put(K key, V value, int[] textures, long bytes) {
+        final Entry<V> previous = mEntries.put(key, new Entry<V>(value, textures, bytes));
+        if (previous != null) {
+            mBytes -= previous.bytes;
+            previous.delete();
+        }
+        mBytes += bytes;
+        trim(key);
+    }
+
+    /**
+     * Delete the textures of a key.
+     */
+    public void remove(K key) {
+        final Entry<V> entry = mEntries.remove(key);
+        if (entry != null) {
+            mBytes -= entry.bytes;
+            entry.delete();
+        }
+    }
+
+    /**
+     * Delete all textures.
+     */
+    public void release() {
+        for (Entry<V> entry : mEntries.values()) {
+            entry.delete();
+        }
+        invalidate();
+    }
+
+    /**
+     * Forget all textures without deleting them, because the context owning them is gone.
+     */
+    public void invalidate() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private void trim(K keep) {
+        final Iterator<Map.Entry<K, Entry<V>>> entries = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && entries.hasNext()) {
+            final Map.Entry<K, Entry<V>> eldest = entries.next();
+            final K key = eldest.getKey();
+            if (key.equals(keep) || key.equals(mPinned)) {
+                continue;
+            }
+            entries.remove();
+            mBytes -= eldest.getValue().bytes;
+            eldest.getValue().delete();
+            mEvictions++;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int[] textures;
+        final long bytes;
+
+        Entry(V value, int[] textures, long bytes) {
+            this.value = value;
+            this.textures = textures;
+            this.bytes = bytes;
+        }
+
+        void delete() {
+            GLES20.glDeleteTextures(textures.length, textures, 0);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.denys.newvr.texture;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.os.Build;
+import android.os.Process;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decodes image resources on a background executor and uploads them on the GL thread.
+ * <p>
+ * Images are decoded no larger than needed: JPEG decoding subsamples by powers of two down to the
+ * smallest size that still covers the target, and never above the GL maximum texture size. Depth
+ * maps are reduced to one byte per pixel and uploaded as luminance, a quarter of an RGBA texture.
+ * With a {@link BitmapPool}, decodes write into bitmaps freed by earlier ones where they fit, and
+ * bitmaps are handed back to the pool instead of being recycled.
+ */
+public class TextureLoader {
+
+    /** 32 bit color. */
+    public static final int FORMAT_RGBA = 0;
+
+    /** 16 bit color, half the memory of {@link #FORMAT_RGBA}. */
+    public static final int FORMAT_RGB565 = 1;
+
+    /** The red channel only, for depth maps. */
+    public static final int FORMAT_LUMINANCE = 2;
+
+    private final Resources mResources;
+    private final ExecutorService mExecutor;
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * @param executor Where decoding happens, see {@link #newDecodeExecutor(int)}
+     */
+    public TextureLoader(Resources resources, ExecutorService executor) {
+        this(resources, executor, null);
+    }
+
+    /**
+     * @param executor   Where decoding happens, see {@link #newDecodeExecutor(int)}
+     * @param bitmapPool Bitmaps to decode into and to return freed ones to, may be null
+     */
+    public TextureLoader(Resources resources, ExecutorService executor, BitmapPool bitmapPool) {
+        mResources = resources;
+        mExecutor = executor;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * @return An executor with the given number of background priority daemon threads
+     */
+    public static ExecutorService newDecodeExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "texture-decode-" + mCount++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return The executor decoding happens on, for chaining more work on decoded images
+     */
+    public ExecutorService getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Decode a resource on the background executor.
+     *
+     * @see #decode(int, int, int, int)
+     */
+    public Future<DecodedImage> decodeAsync(final int resourceId, final int format,
+                                            final int targetSize, final int maxSize) {
+        return mExecutor.submit(new Callable<DecodedImage>() {
+            @Override
+            public DecodedImage call() throws Exception {
+                return decode(resourceId, format, targetSize, maxSize);
+            }
+        });
+    }
+
+    /**
+     * Decode a resource on the calling thread.
+     *
+     * @param format     One of the FORMAT constants
+     * @param targetSize The longer side should stay at least this big, e.g. the longer surface side
+     * @param maxSize    The longer side must not exceed this, e.g. GL_MAX_TEXTURE_SIZE
+     */
+    public DecodedImage decode(int resourceId, int format, int targetSize, int maxSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;    // No pre-scaling
+
+        // Read the size only, to pick the subsampling before any pixels are allocated.
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, resourceId, options);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(Math.max(options.outWidth, options.outHeight), targetSize, maxSize);
+        options.inPreferredConfig = format == FORMAT_RGB565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        final Bitmap bitmap = decodeReusing(resourceId, options);
+        if (bitmap == null) {
+            throw new RuntimeException("Error decoding texture.");
+        }
+
+        if (format != FORMAT_LUMINANCE) {
+            return new DecodedImage(bitmap, mBitmapPool);
+        }
+
+        // Keep the red channel, a row at a time so no second full size int array is needed.
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final byte[] luminance = new byte[width * height];
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                luminance[y * width + x] = (byte) (row[x] >> 16);
+            }
+        }
+        if (mBitmapPool != null) {
+            mBitmapPool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+
+        return new DecodedImage(ByteBuffer.wrap(luminance), width, height, GLES20.GL_LUMINANCE);
+    }
+
+    /**
+     * Decode into a pooled bitmap if one fits, with the bounds already in the options. Before API 19
+     * only bitmaps of the exact size can be reused, and only without subsampling.
+     */
+    private Bitmap decodeReusing(int resourceId, BitmapFactory.Options options) {
+        if (mBitmapPool == null) {
+            return BitmapFactory.decodeResource(mResources, resourceId, options);
+        }
+
+        // Mutable, so the bitmap can be decoded into again once it is back in the pool.
+        options.inMutable = true;
+        if (options.inSampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            final int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            final int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            options.inBitmap = mBitmapPool.get(width, height, options.inPreferredConfig);
+        }
+
+        if (options.inBitmap != null) {
+            try {
+                return BitmapFactory.decodeResource(mResources, resourceId, options);
+            } catch (IllegalArgumentException e) {
+                // The decoder would not take this bitmap after all, decode into a new one.
+                options.inBitmap.recycle();
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeResource(mResources, resourceId, options);
+    }
+
+    /**
+     * Nearest neighbour resize of a luminance image, returns the image itself if the size matches.
+     */
+    public static DecodedImage resizeLuminance(DecodedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return image;
+        }
+
+        final byte[] src = image.getPixels().array();
+        final int srcWidth = image.getWidth();
+        final int srcHeight = image.getHeight();
+        final byte[] dst = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            final int srcRow = (int) ((y + 0.5f) * srcHeight / height) * srcWidth;
+            for (int x = 0; x < width; x++) {
+                dst[y * width + x] = src[srcRow + (int) ((x + 0.5f) * srcWidth / width)];
+            }
+        }
+        return new DecodedImage(ByteBuffer.wrap(dst), width, height, GLES20.GL_LUMINANCE);
+    }
+
+    /**
+     * Merge a color image and a depth map of the same size into one RGBA image with depth in
+     * alpha, so the shader gets both from a single texture. The color bitmap is recycled.
+     * <p>
+     * depth_perspective.frag samples the depth map upside down relative to the color image, so
+     * rows are stored flipped here and the packed shader samples both at the same coordinate.
+     */
+    public static DecodedImage pack(DecodedImage color, DecodedImage depth) {
+        final Bitmap bitmap = color.getBitmap();
+        final int width = color.getWidth();
+        final int height = color.getHeight();
+
+        if (depth.getWidth() != width || depth.getHeight() != height) {
+            throw new IllegalArgumentException("Color and depth differ in size.");
+        }
+
+        final byte[] luminance = depth.getPixels().array();
+        final ByteBuffer packed = ByteBuffer.allocate(width * height * 4);
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            final int depthRow = (height - 1 - y) * width;
+            for (int x = 0; x < width; x++) {
+                final int argb = row[x];
+                packed.put((byte) (argb >> 16));
+                packed.put((byte) (argb >> 8));
+                packed.put((byte) argb);
+                packed.put(luminance[depthRow + x]);
+            }
+        }
+        packed.position(0);
+        color.recycle();
+
+        return new DecodedImage(packed, width, height, GLES20.GL_RGBA);
+    }
+
+    /**
+     * Largest power of two subsampling that keeps {@code size} at or above {@code targetSize},
+     * increased further if the result would still exceed {@code maxSize}.
+     */
+    static int sampleSize(int size, int targetSize, int maxSize) {
+        int sampleSize = 1;
+        while (size / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        while (size / sampleSize > maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return GL_MAX_TEXTURE_SIZE of the current context. Must be called on the GL thread.
+     */
+    public static int getMaxTextureSize() {
+        final int[] maxSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+        return maxSize[0];
+    }
+
+    /**
+     * Upload a decoded image into a new texture and free its pixels. Must be called on the GL thread.
+     *
+     * @return The texture handle
+     */
+    public static int upload(DecodedImage image) {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0) {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        setNearestClamped();
+
+        if (image.getBitmap() != null) {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, image.getBitmap(), 0);
+            image.recycle();
+        } else {
+            uploadPixels(image.getPixels(), image.getWidth(), image.getHeight(), image.getFormat());
+        }
+
+        return textureHandle[0];
+    }
+
+    /**
+     * Upload tightly packed bytes into the bound texture.
+     *
+     * @param format GL_LUMINANCE or GL_RGBA
+     */
+    public static void uploadPixels(ByteBuffer pixels, int width, int height, int format) {
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, GLES20.GL_UNSIGNED_BYTE, pixels);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+    }
+
+    /**
+     * Nearest filtering without repeat: the shaders sample exact texels and NPOT textures stay
+     * complete on plain ES 2.0.
+     */
+    public static void setNearestClamped() {
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    }
+}
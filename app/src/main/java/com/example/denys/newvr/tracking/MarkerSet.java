@@ -0,0 +1,217 @@
+package com.example.denys.newvr.tracking;
+
+import org.artoolkit.ar.base.ARToolKit;
+import org.artoolkit.ar.base.NativeInterface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Many ARToolKit markers and the poses they were last detected at, for scenes that draw something
+ * on each of them.
+ * <p>
+ * After a detection, {@link #update(long)} asks ARToolKit for each marker in turn, one JNI call per
+ * marker that fills preallocated arrays, and gathers the visible poses into one array. Renderers
+ * copy that array out in one go with {@link #getVisiblePoses(float[], int[])}, instead of asking
+ * ARToolKit for every marker themselves. Detection runs on the tracking thread and one renderer
+ * reads on the GL thread. The poses travel through a {@link TripleBuffer}, so the reader always
+ * gets the latest complete detection without blocking the tracker, and neither side allocates.
+ */
+public class MarkerSet {
+
+    /** Floats per pose, a column major 4x4 matrix. */
+    public static final int POSE_SIZE = 16;
+
+    /** The marker config file of the scene, relative to the unpacked assets. */
+    public static final String MARKERS_FILE = "Data/markers.dat";
+
+    /** Config prefix of matrix code markers, which ARToolKit only finds with matrix detection on. */
+    private static final String BARCODE_PREFIX = "single_barcode;";
+
+    private final String[] mConfigs;
+    private final int[] mMarkerIds;
+
+    /** Detections on their way from the tracking thread to the renderer. */
+    private final TripleBuffer<Detection> mDetections;
+
+    /** The last published detection, on the tracking thread, to tell whether anything changed. */
+    private final Detection mLast;
+
+    /**
+     * Receive a marker's pose from ARToolKit on the tracking thread. Its mono query returns a new
+     * array per call, the stereo one fills the caller's arrays; the right eye pose is unused.
+     */
+    private final float[] mPose = new float[POSE_SIZE];
+    private final float[] mRightPose = new float[POSE_SIZE];
+
+    /**
+     * @param configs ARToolKit marker configs, e.g. {@code "single;Data/hiro.patt;80"} or
+     *                {@code "single_barcode;0;80"}
+     */
+    public MarkerSet(String[] configs) {
+        mConfigs = configs.clone();
+        mMarkerIds = new int[configs.length];
+        for (int i = 0; i < mMarkerIds.length; i++) {
+            mMarkerIds[i] = -1;
+        }
+        mDetections = new TripleBuffer<Detection>(new Detection(configs.length),
+                new Detection(configs.length), new Detection(configs.length));
+        mLast = new Detection(configs.length);
+    }
+
+    /**
+     * Read marker configs from a file, one per line. Empty lines and lines starting with
+     * {@code #} are skipped.
+     */
+    public static MarkerSet load(File file) throws IOException {
+        final List<String> configs = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    configs.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new MarkerSet(configs.toArray(new String[configs.size()]));
+    }
+
+    /**
+     * @return How many markers there are, the most that can be visible at once
+     */
+    public int size() {
+        return mConfigs.length;
+    }
+
+    public String getConfig(int index) {
+        return mConfigs[index];
+    }
+
+    /**
+     * Add the markers to ARToolKit, from {@code configureARScene}. With any matrix code markers
+     * among them, detection looks for 3x3 matrix codes as well as templates.
+     *
+     * @return False if ARToolKit rejected any config
+     */
+    public boolean register() {
+        for (String config : mConfigs) {
+            if (config.startsWith(BARCODE_PREFIX)) {
+                NativeInterface.arwSetPatternDetectionMode(NativeInterface.AR_TEMPLATE_MATCHING_COLOR_AND_MATRIX);
+                NativeInterface.arwSetMatrixCodeType(NativeInterface.AR_MATRIX_CODE_3x3);
+                break;
+            }
+        }
+
+        boolean registered = true;
+        for (int i = 0; i < mConfigs.length; i++) {
+            mMarkerIds[i] = ARToolKit.getInstance().addMarker(mConfigs[i]);
+            registered &= mMarkerIds[i] >= 0;
+        }
+        return registered;
+    }
+
+    /**
+     * Take the result of the latest detection and publish it. ARToolKit has no query for several
+     * markers, so this asks for each marker in turn, one JNI call each. Call it after every
+     * detection, on the thread that ran it.
+     *
+     * @param timestamp When the camera frame detected in arrived, on the {@link System#nanoTime()}
+     *                  clock. Not when detection finished, which would leave its duration out of
+     *                  the latency the renderer predicts over.
+     * @return True if any marker appeared, disappeared or moved, so a new frame is needed
+     */
+    public boolean update(long timestamp) {
+        final Detection detection = mDetections.getWriteSlot();
+        detection.timestamp = timestamp;
+        int count = 0;
+        for (int i = 0; i < mMarkerIds.length; i++) {
+            final int markerId = mMarkerIds[i];
+            // False for a marker that is not visible, the arrays are then left alone.
+            if (markerId < 0 || !NativeInterface.arwQueryMarkerTransformationStereo(markerId, mPose, mRightPose)) {
+                continue;
+            }
+            System.arraycopy(mPose, 0, detection.poses, count * POSE_SIZE, POSE_SIZE);
+            detection.indices[count] = i;
+            count++;
+        }
+        detection.count = count;
+
+        final boolean changed = !detection.samePoses(mLast);
+        mLast.copyFrom(detection);
+        mDetections.publish();
+        return changed;
+    }
+
+    /**
+     * Copy out the visible poses of the latest detection. Call on the one reading thread only.
+     *
+     * @param poses   Receives the poses one after the other, at least {@link #size()} times
+     *                {@link #POSE_SIZE} floats
+     * @param indices Receives which marker each pose belongs to, null if not needed
+     * @return How many markers are visible
+     */
+    public int getVisiblePoses(float[] poses, int[] indices) {
+        mDetections.update();
+        final Detection detection = mDetections.getReadSlot();
+        System.arraycopy(detection.poses, 0, poses, 0, detection.count * POSE_SIZE);
+        if (indices != null) {
+            System.arraycopy(detection.indices, 0, indices, 0, detection.count);
+        }
+        return detection.count;
+    }
+
+    /**
+     * @return When the detection last read by {@link #getVisiblePoses(float[], int[])} was taken
+     *         from the camera, on the {@link System#nanoTime()} clock. Reading thread only.
+     */
+    public long getTimestamp() {
+        return mDetections.getReadSlot().timestamp;
+    }
+
+    /**
+     * The visible markers of one detection.
+     */
+    private static final class Detection {
+        final float[] poses;
+        final int[] indices;
+        int count;
+        long timestamp;
+
+        Detection(int size) {
+            poses = new float[size * POSE_SIZE];
+            indices = new int[size];
+        }
+
+        boolean samePoses(Detection other) {
+            if (count != other.count) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (indices[i] != other.indices[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < count * POSE_SIZE; i++) {
+                if (poses[i] != other.poses[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void copyFrom(Detection other) {
+            System.arraycopy(other.poses, 0, poses, 0, other.count * POSE_SIZE);
+            System.arraycopy(other.indices, 0, indices, 0, other.count);
+            count = other.count;
+            timestamp = other.timestamp;
+        }
+    }
+}
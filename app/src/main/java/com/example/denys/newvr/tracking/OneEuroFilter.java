@@ -0,0 +1,109 @@
+package com.example.denys.newvr.tracking;
+
+/**
+ * The One Euro filter of Casiez et al.: a low pass whose cutoff rises with the speed of the signal,
+ * so it smooths jitter while the signal holds still and lags little while it moves.
+ * <p>
+ * Filters a vector of values with one cutoff, driven by the length of the vector's speed, so all
+ * components are smoothed alike and a direction or rotation is not bent. Plain Java and allocation
+ * free after construction.
+ */
+public class OneEuroFilter {
+
+    private final int mSize;
+    private final float mMinCutoff;
+    private final float mBeta;
+    private final float mDerivativeCutoff;
+
+    private final float[] mValue;
+    private final float[] mDerivative;
+    private boolean mInitialized;
+
+    /**
+     * @param size             Number of values filtered together
+     * @param minCutoff        Cutoff in Hz while the values hold still, lower smooths more
+     * @param beta             How much the cutoff rises per unit per second of speed, higher lags less
+     * @param derivativeCutoff Cutoff in Hz of the speed estimate
+     */
+    public OneEuroFilter(int size, float minCutoff, float beta, float derivativeCutoff) {
+        mSize = size;
+        mMinCutoff = minCutoff;
+        mBeta = beta;
+        mDerivativeCutoff = derivativeCutoff;
+        mValue = new float[size];
+        mDerivative = new float[size];
+    }
+
+    /**
+     * Filter the next sample in place. The first sample after construction or {@link #reset()}
+     * passes unchanged.
+     *
+     * @param values  The sample, replaced by the filtered values
+     * @param offset  Where the sample starts in the array
+     * @param seconds Time since the previous sample, must be above 0 after the first
+     */
+    public void filter(float[] values, int offset, float seconds) {
+        if (!mInitialized || seconds <= 0.0f) {
+            if (!mInitialized) {
+                System.arraycopy(values, offset, mValue, 0, mSize);
+                mInitialized = true;
+            } else {
+                System.arraycopy(mValue, 0, values, offset, mSize);
+            }
+            return;
+        }
+
+        final float derivativeAlpha = alpha(mDerivativeCutoff, seconds);
+        float speed = 0.0f;
+        for (int i = 0; i < mSize; i++) {
+            final float derivative = (values[offset + i] - mValue[i]) / seconds;
+            mDerivative[i] += derivativeAlpha * (derivative - mDerivative[i]);
+            speed += mDerivative[i] * mDerivative[i];
+        }
+
+        final float alpha = alpha(mMinCutoff + mBeta * (float) Math.sqrt(speed), seconds);
+        for (int i = 0; i < mSize; i++) {
+            mValue[i] += alpha * (values[offset + i] - mValue[i]);
+            values[offset + i] = mValue[i];
+        }
+    }
+
+    /**
+     * @return The smoothed speed of a value per second
+     */
+    public float getDerivative(int index) {
+        return mDerivative[index];
+    }
+
+    /**
+     * @return The last filtered value
+     */
+    public float getValue(int index) {
+        return mValue[index];
+    }
+
+    /**
+     * @return Whether a sample was filtered since construction or {@link #reset()}
+     */
+    public boolean isInitialized() {
+        return mInitialized;
+    }
+
+    /**
+     * Forget the history, so the next sample passes unchanged.
+     */
+    public void reset() {
+        mInitialized = false;
+        for (int i = 0; i < mSize; i++) {
+            mDerivative[i] = 0.0f;
+        }
+    }
+
+    /**
+     * Smoothing factor of an exponential low pass with the cutoff, for samples the time apart.
+     */
+    private static float alpha(float cutoff, float seconds) {
+        final float tau = 1.0f / (2.0f * (float) Math.PI * cutoff);
+        return 1.0f / (1.0f + tau / seconds);
+    }
+}
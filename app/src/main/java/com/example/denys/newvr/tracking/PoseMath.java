@@ -0,0 +1,58 @@
+package com.example.denys.newvr.tracking;
+
+/**
+ * Matrix math on marker poses, column major like ARToolKit and {@code android.opengl.Matrix}.
+ * Plain Java and allocation free, so it can run every frame and be measured off the device.
+ */
+public final class PoseMath {
+
+    private PoseMath() {
+    }
+
+    /**
+     * The angles between the marker normal and the direction to the camera, in marker coordinates,
+     * scaled so {@code maxAngle} reaches 1 and clamped to [-1, 1].
+     *
+     * @param pose     Marker to camera transform
+     * @param maxAngle In radians
+     * @param offset   Receives the x and y angle
+     */
+    public static void viewOffset(float[] pose, float maxAngle, float[] offset) {
+        // The camera sits at -R^T * t in marker coordinates.
+        final float tx = pose[12];
+        final float ty = pose[13];
+        final float tz = pose[14];
+        final float cameraX = -(pose[0] * tx + pose[1] * ty + pose[2] * tz);
+        final float cameraY = -(pose[4] * tx + pose[5] * ty + pose[6] * tz);
+        final float cameraZ = -(pose[8] * tx + pose[9] * ty + pose[10] * tz);
+
+        offset[0] = clamp((float) Math.atan2(cameraX, cameraZ) / maxAngle);
+        offset[1] = clamp((float) Math.atan2(cameraY, cameraZ) / maxAngle);
+    }
+
+    /**
+     * {@code result = projection * pose * scale(scaleX, scaleY, scaleZ)}, what
+     * {@code Matrix.multiplyMM} followed by {@code Matrix.scaleM} gives.
+     *
+     * @param result Must not be one of the inputs
+     */
+    public static void multiplyScaled(float[] result, float[] projection, float[] pose,
+                                      float scaleX, float scaleY, float scaleZ) {
+        for (int column = 0; column < 4; column++) {
+            final float scale = column == 0 ? scaleX : column == 1 ? scaleY : column == 2 ? scaleZ : 1.0f;
+            final int c = column * 4;
+            final float p0 = pose[c];
+            final float p1 = pose[c + 1];
+            final float p2 = pose[c + 2];
+            final float p3 = pose[c + 3];
+            for (int row = 0; row < 4; row++) {
+                result[c + row] = (projection[row] * p0 + projection[4 + row] * p1
+                        + projection[8 + row] * p2 + projection[12 + row] * p3) * scale;
+            }
+        }
+    }
+
+    private static float clamp(float value) {
+        return Math.max(-1.0f, Math.min(1.0f, value));
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.denys.newvr.tracking;
+
+/**
+ * Smooths the detected poses of one marker and predicts where it is at the time a frame is shown.
+ * <p>
+ * Every detection is split into a translation and a rotation quaternion, each run through a
+ * {@link OneEuroFilter}: jitter is smoothed while the marker holds still, and the filter opens up
+ * as it moves. {@link #predict(long, float[])} then moves the filtered pose on by the filtered
+ * speeds, from the detection to the render time, which hides the frame of latency detection has.
+ * <p>
+ * Poses are column major rigid transforms like ARToolKit's. Plain Java and allocation free after
+ * construction, so it can run every frame without feeding the garbage collector. That holds for the
+ * predictor only: ARToolKit hands out the camera projection as a new array per query, which the
+ * renderers therefore fetch once. Not thread safe, use it on the thread that draws.
+ */
+public class PosePredictor {
+
+    /** Cutoff while still and speed response of the translation, in millimetres. */
+    public static final float TRANSLATION_MIN_CUTOFF = 1.0f;
+    public static final float TRANSLATION_BETA = 0.02f;
+
+    /** Cutoff while still and speed response of the rotation quaternion. */
+    public static final float ROTATION_MIN_CUTOFF = 1.0f;
+    public static final float ROTATION_BETA = 0.5f;
+
+    /** Cutoff of the speed estimates. */
+    public static final float DERIVATIVE_CUTOFF = 1.0f;
+
+    /** Predictions reach at most this far past the last detection, so a lost marker doesn't fly off. */
+    public static final long MAX_PREDICTION_NANOS = 100000000L;
+
+    private static final float NANOS_PER_SECOND = 1e9f;
+
+    private final OneEuroFilter mTranslationFilter;
+    private final OneEuroFilter mRotationFilter;
+
+    /** The filtered translation and rotation of the last detection. */
+    private final float[] mTranslation = new float[3];
+    private final float[] mRotation = new float[4];
+
+    private long mTimestamp;
+    private boolean mHasPose;
+
+    public PosePredictor() {
+        this(TRANSLATION_MIN_CUTOFF, TRANSLATION_BETA, ROTATION_MIN_CUTOFF, ROTATION_BETA, DERIVATIVE_CUTOFF);
+    }
+
+    public PosePredictor(float translationMinCutoff, float translationBeta, float rotationMinCutoff,
+                         float rotationBeta, float derivativeCutoff) {
+        mTranslationFilter = new OneEuroFilter(3, translationMinCutoff, translationBeta, derivativeCutoff);
+        mRotationFilter = new OneEuroFilter(4, rotationMinCutoff, rotationBeta, derivativeCutoff);
+    }
+
+    /**
+     * Add a detection. Detections with the timestamp of the last one are ignored.
+     *
+     * @param pose      Marker to camera transform, copied
+     * @param offset    Where the pose starts in the array
+     * @param timestamp When the camera frame it was detected in was taken, in nanoseconds
+     */
+    public void update(float[] pose, int offset, long timestamp) {
+        if (mHasPose && timestamp == mTimestamp) {
+            return;
+        }
+        final float seconds = mHasPose ? (timestamp - mTimestamp) / NANOS_PER_SECOND : 0.0f;
+
+        mTranslation[0] = pose[offset + 12];
+        mTranslation[1] = pose[offset + 13];
+        mTranslation[2] = pose[offset + 14];
+        mTranslationFilter.filter(mTranslation, 0, seconds);
+
+        // q and -q are the same rotation, take the one next to the last so the filter sees no jump.
+        final float x = mRotation[0];
+        final float y = mRotation[1];
+        final float z = mRotation[2];
+        final float w = mRotation[3];
+        toQuaternion(pose, offset, mRotation);
+        if (mHasPose && x * mRotation[0] + y * mRotation[1] + z * mRotation[2] + w * mRotation[3] < 0.0f) {
+            for (int i = 0; i < 4; i++) {
+                mRotation[i] = -mRotation[i];
+            }
+        }
+        mRotationFilter.filter(mRotation, 0, seconds);
+        normalize(mRotation);
+
+        mTimestamp = timestamp;
+        mHasPose = true;
+    }
+
+    /**
+     * @return Whether there was a detection since construction or {@link #reset()}
+     */
+    public boolean hasPose() {
+        return mHasPose;
+    }
+
+    /**
+     * @return The time of the last detection in nanoseconds
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Forget the marker, like after it was lost, so the next detection starts afresh.
+     */
+    public void reset() {
+        mTranslationFilter.reset();
+        mRotationFilter.reset();
+        mHasPose = false;
+    }
+
+    /**
+     * The filtered pose moved on to a point in time, at most {@link #MAX_PREDICTION_NANOS} after
+     * the last detection. Times before it give the filtered pose of the last detection.
+     *
+     * @param timestamp The time in nanoseconds, like when the frame will be shown
+     * @param pose      Receives the transform, 16 floats
+     */
+    public void predict(long timestamp, float[] pose) {
+        final long ahead = Math.max(0L, Math.min(MAX_PREDICTION_NANOS, timestamp - mTimestamp));
+        final float seconds = ahead / NANOS_PER_SECOND;
+
+        float x = mRotation[0] + mRotationFilter.getDerivative(0) * seconds;
+        float y = mRotation[1] + mRotationFilter.getDerivative(1) * seconds;
+        float z = mRotation[2] + mRotationFilter.getDerivative(2) * seconds;
+        float w = mRotation[3] + mRotationFilter.getDerivative(3) * seconds;
+        final float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        x /= length;
+        y /= length;
+        z /= length;
+        w /= length;
+
+        pose[0] = 1.0f - 2.0f * (y * y + z * z);
+        pose[1] = 2.0f * (x * y + z * w);
+        pose[2] = 2.0f * (x * z - y * w);
+        pose[3] = 0.0f;
+        pose[4] = 2.0f * (x * y - z * w);
+        pose[5] = 1.0f - 2.0f * (x * x + z * z);
+        pose[6] = 2.0f * (y * z + x * w);
+        pose[7] = 0.0f;
+        pose[8] = 2.0f * (x * z + y * w);
+        pose[9] = 2.0f * (y * z - x * w);
+        pose[10] = 1.0f - 2.0f * (x * x + y * y);
+        pose[11] = 0.0f;
+        pose[12] = mTranslation[0] + mTranslationFilter.getDerivative(0) * seconds;
+        pose[13] = mTranslation[1] + mTranslationFilter.getDerivative(1) * seconds;
+        pose[14] = mTranslation[2] + mTranslationFilter.getDerivative(2) * seconds;
+        pose[15] = 1.0f;
+    }
+
+    /**
+     * The rotation of a column major transform as a unit quaternion x, y, z, w.
+     */
+    static void toQuaternion(float[] m, int offset, float[] quaternion) {
+        final float m00 = m[offset];
+        final float m11 = m[offset + 5];
+        final float m22 = m[offset + 10];
+        final float trace = m00 + m11 + m22;
+
+        // Rows and columns are swapped in the array, m[offset + 4 * column + row].
+        if (trace > 0.0f) {
+            final float s = 2.0f * (float) Math.sqrt(trace + 1.0f);
+            quaternion[3] = 0.25f * s;
+            quaternion[0] = (m[offset + 6] - m[offset + 9]) / s;
+            quaternion[1] = (m[offset + 8] - m[offset + 2]) / s;
+            quaternion[2] = (m[offset + 1] - m[offset + 4]) / s;
+        } else if (m00 > m11 && m00 > m22) {
+            final float s = 2.0f * (float) Math.sqrt(1.0f + m00 - m11 - m22);
+            quaternion[3] = (m[offset + 6] - m[offset + 9]) / s;
+            quaternion[0] = 0.25f * s;
+            quaternion[1] = (m[offset + 4] + m[offset + 1]) / s;
+            quaternion[2] = (m[offset + 8] + m[offset + 2]) / s;
+        } else if (m11 > m22) {
+            final float s = 2.0f * (float) Math.sqrt(1.0f + m11 - m00 - m22);
+            quaternion[3] = (m[offset + 8] - m[offset + 2]) / s;
+            quaternion[0] = (m[offset + 4] + m[offset + 1]) / s;
+            quaternion[1] = 0.25f * s;
+            quaternion[2] = (m[offset + 9] + m[offset + 6]) / s;
+        } else {
+            final float s = 2.0f * (float) Math.sqrt(1.0f + m22 - m00 - m11);
+            quaternion[3] = (m[offset + 1] - m[offset + 4]) / s;
+            quaternion[0] = (m[offset + 8] + m[offset + 2]) / s;
+            quaternion[1] = (m[offset + 9] + m[offset + 6]) / s;
+            quaternion[2] = 0.25f * s;
+        }
+        normalize(quaternion);
+    }
+
+    private static void normalize(float[] quaternion) {
+        final float length = (float) Math.sqrt(quaternion[0] * quaternion[0] + quaternion[1] * quaternion[1]
+                + quaternion[2] * quaternion[2] + quaternion[3] * quaternion[3]);
+        for (int i = 0; i < 4; i++) {
+            quaternion[i] /= length;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.denys.newvr.tracking;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.example.denys.newvr.metrics.FrameMetrics;
+
+import org.artoolkit.ar.base.ARToolKit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Detects markers in camera frames on a thread of its own, so neither a slow detection nor a slow
+ * render holds up the other.
+ * <p>
+ * The camera thread copies each preview frame into a {@link TripleBuffer}, stamped with the time
+ * it arrived, and returns at once, the camera reuses its buffers. The tracking thread always detects in the newest frame; frames
+ * that arrive while it is still busy replace the waiting one and are counted as dropped, so the
+ * tracker never falls behind the camera. Detected poses are published through the
+ * {@link MarkerSet}, which the renderer reads without blocking.
+ */
+public class TrackingThread {
+
+    private static final String TAG = "TrackingThread";
+
+    /**
+     * Told about detections on the tracking thread.
+     */
+    public interface Listener {
+
+        /**
+         * A marker appeared, disappeared or moved, a new frame should be drawn.
+         */
+        void onPosesChanged();
+    }
+
+    private final MarkerSet mMarkers;
+    private final Listener mListener;
+    private final FrameMetrics mMetrics;
+
+    private final TripleBuffer<Frame> mFrames;
+    private final Thread mThread;
+    private volatile boolean mStopped;
+
+    private final AtomicInteger mDroppedFrames = new AtomicInteger();
+    private final AtomicInteger mTrackedFrames = new AtomicInteger();
+
+    /**
+     * @param markers    Registered markers to update after each detection
+     * @param frameBytes Size of a camera preview frame
+     * @param metrics    Receives the detection times, null for none
+     */
+    public TrackingThread(MarkerSet markers, int frameBytes, Listener listener, FrameMetrics metrics) {
+        mMarkers = markers;
+        mListener = listener;
+        mMetrics = metrics;
+        mFrames = new TripleBuffer<Frame>(new Frame(frameBytes), new Frame(frameBytes), new Frame(frameBytes));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                track();
+            }
+        }, "tracking");
+    }
+
+    public void start() {
+        mThread.start();
+    }
+
+    /**
+     * Hand over a camera frame. Copies it, so the camera can reuse its buffer as soon as this
+     * returns, and takes the time it arrived as the time its poses were seen. Camera thread only.
+     */
+    public void offerFrame(byte[] frame) {
+        final long timestamp = System.nanoTime();
+        final Frame slot = mFrames.getWriteSlot();
+        if (frame.length != slot.data.length) {
+            Log.w(TAG, "Frame of " + frame.length + " bytes, expected " + slot.data.length + ", skipped.");
+            return;
+        }
+        System.arraycopy(frame, 0, slot.data, 0, slot.data.length);
+        slot.timestamp = timestamp;
+        if (mFrames.publish()) {
+            mDroppedFrames.incrementAndGet();
+        }
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * @return Frames replaced by newer ones before the tracker got to them
+     */
+    public int getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * @return Frames markers were detected in
+     */
+    public int getTrackedFrames() {
+        return mTrackedFrames.get();
+    }
+
+    /**
+     * Stop tracking and wait for the detection in progress to finish, before ARToolKit is cleaned
+     * up.
+     */
+    public void release() {
+        mStopped = true;
+        LockSupport.unpark(mThread);
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void track() {
+        // Above the background work, tracking latency is what users see.
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+
+        while (!mStopped) {
+            if (!mFrames.update()) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            if (mMetrics != null) {
+                mMetrics.begin(FrameMetrics.STAGE_TRACKING);
+            }
+            final Frame frame = mFrames.getReadSlot();
+            final boolean detected = ARToolKit.getInstance().convertAndDetect(frame.data);
+            final boolean changed = detected && mMarkers.update(frame.timestamp);
+            if (mMetrics != null) {
+                mMetrics.end(FrameMetrics.STAGE_TRACKING);
+            }
+
+            if (detected) {
+                mTrackedFrames.incrementAndGet();
+            }
+            if (changed) {
+                mListener.onPosesChanged();
+            }
+        }
+    }
+
+    /**
+     * A camera frame and when it arrived, on the {@link System#nanoTime()} clock.
+     */
+    private static final class Frame {
+        final byte[] data;
+        long timestamp;
+
+        Frame(int size) {
+            data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.denys.newvr.tracking;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest of a stream of values from one writer thread to one reader thread, without locks,
+ * waiting or allocation.
+ * <p>
+ * Three preallocated slots: the writer fills its back slot and publishes it by swapping it with the
+ * middle one, the reader takes the middle one by swapping it with its front slot. Each side owns
+ * its slot exclusively between swaps, and a swap is a single atomic exchange, so neither side ever
+ * waits for the other. When the writer publishes again before the reader took the last value, that
+ * value is dropped: the reader always gets the newest one.
+ */
+public class TripleBuffer<T> {
+
+    /** Set in the middle index while it holds a value the reader has not taken. */
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Object[] mSlots;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+
+    /** Owned by the writer and the reader. */
+    private int mBack = 0;
+    private int mFront = 2;
+
+    public TripleBuffer(T first, T second, T third) {
+        mSlots = new Object[]{first, second, third};
+    }
+
+    /**
+     * @return The slot the writer fills next. Writer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteSlot() {
+        return (T) mSlots[mBack];
+    }
+
+    /**
+     * Publish the filled write slot and take a new one. Writer thread only.
+     *
+     * @return True if the previous value was never taken by the reader and is now dropped
+     */
+    public boolean publish() {
+        final int middle = mMiddle.getAndSet(mBack | FRESH);
+        mBack = middle & INDEX;
+        return (middle & FRESH) != 0;
+    }
+
+    /**
+     * Take the newest published value into the read slot, if there is one. Reader thread only.
+     *
+     * @return True if the read slot now holds a new value
+     */
+    public boolean update() {
+        if ((mMiddle.get() & FRESH) == 0) {
+            return false;
+        }
+        mFront = mMiddle.getAndSet(mFront) & INDEX;
+        return true;
+    }
+
+    /**
+     * @return The value last taken by {@link #update()}. Reader thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T getReadSlot() {
+        return (T) mSlots[mFront];
+    }
+}
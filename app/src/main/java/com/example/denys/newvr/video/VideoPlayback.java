@@ -0,0 +1,103 @@
+package com.example.denys.newvr.video;
+
+import android.os.Build;
+
+import com.example.denys.newvr.gl.GlState;
+
+/**
+ * The video a renderer shows, as requested from any thread and as playing on the GL thread: a
+ * {@link VideoPlayer} decoding into a {@link VideoTexture}, started when asked for and stopped when
+ * the context goes, then continued where it got to.
+ */
+public class VideoPlayback {
+
+    /** The textures go behind this shadow's back. */
+    private final GlState mGlState;
+
+    /** Asks for a frame when the decoder queued a new one. */
+    private final Runnable mFrameRequester;
+
+    /** Video to play, as requested and as playing, null for none. */
+    private volatile String mVideoRequested;
+    private String mVideo;
+
+    /** Where the video is decoded to, and the decoder, null while not playing. */
+    private VideoTexture mVideoTexture;
+    private VideoPlayer mVideoPlayer;
+
+    /** Where the video continues after the player was stopped. */
+    private long mVideoPositionUs;
+
+    /**
+     * @param frameRequester Asks for a frame, run on the decoder's thread for each new frame
+     */
+    public VideoPlayback(GlState glState, Runnable frameRequester) {
+        mGlState = glState;
+        mFrameRequester = frameRequester;
+    }
+
+    /**
+     * Play a video, or pass null to stop. Takes effect on the next {@link #update()}. Needs API 16.
+     *
+     * @param path A file path or URL of the video
+     */
+    public void setVideo(String path) {
+        if (path != null && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            throw new UnsupportedOperationException("Video playback needs API 16.");
+        }
+        mVideoRequested = path;
+    }
+
+    /**
+     * @return Whether a video is to be shown, even while it is stopped for a new context. GL
+     *         thread only.
+     */
+    public boolean hasVideo() {
+        return mVideo != null;
+    }
+
+    /**
+     * Start, restart or stop the video as requested. Starting never waits for the decoder. GL
+     * thread only.
+     *
+     * @return The video texture, null while there is no video
+     */
+    public VideoTexture update() {
+        final String video = mVideoRequested;
+        if (video == null ? mVideo != null : !video.equals(mVideo)) {
+            stop(true);
+            mVideo = video;
+            mVideoPositionUs = 0;
+        }
+        if (mVideo != null && mVideoTexture == null) {
+            mVideoTexture = new VideoTexture(mFrameRequester);
+            mVideoPlayer = new VideoPlayer(mVideo, mVideoTexture.getSurface(), mVideoPositionUs);
+            mVideoPlayer.start();
+        }
+        return mVideoTexture;
+    }
+
+    /**
+     * Stop the player, remembering where it got to, and let go of the video texture. The next
+     * {@link #update()} starts it again.
+     *
+     * @param delete Whether the texture's context is current, to delete the texture in
+     */
+    public void stop(boolean delete) {
+        if (mVideoPlayer != null) {
+            mVideoPlayer.release();
+            mVideoPositionUs = mVideoPlayer.getPositionUs();
+            mVideoPlayer = null;
+        }
+        if (mVideoTexture != null) {
+            // The texture may still be bound, and its name given out again.
+            mGlState.invalidateTextures();
+            if (delete) {
+                mVideoTexture.release();
+            } else {
+                mVideoTexture.invalidate();
+            }
+            mVideoTexture = null;
+        }
+    }
+}
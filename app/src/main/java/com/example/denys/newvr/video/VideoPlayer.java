@@ -0,0 +1,376 @@
+package com.example.denys.newvr.video;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Plays a video file into a {@link Surface}, usually the one of a {@link VideoTexture}, with its
+ * audio track if it has one.
+ * <p>
+ * Video is decoded by {@link MediaCodec} straight into the surface: frames never pass through Java
+ * memory. Each decoded frame is released to the surface when its presentation time comes up on
+ * the playback clock, which follows the audio position while audio plays, so picture and sound
+ * stay in sync, and the system clock otherwise. From API 21 frames are released a little ahead
+ * with their display time attached, so they land on the right vsync; frames that are already too
+ * late are dropped instead of shown. Video and audio each run on their own thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class VideoPlayer {
+
+    private static final String TAG = "VideoPlayer";
+
+    /** How long codec calls wait for a buffer. */
+    private static final long TIMEOUT_US = 10000;
+
+    /** Frames later than this are dropped rather than shown. */
+    private static final long DROP_LATE_US = 40000;
+
+    /** From API 21, frames are handed over this far ahead of their time, with the time attached. */
+    private static final long SCHEDULE_AHEAD_US = 30000;
+
+    private final String mPath;
+    private final Surface mSurface;
+    private final long mStartUs;
+    private final Clock mClock = new Clock();
+
+    private volatile boolean mStopped;
+    private volatile long mPositionUs;
+
+    private Thread mVideoThread;
+    private Thread mAudioThread;
+
+    /**
+     * @param path    A file path or URL {@link MediaExtractor} can read
+     * @param surface Where frames are rendered
+     * @param startUs Where to start playing, in microseconds
+     */
+    public VideoPlayer(String path, Surface surface, long startUs) {
+        mPath = path;
+        mSurface = surface;
+        mStartUs = startUs;
+        mPositionUs = startUs;
+    }
+
+    /**
+     * Start decoding and playing on background threads.
+     */
+    public void start() {
+        mVideoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    playVideo();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error playing video " + mPath, e);
+                }
+            }
+        }, "video-decode");
+        mAudioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    playAudio();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error playing audio of " + mPath + ", continuing without.", e);
+                }
+            }
+        }, "audio-decode");
+        mVideoThread.start();
+        mAudioThread.start();
+    }
+
+    /**
+     * Stop playing and wait for the decoders to be released. The surface can be released after.
+     */
+    public void release() {
+        mStopped = true;
+        try {
+            if (mVideoThread != null) {
+                mVideoThread.join();
+            }
+            if (mAudioThread != null) {
+                mAudioThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Presentation time of the last frame shown, to start from again later
+     */
+    public long getPositionUs() {
+        return mPositionUs;
+    }
+
+    private void playVideo() throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(mPath);
+            final int track = selectTrack(extractor, "video/");
+            if (track < 0) {
+                throw new IOException("No video track in " + mPath);
+            }
+            extractor.seekTo(mStartUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+            final MediaFormat format = extractor.getTrackFormat(track);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, mSurface, null, 0);
+            codec.start();
+
+            final ByteBuffer[] inputs = codec.getInputBuffers();
+            final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while (!mStopped) {
+                if (!inputDone) {
+                    inputDone = queueInput(extractor, codec, inputs);
+                }
+
+                final int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (index < 0) {
+                    continue;
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    codec.releaseOutputBuffer(index, false);
+                    break;
+                }
+                present(codec, index, info.presentationTimeUs);
+            }
+        } finally {
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Wait until a frame is due on the clock, then render it, or drop it if it is too late.
+     */
+    private void present(MediaCodec codec, int index, long presentationUs) {
+        final long ahead = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? SCHEDULE_AHEAD_US : 0;
+        long nowUs;
+        while ((nowUs = mClock.nowUs()) < 0 || presentationUs - nowUs > ahead) {
+            if (mStopped) {
+                codec.releaseOutputBuffer(index, false);
+                return;
+            }
+            final long waitUs = nowUs < 0 ? TIMEOUT_US : Math.min(TIMEOUT_US, presentationUs - nowUs - ahead);
+            try {
+                Thread.sleep(Math.max(1, waitUs / 1000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                codec.releaseOutputBuffer(index, false);
+                mStopped = true;
+                return;
+            }
+        }
+
+        if (nowUs - presentationUs > DROP_LATE_US) {
+            codec.releaseOutputBuffer(index, false);
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Api21.releaseOutputBuffer(codec, index, System.nanoTime() + (presentationUs - nowUs) * 1000);
+        } else {
+            codec.releaseOutputBuffer(index, true);
+        }
+        mPositionUs = presentationUs;
+    }
+
+    private void playAudio() throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        AudioTrack audioTrack = null;
+        try {
+            extractor.setDataSource(mPath);
+            final int track = selectTrack(extractor, "audio/");
+            if (track < 0) {
+                return;
+            }
+            extractor.seekTo(mStartUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+            final MediaFormat format = extractor.getTrackFormat(track);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            final ByteBuffer[] inputs = codec.getInputBuffers();
+            ByteBuffer[] outputs = codec.getOutputBuffers();
+            final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            byte[] chunk = new byte[0];
+            boolean inputDone = false;
+            while (!mStopped) {
+                if (!inputDone) {
+                    inputDone = queueInput(extractor, codec, inputs);
+                }
+
+                final int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputs = codec.getOutputBuffers();
+                    continue;
+                }
+                if (index < 0) {
+                    continue;
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    codec.releaseOutputBuffer(index, false);
+                    break;
+                }
+
+                // Samples before the start position come from seeking to a sync point, skip them.
+                if (info.size > 0 && info.presentationTimeUs >= mStartUs) {
+                    if (audioTrack == null) {
+                        final MediaFormat outputFormat = codec.getOutputFormat();
+                        audioTrack = createAudioTrack(outputFormat);
+                        audioTrack.play();
+                        mClock.followAudio(audioTrack, outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                                info.presentationTimeUs);
+                    }
+
+                    final ByteBuffer output = outputs[index];
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    if (chunk.length < info.size) {
+                        chunk = new byte[info.size];
+                    }
+                    output.get(chunk, 0, info.size);
+                    // Blocks while the track's buffer is full, which paces decoding to playback.
+                    audioTrack.write(chunk, 0, info.size);
+                }
+                codec.releaseOutputBuffer(index, false);
+            }
+        } finally {
+            // Video carries on with the system clock from wherever the audio stopped, or without
+            // audio at all. Handed over before the track the clock reads goes away.
+            mClock.followSystem(mStartUs);
+            if (audioTrack != null) {
+                audioTrack.stop();
+                audioTrack.release();
+            }
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static AudioTrack createAudioTrack(MediaFormat format) throws IOException {
+        final int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        final int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        if (channels > 2) {
+            throw new IOException("Unsupported channel count " + channels);
+        }
+
+        final int channelConfig = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        final int bufferSize = 2 * AudioTrack.getMinBufferSize(sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        return new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, bufferSize, AudioTrack.MODE_STREAM);
+    }
+
+    /**
+     * Select the first track whose MIME type starts with the prefix.
+     *
+     * @return The track index, -1 if there is none
+     */
+    private static int selectTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            final String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) {
+                extractor.selectTrack(i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Feed the next sample to the codec, if it has an input buffer free.
+     *
+     * @return True once the end of stream was queued
+     */
+    private static boolean queueInput(MediaExtractor extractor, MediaCodec codec, ByteBuffer[] inputs) {
+        final int index = codec.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return false;
+        }
+
+        final int size = extractor.readSampleData(inputs[index], 0);
+        if (size < 0) {
+            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
+        }
+        codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+        extractor.advance();
+        return false;
+    }
+
+    /**
+     * Playback time in microseconds, taken from the audio track's position while audio plays and
+     * from the system clock otherwise. Not started until audio starts or turns out to be missing.
+     */
+    private static final class Clock {
+
+        private AudioTrack mAudioTrack;
+        private int mSampleRate;
+        private long mBaseUs = -1;
+        private long mBaseNanos;
+
+        synchronized void followAudio(AudioTrack audioTrack, int sampleRate, long baseUs) {
+            mAudioTrack = audioTrack;
+            mSampleRate = sampleRate;
+            mBaseUs = baseUs;
+        }
+
+        /**
+         * Continue from the current time on the system clock, or start at {@code startUs} if the
+         * clock wasn't started.
+         */
+        synchronized void followSystem(long startUs) {
+            final long nowUs = nowUs();
+            mAudioTrack = null;
+            mBaseUs = nowUs >= 0 ? nowUs : startUs;
+            mBaseNanos = System.nanoTime();
+        }
+
+        /**
+         * @return The playback time, -1 before the clock started
+         */
+        synchronized long nowUs() {
+            if (mBaseUs < 0) {
+                return -1;
+            }
+            if (mAudioTrack != null) {
+                final long frames = mAudioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+                return mBaseUs + frames * 1000000L / mSampleRate;
+            }
+            return mBaseUs + (System.nanoTime() - mBaseNanos) / 1000;
+        }
+    }
+
+    /**
+     * Keeps the reference to the API 21 method out of classes loaded on older platforms.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static class Api21 {
+
+        static void releaseOutputBuffer(MediaCodec codec, int index, long renderNanos) {
+            codec.releaseOutputBuffer(index, renderNanos);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.denys.newvr.video;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.view.Surface;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An external texture fed through a {@link SurfaceTexture}, so a video decoder can write frames
+ * straight into GPU memory and shaders sample them as {@code samplerExternalOES}, without a copy
+ * through the CPU.
+ * <p>
+ * Created, updated and released on the GL thread. The decoder renders into {@link #getSurface()}
+ * from its own thread, and each new frame calls the listener so a frame can be drawn.
+ */
+public class VideoTexture implements SurfaceTexture.OnFrameAvailableListener {
+
+    private final int mTextureHandle;
+    private final SurfaceTexture mSurfaceTexture;
+    private final Surface mSurface;
+    private final Runnable mOnFrameAvailable;
+
+    /** Maps frame coordinates, origin bottom left, into the texture. */
+    private final float[] mTransform = new float[16];
+
+    private final AtomicBoolean mFrameAvailable = new AtomicBoolean();
+    private boolean mHasFrame;
+
+    /**
+     * @param onFrameAvailable Called from any thread when the decoder queued a new frame
+     */
+    public VideoTexture(Runnable onFrameAvailable) {
+        final int[] textureHandle = new int[1];
+        GLES20.glGenTextures(1, textureHandle, 0);
+        if (textureHandle[0] == 0) {
+            throw new RuntimeException("Error creating video texture.");
+        }
+        mTextureHandle = textureHandle[0];
+
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureHandle);
+        // External textures only allow clamping, linear filtering smooths the frame being scaled.
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        mOnFrameAvailable = onFrameAvailable;
+        mSurfaceTexture = new SurfaceTexture(mTextureHandle);
+        mSurfaceTexture.setOnFrameAvailableListener(this);
+        mSurface = new Surface(mSurfaceTexture);
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        mFrameAvailable.set(true);
+        mOnFrameAvailable.run();
+    }
+
+    /**
+     * @return Where the decoder renders frames to
+     */
+    public Surface getSurface() {
+        return mSurface;
+    }
+
+    /**
+     * Latch the newest frame the decoder queued, if any.
+     *
+     * @return True once there is a frame to draw
+     */
+    public boolean update() {
+        if (mFrameAvailable.getAndSet(false)) {
+            mSurfaceTexture.updateTexImage();
+            mSurfaceTexture.getTransformMatrix(mTransform);
+            mHasFrame = true;
+        }
+        return mHasFrame;
+    }
+
+    /**
+     * @return The texture to bind to GL_TEXTURE_EXTERNAL_OES
+     */
+    public int getTextureHandle() {
+        return mTextureHandle;
+    }
+
+    /**
+     * @return The transform of the latched frame, for {@code u_TexTransform}
+     */
+    public float[] getTransform() {
+        return mTransform;
+    }
+
+    /**
+     * @return Presentation time of the latched frame in nanoseconds
+     */
+    public long getTimestamp() {
+        return mSurfaceTexture.getTimestamp();
+    }
+
+    /**
+     * Delete the texture and the surface. Stop the decoder first.
+     */
+    public void release() {
+        GLES20.glDeleteTextures(1, new int[]{mTextureHandle}, 0);
+        invalidate();
+    }
+
+    /**
+     * Release the surface without deleting the texture, because the context owning it is gone.
+     */
+    public void invalidate() {
+        mSurface.release();
+        mSurfaceTexture.release();
+    }
+}
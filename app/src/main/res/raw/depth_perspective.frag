@@ -1,80 +1,79 @@
 // Copyright (c) 2014 Rafał Lindemann. http://panrafal.github.com/depthy
+
+// VIDEO samples color and depth from one external texture, fed by a video decoder: each frame
+// holds color in its top half and depth in its bottom half.
+#ifdef VIDEO
+  #extension GL_OES_EGL_image_external : require
+  #undef PACKED
+  #undef EMPTYSKIP
+#endif
+
 precision mediump float;
 
-#define QUALITY 3
+// The renderer injects QUALITY to build every preset, 3 is the default.
+#ifndef QUALITY
+  #define QUALITY 3
+#endif
 
 varying vec2 v_TexCoordinate;
 // UNUSED varying vec4 vColor;
+#if defined(VIDEO)
+uniform samplerExternalOES u_Texture;
+// The SurfaceTexture transform, from frame coordinates with the origin bottom left to the texture.
+uniform mat4 u_TexTransform;
+
+// Frame coordinates of a point of the top (base 0.5) or bottom (base 0.0) image, clamped half a
+// texel or so short of the seam so filtering never mixes color and depth.
+vec2 videoCoordinate(vec2 p, float base) {
+  float t = clamp(1.0 - p.y, 0.004, 0.996) * 0.5 + base;
+  return (u_TexTransform * vec4(p.x, t, 0.0, 1.0)).xy;
+}
+  #define COLOR(p) texture2D(u_Texture, videoCoordinate(p, 0.5))
+  #define DEPTH(p) texture2D(u_Texture, videoCoordinate(p, 0.0)).r
+#elif defined(PACKED)
+// Depth lives in the alpha of u_Texture, stored flipped so it lines up with the color.
+uniform sampler2D u_Texture;
+  #define COLOR(p) texture2D(u_Texture, p)
+#else
 uniform sampler2D u_Depth;
 uniform sampler2D u_Texture;
+  #define COLOR(p) texture2D(u_Texture, p)
+  #define DEPTH(p) texture2D(u_Depth, (p) * vec2(1, -1) + vec2(0, 1)).r
+#endif
 // DEFAULT TO 1;1 uniform vec4 dimensions;
 // UNUSED uniform vec2 mapDimensions;
 uniform float scale;
 uniform vec2 offset;
 uniform float focus;
 
-#if !defined(QUALITY)
-
-  #define METHOD 1
-  #define CORRECT
-//     #define COLORAVG
-  #define ENLARGE 1.5
-  #define ANTIALIAS 1
-  #define AA_TRIGGER 0.8
-  #define AA_POWER 1.0
-  #define AA_MAXITER 8.0
-  #define MAXSTEPS 16.0
-  #define CONFIDENCE_MAX 2.5
-
-#elif QUALITY == 2
-
-  #define METHOD 1
-  #define CORRECT
-//     #define COLORAVG
-  #define MAXSTEPS 4.0
-  #define ENLARGE 0.8
-//   #define ANTIALIAS 2
-  #define CONFIDENCE_MAX 2.5
-
-#elif QUALITY == 3
-
-  #define METHOD 1
-  #define CORRECT
-//     #define COLORAVG
-  #define MAXSTEPS 6.0
-  #define ENLARGE 1.0
-  #define ANTIALIAS 2
-  #define CONFIDENCE_MAX 2.5
-
-#elif QUALITY == 4
-
-  #define METHOD 1
-  #define CORRECT
-//     #define COLORAVG
-  #define MAXSTEPS 16.0
-  #define ENLARGE 1.5
-  #define ANTIALIAS 2
-  #define CONFIDENCE_MAX 2.5
-
-#elif QUALITY == 5
+#ifdef EMPTYSKIP
+// Max of (1 - depth) over blocks of SKIP_BLOCK texels, dilated by one block.
+uniform sampler2D u_DepthMax;
+// Size of u_Depth in texels.
+uniform vec2 u_DepthSize;
+// Maps depth coordinates onto u_DepthMax, whose blocks may overhang the depth map.
+uniform vec2 u_DepthMaxScale;
+#endif
 
-  #define METHOD 1
-  #define CORRECT
-  #define COLORAVG
-  #define MAXSTEPS 40.0
-  #define ENLARGE 1.5
-//     #define ANTIALIAS 2
-  #define AA_TRIGGER 0.8
-  #define AA_POWER 1.0
-  #define AA_MAXITER 8.0
-  #define CONFIDENCE_MAX 4.5
+#include "depth_quality.glsl"
 
+// Defines injected by the renderer win over the preset, ANTIALIAS 0 turns antialiasing off.
+#if !defined(METHOD) && defined(PRESET_METHOD)
+  #define METHOD PRESET_METHOD
+#endif
+#if !defined(ANTIALIAS) && defined(PRESET_ANTIALIAS)
+  #define ANTIALIAS PRESET_ANTIALIAS
+#endif
+#if defined(ANTIALIAS) && ANTIALIAS == 0
+  #undef ANTIALIAS
 #endif
 
 
 #define BRANCHLOOP
 #define BRANCHSAMPLE
-#define DEBUG 0
+#ifndef DEBUG
+  #define DEBUG 0
+#endif
 // #define DEBUGBREAK 2
 
 #ifndef METHOD
@@ -98,6 +97,20 @@ uniform float focus;
 #ifndef COMPRESSION
   #define COMPRESSION 0.8
 #endif
+#ifndef SKIP_BLOCK
+  #define SKIP_BLOCK 8.0
+#endif
+
+// Skipping empty space is exact only when a sample without a hit contributes nothing and
+// advances the ray by one step.
+#if defined(EMPTYSKIP) && (METHOD != 1 || !defined(BRANCHLOOP))
+  #undef EMPTYSKIP
+#endif
+#if defined(EMPTYSKIP) && defined(ANTIALIAS)
+  #if ANTIALIAS == 11 || ANTIALIAS == 12
+    #undef EMPTYSKIP
+  #endif
+#endif
 
 const float perspective = PERSPECTIVE;
 const float upscale = UPSCALE;
@@ -168,13 +181,45 @@ void main(void) {
   #endif
 
 
+  #ifdef EMPTYSKIP
+    // Steps one fetch of u_DepthMax can vouch for, limited by how far the ray moves in texels.
+    vec2 vstepTexels = abs(vstep * u_DepthSize);
+    float skipReach = floor((SKIP_BLOCK - 0.001) / max(max(vstepTexels.x, vstepTexels.y), 0.0001)) + 1.0;
+
+    // The loop counter can't be modified in GLSL ES, so i is the counter plus the skipped steps.
+    float skipped = 0.0;
+  for(float n = 0.0; n < MAXSTEPS; ++n) {
+    float i = n + skipped;
+    if (i >= MAXSTEPS) break;
+  #else
   for(float i = 0.0; i < MAXSTEPS; ++i) {
+  #endif
     vec2 vpos = pos + vector[1] - LOOP_INDEX * vstep;
     float dpos = 0.5 + compression / 2.0 - LOOP_INDEX * dstep;
+    #ifdef EMPTYSKIP
+    // Past the cutoff or at full confidence nothing changes anymore.
+    if (dpos < vectorCutoff || confidenceSum >= CONFIDENCE_MAX) break;
+
+    float maxDepth = clamp(texture2D(u_DepthMax, (vpos * vec2(1, -1) + vec2(0, 1)) * u_DepthMaxScale).r, dmin, dmax);
+    // Steps whose ray depth stays above everything in reach can't hit.
+    float skip = min(skipReach, ceil((dpos - maxDepth - 0.001 - 1.0 / 512.0) / dstep));
+    if (skip >= 1.0) {
+      skipped += skip - 1.0;
+      #ifdef ANTIALIAS
+        j += skip;
+      #endif
+      continue;
+    }
+    #endif
     #ifdef BRANCHLOOP
     if (dpos >= vectorCutoff && confidenceSum < CONFIDENCE_MAX) {
     #endif
-      float depth = 1.0 - texture2D(u_Depth, vpos * vec2(1, -1) + vec2(0, 1)).r;
+      #ifdef PACKED
+        vec4 packedSample = texture2D(u_Texture, vpos);
+        float depth = 1.0 - packedSample.a;
+      #else
+        float depth = 1.0 - DEPTH(vpos);
+      #endif
       depth = clamp(depth, dmin, dmax);
       float confidence;
 
@@ -237,8 +282,11 @@ void main(void) {
           #define CORRECTION_MATH
         #endif
 
-        #ifdef COLORAVG
-          colSum += texture2D(u_Texture, vpos CORRECTION_MATH) * confidence;
+        #if defined(COLORAVG) && defined(PACKED) && !defined(CORRECT)
+          // Uncorrected color comes from the very texel the depth was read from.
+          colSum += vec4(packedSample.rgb, 1.0) * confidence;
+        #elif defined(COLORAVG)
+          colSum += COLOR(vpos CORRECTION_MATH) * confidence;
         #else
           posSum += (vpos CORRECTION_MATH) * confidence;
         #endif
@@ -267,10 +315,15 @@ void main(void) {
     #endif
   };
 
-  #if defined(COLORAVG) && DEBUG == 0
+  // Packed alpha holds depth, the output stays opaque like the plain color texture.
+  #if defined(COLORAVG) && DEBUG == 0 && defined(PACKED)
+    gl_FragColor = vec4(colSum.rgb / confidenceSum, 1.0);
+  #elif defined(COLORAVG) && DEBUG == 0
     gl_FragColor = colSum / vec4(confidenceSum);
+  #elif !defined(COLORAVG) && DEBUG == 0 && defined(PACKED)
+    gl_FragColor = vec4(texture2D(u_Texture, posSum / confidenceSum).rgb, 1.0);
   #elif !defined(COLORAVG) && DEBUG == 0
-    gl_FragColor = texture2D(u_Texture, posSum / confidenceSum);
+    gl_FragColor = COLOR(posSum / confidenceSum);
   #endif
 
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+// QUALITY presets of depth_perspective.frag.
+// METHOD and ANTIALIAS are set as PRESET_ defaults, so a renderer can inject its own.
+
+#if !defined(QUALITY)
+
+  #define PRESET_METHOD 1
+  #define CORRECT
+//     #define COLORAVG
+  #define ENLARGE 1.5
+  #define PRESET_ANTIALIAS 1
+  #define AA_TRIGGER 0.8
+  #define AA_POWER 1.0
+  #define AA_MAXITER 8.0
+  #define MAXSTEPS 16.0
+  #define CONFIDENCE_MAX 2.5
+
+#elif QUALITY == 2
+
+  #define PRESET_METHOD 1
+  #define CORRECT
+//     #define COLORAVG
+  #define MAXSTEPS 4.0
+  #define ENLARGE 0.8
+//   #define PRESET_ANTIALIAS 2
+  #define CONFIDENCE_MAX 2.5
+
+#elif QUALITY == 3
+
+  #define PRESET_METHOD 1
+  #define CORRECT
+//     #define COLORAVG
+  #define MAXSTEPS 6.0
+  #define ENLARGE 1.0
+  #define PRESET_ANTIALIAS 2
+  #define CONFIDENCE_MAX 2.5
+
+#elif QUALITY == 4
+
+  #define PRESET_METHOD 1
+  #define CORRECT
+//     #define COLORAVG
+  #define MAXSTEPS 16.0
+  #define ENLARGE 1.5
+  #define PRESET_ANTIALIAS 2
+  #define CONFIDENCE_MAX 2.5
+
+#elif QUALITY == 5
+
+  #define PRESET_METHOD 1
+  #define CORRECT
+  #define COLORAVG
+  #define MAXSTEPS 40.0
+  #define ENLARGE 1.5
+//     #define PRESET_ANTIALIAS 2
+  #define AA_TRIGGER 0.8
+  #define AA_POWER 1.0
+  #define AA_MAXITER 8.0
+  #define CONFIDENCE_MAX 4.5
+
+#endif
@@ -2,9 +2,25 @@ precision mediump float;        // Set the default precision to medium. We don't
                                 // precision in the fragment shader.
 uniform sampler2D u_Texture;    // The input texture.
 
+#ifdef DISTORT
+uniform vec2 u_Distortion;      // Radial coefficients k1 and k2 of the viewer lenses.
+uniform float u_EyeAspect;      // Width over height of one eye's half of the texture.
+#endif
+
 varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment.
 
 void main()                     // The entry point for our fragment shader.
 {
+#ifdef DISTORT
+    // Each half of the texture is one eye. Barrel distort around its centre, so the pincushion
+    // of the lens straightens it again; what falls outside the eye's half stays transparent.
+    vec2 center = vec2(v_TexCoordinate.x < 0.5 ? 0.25 : 0.75, 0.5);
+    vec2 p = (v_TexCoordinate - center) * vec2(4.0 * u_EyeAspect, 2.0);
+    float r2 = dot(p, p);
+    vec2 uv = center + (v_TexCoordinate - center) * (1.0 + r2 * (u_Distortion.x + r2 * u_Distortion.y));
+    float inside = step(abs(uv.x - center.x), 0.25) * step(abs(uv.y - 0.5), 0.5);
+    gl_FragColor = texture2D(u_Texture, uv) * inside;
+#else
     gl_FragColor = texture2D(u_Texture, v_TexCoordinate);
-}    
+#endif
+}
@@ -1,5 +1,6 @@
 attribute vec4 a_Position;		// Per-vertex position information we will pass in.
 attribute vec2 a_TexCoordinate; // Per-vertex texture coordinate information we will pass in.
+uniform mat4 u_MVPMatrix;       // Places the quad, identity to fill the viewport.
 
 varying vec2 v_TexCoordinate;   // This will be passed into the fragment shader.
 
@@ -8,5 +9,5 @@ void main()                         // The entry point for our vertex shader.
     // Pass through the texture coordinate.
     v_TexCoordinate = a_TexCoordinate;
 
-    gl_Position = a_Position;
+    gl_Position = u_MVPMatrix * a_Position;
 }
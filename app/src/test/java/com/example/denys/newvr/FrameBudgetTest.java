@@ -0,0 +1,268 @@
+package com.example.denys.newvr;
+
+import android.opengl.GLES20;
+
+import com.example.denys.newvr.gl.GlState;
+import com.example.denys.newvr.gl.RecordingGl;
+import com.example.denys.newvr.shader.DepthPerspectiveBinding;
+import com.example.denys.newvr.tracking.MarkerSet;
+
+import org.artoolkit.ar.base.rendering.Cube;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Draws frames with the passes the renderers draw with, {@link MarkerCubes} and
+ * {@link ParallaxPass}, against a {@link RecordingGl}, and checks what a frame costs once
+ * everything is uploaded: how many GL calls, how many draw calls, no location lookups and no
+ * allocation.
+ * <p>
+ * Each frame starts like ARRendererGLES20.draw(), which draws with its own program straight to GL,
+ * followed by what the renderers do after it. The renderers themselves can't run here, ARToolKit's
+ * base classes and the Android resources they load call into the platform.
+ */
+public class FrameBudgetTest {
+
+    /**
+     * Calls of a cube frame: the program, two matrices, streaming the batch, its two attributes
+     * enabled again after the base renderer and one draw.
+     */
+    private static final int CUBE_FRAME_CALLS = 13;
+
+    /**
+     * Calls of a quad frame: the program, four uniforms, two texture units, the mesh with its two
+     * attributes enabled again after the base renderer and one draw.
+     */
+    private static final int QUAD_FRAME_CALLS = 18;
+
+    /**
+     * Calls of a distorted stereo quad frame: clearing the render target, the quad per eye into
+     * its halves, and the target copied onto the surface with blending.
+     */
+    private static final int STEREO_FRAME_CALLS = 46;
+
+    private static final int BASE_PROGRAM = 1;
+    private static final int CUBE_PROGRAM = 2;
+    private static final int PARALLAX_PROGRAM = 3;
+    private static final int BLIT_PROGRAM = 4;
+    private static final int DISTORT_PROGRAM = 5;
+    private static final int MARKERS = 16;
+    private static final int COLOR_TEXTURE = 7;
+    private static final int DEPTH_TEXTURE = 8;
+
+    private static final float[] CLEAR_COLOR = {0.0f, 0.0f, 1.0f, 0.0f};
+
+    /** Indices of the ARToolKit cube. */
+    private static final int CUBE_INDICES = 36;
+
+    private RecordingGl gl;
+    private GlState glState;
+    private MarkerCubes cubes;
+    private ParallaxPass parallax;
+    private DepthPerspectiveBinding binding;
+    private float[] poses;
+    private int[] markers;
+    private long detected;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGl();
+        glState = new GlState(gl);
+
+        cubes = new MarkerCubes(glState, new Cube(40.0f, 0.0f, 0.0f, 20.0f), MARKERS);
+        cubes.onSurfaceCreated(CUBE_PROGRAM);
+
+        parallax = new ParallaxPass(glState);
+        parallax.onSurfaceCreated(BLIT_PROGRAM);
+        parallax.setSurfaceSize(1920, 1080);
+        parallax.setDistortProgram(DISTORT_PROGRAM);
+        binding = new DepthPerspectiveBinding();
+        binding.bind(gl, PARALLAX_PROGRAM);
+
+        poses = new float[MARKERS * MarkerSet.POSE_SIZE];
+        markers = new int[MARKERS];
+        for (int i = 0; i < MARKERS; i++) {
+            System.arraycopy(ParallaxPass.IDENTITY, 0, poses, i * MarkerSet.POSE_SIZE, MarkerSet.POSE_SIZE);
+            poses[i * MarkerSet.POSE_SIZE + 12] = i * 80.0f;
+            markers[i] = i;
+        }
+    }
+
+    /** What ARRendererGLES20.draw() does before ours, and what the renderers do after it. */
+    private void drawBase() {
+        gl.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+        gl.glUseProgram(BASE_PROGRAM);
+        gl.glEnableVertexAttribArray(0);
+        glState.invalidateProgram();
+    }
+
+    private void drawCubes(int count) {
+        detected += 33000000L;
+        cubes.draw(poses, markers, 0, count, detected, detected + 16000000L, ParallaxPass.IDENTITY);
+    }
+
+    private void drawQuad(boolean stereo) {
+        parallax.begin(1.0f, stereo, 0.3f, stereo ? 0.2f : 0.0f, 0.0f, CLEAR_COLOR);
+        parallax.bindProgram(PARALLAX_PROGRAM, binding, ParallaxPass.IDENTITY, 0.5f, 0.5f, 0.0f);
+        parallax.bindPhoto(COLOR_TEXTURE, DEPTH_TEXTURE, 0, 0.0f, 0.0f, 0.0f, 0.0f);
+        parallax.draw();
+    }
+
+    @Test
+    public void locationsAreLookedUpOnlyWhenBound() {
+        gl.clear();
+        cubes.onSurfaceCreated(CUBE_PROGRAM);
+        assertEquals(4, gl.countLookups());
+
+        gl.clear();
+        for (int frame = 0; frame < 10; frame++) {
+            drawBase();
+            drawCubes(MARKERS);
+            drawQuad(frame % 2 == 0);
+        }
+        assertEquals(0, gl.countLookups());
+    }
+
+    @Test
+    public void cubeFrameStaysInBudget() {
+        drawBase();
+        drawCubes(MARKERS);
+
+        for (int count = MARKERS; count > 0; count--) {
+            drawBase();
+            gl.clear();
+            drawCubes(count);
+            assertTrue("calls " + gl.getCallCount(), gl.getCallCount() <= CUBE_FRAME_CALLS);
+            assertEquals(1, gl.count("glDrawElements"));
+            assertEquals(count * CUBE_INDICES, gl.getArgument(indexOf("glDrawElements"), 1));
+        }
+
+        // No visible marker, nothing to draw.
+        drawBase();
+        gl.clear();
+        drawCubes(0);
+        assertEquals(0, gl.getCallCount());
+    }
+
+    @Test
+    public void quadFrameStaysInBudget() {
+        drawBase();
+        drawQuad(false);
+
+        drawBase();
+        gl.clear();
+        drawQuad(false);
+        assertTrue("calls " + gl.getCallCount(), gl.getCallCount() <= QUAD_FRAME_CALLS);
+        assertEquals(1, gl.count("glDrawElements"));
+        assertEquals(0, gl.count("glBindTexture"));
+    }
+
+    @Test
+    public void stereoFrameStaysInBudget() {
+        drawBase();
+        drawQuad(true);
+
+        drawBase();
+        gl.clear();
+        drawQuad(true);
+        assertTrue("calls " + gl.getCallCount(), gl.getCallCount() <= STEREO_FRAME_CALLS);
+
+        // One quad per eye into the target, and the target onto the surface.
+        assertEquals(3, gl.count("glDrawElements"));
+        assertEquals(DISTORT_PROGRAM, lastProgram());
+        assertEquals(0, gl.count("glGenFramebuffers") + gl.count("glDeleteFramebuffers"));
+    }
+
+    @Test
+    public void programIsBoundAgainEachFrame() {
+        for (int frame = 0; frame < 3; frame++) {
+            drawBase();
+            gl.clear();
+            drawCubes(MARKERS);
+            assertEquals("frame " + frame, CUBE_PROGRAM, lastProgram());
+
+            drawBase();
+            gl.clear();
+            drawQuad(false);
+            assertEquals("frame " + frame, PARALLAX_PROGRAM, lastProgram());
+        }
+    }
+
+    @Test
+    public void unchangedStateIsNotSetAgain() {
+        drawBase();
+        drawCubes(MARKERS);
+        drawQuad(false);
+
+        // Only the program and attributes the base renderer took over are set again.
+        drawBase();
+        gl.clear();
+        drawCubes(MARKERS);
+        drawQuad(false);
+        assertEquals(0, gl.count("glEnable") + gl.count("glFrontFace") + gl.count("glBindTexture"));
+        assertEquals(2, gl.count("glUseProgram"));
+
+        // Until the shadow is told the context is new.
+        gl.clear();
+        glState.invalidate();
+        drawCubes(MARKERS);
+        assertEquals(2, gl.count("glEnable"));
+        assertEquals(1, gl.count("glUseProgram"));
+    }
+
+    @Test
+    public void framesDoNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        final long thread = Thread.currentThread().getId();
+
+        // Warm up, so class loading and compilation don't count.
+        for (int frame = 0; frame < 20000; frame++) {
+            gl.clear();
+            drawBase();
+            drawCubes(1 + frame % MARKERS);
+            drawQuad(true);
+        }
+
+        final long before = allocations.getThreadAllocatedBytes(thread);
+        for (int frame = 0; frame < 10000; frame++) {
+            gl.clear();
+            drawBase();
+            drawCubes(1 + frame % MARKERS);
+            drawQuad(true);
+        }
+        final long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        // Reading the counter itself may take a few bytes.
+        assertTrue("allocated " + allocated, allocated < 1024);
+    }
+
+    /** The program the recorder last saw made current. */
+    private int lastProgram() {
+        int program = 0;
+        for (int i = 0; i < gl.getCallCount(); i++) {
+            if (gl.getCall(i).equals("glUseProgram")) {
+                program = gl.getArgument(i, 0);
+            }
+        }
+        return program;
+    }
+
+    private int indexOf(String call) {
+        for (int i = 0; i < gl.getCallCount(); i++) {
+            if (gl.getCall(i).equals(call)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the state shadow against a {@link RecordingGl} over frames that share the context with
+ * ARToolKit's base renderer, which draws with its own program before each frame, and what a
+ * {@link CountingGl} behind it counts.
+ */
+public class GlStateTest {
+
+    private static final int BASE_PROGRAM = 1;
+    private static final int PROGRAM = 2;
+    private static final int POSITION = 0;
+
+    private final RecordingGl gl = new RecordingGl();
+    private final GlState glState = new GlState(gl);
+
+    /** What ARRendererGLES20.draw() does before ours: its own program, straight to GL. */
+    private void drawBase() {
+        gl.glUseProgram(BASE_PROGRAM);
+        gl.glEnableVertexAttribArray(POSITION);
+    }
+
+    private void drawOwn() {
+        glState.enable(GLES20.GL_DEPTH_TEST);
+        glState.bindTexture(GLES20.GL_TEXTURE0, GLES20.GL_TEXTURE_2D, 5);
+        glState.useProgram(PROGRAM);
+        glState.enableVertexAttribArray(POSITION);
+    }
+
+    /** The program the recorder last saw made current. */
+    private int currentProgram() {
+        int program = 0;
+        for (int i = 0; i < gl.getCallCount(); i++) {
+            if (gl.getCall(i).equals("glUseProgram")) {
+                program = gl.getArgument(i, 0);
+            }
+        }
+        return program;
+    }
+
+    @Test
+    public void programIsBoundAgainAfterBaseRenderer() {
+        for (int frame = 0; frame < 2; frame++) {
+            gl.clear();
+            drawBase();
+            glState.invalidateProgram();
+            drawOwn();
+
+            assertEquals("frame " + frame, PROGRAM, currentProgram());
+            assertEquals("frame " + frame, 2, gl.count("glUseProgram"));
+            assertEquals("frame " + frame, 2, gl.count("glEnableVertexAttribArray"));
+        }
+
+        // Everything else is still shadowed.
+        assertEquals(0, gl.count("glEnable"));
+        assertEquals(0, gl.count("glBindTexture"));
+    }
+
+    @Test
+    public void outsideProgramGoesUnnoticedWithoutInvalidation() {
+        drawOwn();
+
+        gl.clear();
+        drawBase();
+        drawOwn();
+        assertEquals(BASE_PROGRAM, currentProgram());
+    }
+
+    @Test
+    public void onlyCallsThatReachGlAreCounted() {
+        final CountingGl counting = new CountingGl(gl);
+        final GlState countedState = new GlState(counting);
+
+        for (int frame = 0; frame < 3; frame++) {
+            countedState.bindTexture(GLES20.GL_TEXTURE0, GLES20.GL_TEXTURE_2D, 5);
+            countedState.useProgram(PROGRAM);
+            counting.glUniform1i(0, 0);
+            counting.glDrawElements(GLES20.GL_TRIANGLES, 6, GLES20.GL_UNSIGNED_SHORT, 0);
+        }
+
+        assertEquals(1, counting.getTextureBinds());
+        assertEquals(1, counting.getPrograms());
+        assertEquals(3, counting.getUniforms());
+        assertEquals(3, counting.getDrawCalls());
+
+        counting.resetCounters();
+        assertEquals(0, counting.getDrawCalls());
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.denys.newvr.gl;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link Gl} without a context that logs each call by name with its first two int arguments.
+ * <p>
+ * Stands in for the driver as far as the render paths need one: object names count up from 1,
+ * there are never errors, framebuffers are complete and each uniform or attribute name gets a
+ * location of its own. Recording allocates nothing, so it does not disturb allocation counts.
+ */
+public class RecordingGl implements Gl {
+
+    /** Calls logged at most between two {@link #clear()}s, later ones are only counted. */
+    private static final int CAPACITY = 4096;
+
+    private final String[] mCalls = new String[CAPACITY];
+    private final int[] mArguments = new int[CAPACITY * 2];
+    private int mCallCount;
+
+    private final Map<String, Integer> mLocations = new HashMap<String, Integer>();
+    private int mNextName = 1;
+
+    /**
+     * Forget the logged calls.
+     */
+    public void clear() {
+        mCallCount = 0;
+    }
+
+    /**
+     * @return Calls made since the last {@link #clear()}
+     */
+    public int getCallCount() {
+        return mCallCount;
+    }
+
+    /**
+     * @return Name of a logged call, like "glDrawElements"
+     */
+    public String getCall(int index) {
+        return mCalls[index];
+    }
+
+    /**
+     * @param argument 0 or 1
+     */
+    public int getArgument(int index, int argument) {
+        return mArguments[index * 2 + argument];
+    }
+
+    /**
+     * @return How many logged calls have that name
+     */
+    public int count(String call) {
+        int count = 0;
+        for (int i = 0; i < Math.min(mCallCount, CAPACITY); i++) {
+            if (mCalls[i].equals(call)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Uniform and attribute locations looked up by name
+     */
+    public int countLookups() {
+        return count("glGetUniformLocation") + count("glGetAttribLocation");
+    }
+
+    private void record(String call, int first, int second) {
+        if (mCallCount < CAPACITY) {
+            mCalls[mCallCount] = call;
+            mArguments[mCallCount * 2] = first;
+            mArguments[mCallCount * 2 + 1] = second;
+        }
+        mCallCount++;
+    }
+
+    private void generate(String call, int n, int[] names, int offset) {
+        record(call, n, 0);
+        for (int i = 0; i < n; i++) {
+            names[offset + i] = mNextName++;
+        }
+    }
+
+    private int locate(String call, int program, String name) {
+        record(call, program, 0);
+        Integer location = mLocations.get(name);
+        if (location == null) {
+            location = mLocations.size();
+            mLocations.put(name, location);
+        }
+        return location;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        record("glClear", mask, 0);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        record("glClearColor", 0, 0);
+    }
+
+    @Override
+    public void glEnable(int capability) {
+        record("glEnable", capability, 0);
+    }
+
+    @Override
+    public void glDisable(int capability) {
+        record("glDisable", capability, 0);
+    }
+
+    @Override
+    public boolean glIsEnabled(int capability) {
+        record("glIsEnabled", capability, 0);
+        return false;
+    }
+
+    @Override
+    public void glFrontFace(int mode) {
+        record("glFrontFace", mode, 0);
+    }
+
+    @Override
+    public void glBlendFunc(int source, int destination) {
+        record("glBlendFunc", source, destination);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        record("glViewport", width, height);
+    }
+
+    @Override
+    public int glGetError() {
+        record("glGetError", 0, 0);
+        return GLES20.GL_NO_ERROR;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record("glUseProgram", program, 0);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        record("glDeleteProgram", program, 0);
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        record("glBindAttribLocation", program, index);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return locate("glGetAttribLocation", program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return locate("glGetUniformLocation", program, name);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        record("glUniform1i", location, x);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        record("glUniform1f", location, 0);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y) {
+        record("glUniform2f", location, 0);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        record("glUniformMatrix4fv", location, count);
+    }
+
+    @Override
+    public void glActiveTexture(int unit) {
+        record("glActiveTexture", unit, 0);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        generate("glGenTextures", n, textures, offset);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        record("glDeleteTextures", n, textures[offset]);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record("glBindTexture", target, texture);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int name, int param) {
+        record("glTexParameteri", name, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        record("glTexImage2D", width, height);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        generate("glGenFramebuffers", n, framebuffers, offset);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        record("glDeleteFramebuffers", n, framebuffers[offset]);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        record("glBindFramebuffer", target, framebuffer);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+        record("glFramebufferTexture2D", attachment, texture);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        record("glCheckFramebufferStatus", target, 0);
+        return GLES20.GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        generate("glGenBuffers", n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        record("glDeleteBuffers", n, buffers[offset]);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record("glBindBuffer", target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        record("glBufferData", target, size);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        record("glBufferSubData", target, size);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record("glEnableVertexAttribArray", index, 0);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record("glDisableVertexAttribArray", index, 0);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer data) {
+        record("glVertexAttribPointer", index, size);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        record("glVertexAttribPointer", index, size);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        record("glDrawElements", mode, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        record("glDrawElements", mode, count);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.denys.newvr.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bucketed percentiles against sorting the same samples.
+ */
+public class SampleRingTest {
+
+    /** Nearest rank percentile of sorted samples. */
+    private static long sortedPercentile(long[] sorted, double percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    @Test
+    public void bucketsCoverValuesInOrder() {
+        for (long value = 0; value < 1000000; value++) {
+            final int bucket = SampleRing.bucketOf(value);
+            final long lower = SampleRing.lowerBound(bucket);
+            assertTrue("value " + value, lower <= value);
+            assertTrue("value " + value, value - lower <= value / SampleRing.SUB_BUCKETS);
+            assertEquals("value " + value, bucket, SampleRing.bucketOf(lower));
+        }
+    }
+
+    @Test
+    public void smallCountsAreExact() {
+        final SampleRing ring = new SampleRing(100);
+        for (int i = 1; i <= 20; i++) {
+            ring.add(i);
+        }
+        assertEquals(10, ring.percentile(50));
+        assertEquals(19, ring.percentile(95));
+        assertEquals(20, ring.percentile(100));
+    }
+
+    @Test
+    public void percentilesFollowTheKeptSamples() {
+        final int capacity = 300;
+        final SampleRing ring = new SampleRing(capacity);
+        final long[] samples = new long[1000];
+        final Random random = new Random(7);
+        for (int i = 0; i < samples.length; i++) {
+            // Frame times around 8 ms with a long tail.
+            samples[i] = 4000000L + (long) (random.nextDouble() * random.nextDouble() * 30000000L);
+            ring.add(samples[i]);
+        }
+
+        final long[] kept = Arrays.copyOfRange(samples, samples.length - capacity, samples.length);
+        Arrays.sort(kept);
+        assertEquals(capacity, ring.size());
+        for (double percentile : new double[]{50, 95, 99}) {
+            final long expected = sortedPercentile(kept, percentile);
+            final long actual = ring.percentile(percentile);
+            assertTrue("p" + percentile + " " + actual, actual <= expected);
+            assertTrue("p" + percentile + " " + actual, expected - actual <= expected / SampleRing.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void clearEmptiesTheBuckets() {
+        final SampleRing ring = new SampleRing(10);
+        ring.add(1000);
+        ring.clear();
+        assertEquals(0, ring.percentile(50));
+        ring.add(3);
+        assertEquals(3, ring.percentile(99));
+    }
+}
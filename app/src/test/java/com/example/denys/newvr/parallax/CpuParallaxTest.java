@@ -0,0 +1,238 @@
+package com.example.denys.newvr.parallax;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the CPU reference of depth_perspective.frag against known properties and golden images.
+ * <p>
+ * Golden images live in {@code src/test/resources/golden}. After an intended change of the
+ * algorithm, regenerate them by running the tests from the module directory with
+ * {@code -Dgolden.update=true} and review the new images before committing them.
+ */
+public class CpuParallaxTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private static final float SCALE = 0.07f;
+    private static final float FOCUS = 0.5f;
+
+    /** The shader's UPSCALE and COMPRESSION, and the depth range they leave. */
+    private static final float UPSCALE = 1.06f;
+    private static final float COMPRESSION = 0.8f;
+    private static final float DMIN = (1.0f - COMPRESSION) / 2.0f;
+    private static final float DMAX = (1.0f + COMPRESSION) / 2.0f;
+
+    /** Gradient with a checkerboard in blue, so displacement is visible in every channel. */
+    private static int[] color() {
+        final int[] color = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int blue = ((x / 8 + y / 8) % 2) * 255;
+                color[y * WIDTH + x] = 0xff000000 | (x * 4) << 16 | (y * 5) << 8 | blue;
+            }
+        }
+        return color;
+    }
+
+    /** A near disc in front of a receding slope. */
+    private static int[] depth() {
+        final int[] depth = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int dx = x - WIDTH / 2;
+                final int dy = y - HEIGHT / 2;
+                final int red = dx * dx + dy * dy < 12 * 12 ? 220 : 40 + y * 2;
+                depth[y * WIDTH + x] = 0xff000000 | red << 16 | red << 8 | red;
+            }
+        }
+        return depth;
+    }
+
+    /** The same red everywhere. */
+    private static int[] flatDepth(int red) {
+        final int[] depth = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < depth.length; i++) {
+            depth[i] = 0xff000000 | red << 16 | red << 8 | red;
+        }
+        return depth;
+    }
+
+    private static int[] render(int quality, boolean emptySkip, float offsetX, float offsetY) {
+        final CpuParallax parallax = new CpuParallax(color(), WIDTH, HEIGHT, depth(), WIDTH, HEIGHT);
+        parallax.setEmptySkip(emptySkip);
+        final int[] out = new int[WIDTH * HEIGHT];
+        parallax.render(CpuParallax.Preset.forQuality(quality), offsetX, offsetY, FOCUS, SCALE, out, WIDTH, HEIGHT);
+        return out;
+    }
+
+    @Test
+    public void zeroOffsetShowsUndisplacedColor() throws Exception {
+        final int[] color = color();
+
+        for (int quality = 2; quality <= 5; quality++) {
+            final int[] out = render(quality, false, 0.0f, 0.0f);
+
+            for (int y = 0; y < HEIGHT; y++) {
+                final float posY = ((y + 0.5f) / HEIGHT - 0.5f) / 1.06f + 0.5f;
+                for (int x = 0; x < WIDTH; x++) {
+                    final float posX = ((x + 0.5f) / WIDTH - 0.5f) / 1.06f + 0.5f;
+                    final int expected = color[(int) (posY * HEIGHT) * WIDTH + (int) (posX * WIDTH)];
+                    assertEquals("QUALITY " + quality + " at " + x + "," + y, expected, out[y * WIDTH + x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Over flat depth D every hit of the march lands on the same spot. A hit at step i has
+     * {@code vpos = pos + vector1 - i * vstep} and {@code dpos = DMAX - i * dstep}, and CORRECT moves
+     * it by {@code (D - dpos) / dstep} steps, so i cancels out and the sample is
+     * {@code pos + vector1 - (DMAX - D) / COMPRESSION * (vector1 - vector0)}. With
+     * {@code vector1 - vector0 = offset * scale2} and {@code vector1 = (1 - focus) * offset * scale2}
+     * that is a pure shift by {@code (1 - focus - (DMAX - D) / COMPRESSION) * offset * scale2}.
+     */
+    @Test
+    public void flatDepthShiftsByTheOffset() throws Exception {
+        final float[][] offsets = {{1.0f, 0.0f}, {0.0f, -1.0f}, {0.6f, 0.8f}};
+        // Nearest and farthest, both clamped, and one in between.
+        final int[] reds = {255, 0, 128};
+
+        for (int quality = 2; quality <= 5; quality++) {
+            for (int red : reds) {
+                final float depth = Math.min(Math.max(1.0f - red / 255.0f, DMIN), DMAX);
+                final float shift = 1.0f - FOCUS - (DMAX - depth) / COMPRESSION;
+                for (float[] offset : offsets) {
+                    assertShifted("QUALITY " + quality + " red " + red, quality, flatDepth(red), FOCUS,
+                            offset[0], offset[1], shift);
+                }
+            }
+        }
+    }
+
+    /**
+     * The focus is the depth that stays in place: flat depth at the focus is not shifted by any
+     * offset, by the derivation above.
+     */
+    @Test
+    public void flatDepthAtTheFocusStaysInPlace() throws Exception {
+        final int red = 100;
+        final float focus = 1.0f - (DMAX - (1.0f - red / 255.0f)) / COMPRESSION;
+
+        for (int quality = 2; quality <= 5; quality++) {
+            assertShifted("QUALITY " + quality, quality, flatDepth(red), focus, 1.0f, -1.0f, 0.0f);
+        }
+    }
+
+    /**
+     * Check that every pixel shows the color at its position moved by {@code shift} times the
+     * offset in scale2, the scale enlarged by the preset and flipped on y. Pixels whose sample lies
+     * within rounding of a texel edge are left out.
+     */
+    private static void assertShifted(String message, int quality, int[] depth, float focus,
+                                      float offsetX, float offsetY, float shift) {
+        final int[] color = color();
+        final CpuParallax.Preset preset = CpuParallax.Preset.forQuality(quality);
+        final CpuParallax parallax = new CpuParallax(color, WIDTH, HEIGHT, depth, WIDTH, HEIGHT);
+        final int[] out = new int[WIDTH * HEIGHT];
+        parallax.render(preset, offsetX, offsetY, focus, SCALE, out, WIDTH, HEIGHT);
+
+        final float shiftX = shift * offsetX * SCALE * preset.enlarge;
+        final float shiftY = shift * offsetY * -SCALE * preset.enlarge;
+        int checked = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            final double sampleY = ((((y + 0.5) / HEIGHT - 0.5) / UPSCALE + 0.5) + shiftY) * HEIGHT;
+            for (int x = 0; x < WIDTH; x++) {
+                final double sampleX = ((((x + 0.5) / WIDTH - 0.5) / UPSCALE + 0.5) + shiftX) * WIDTH;
+                if (nearEdge(sampleX) || nearEdge(sampleY)) {
+                    continue;
+                }
+                final int expected = color[clampedTexel(sampleY, HEIGHT) * WIDTH + clampedTexel(sampleX, WIDTH)];
+                assertEquals(message + " offset " + offsetX + "," + offsetY + " at " + x + "," + y,
+                        expected, out[y * WIDTH + x]);
+                checked++;
+            }
+        }
+        assertTrue(message, checked > WIDTH * HEIGHT * 9 / 10);
+    }
+
+    private static boolean nearEdge(double texels) {
+        return Math.abs(texels - Math.rint(texels)) < 0.001;
+    }
+
+    private static int clampedTexel(double texels, int size) {
+        return (int) Math.max(0, Math.min(size - 1, Math.floor(texels)));
+    }
+
+    @Test
+    public void emptySkipDoesNotChangeTheResult() throws Exception {
+        final float[][] offsets = {{0.7f, -0.5f}, {-1.0f, 0.0f}, {0.0f, 1.0f}, {0.3f, 0.9f}};
+
+        for (int quality = 2; quality <= 5; quality++) {
+            for (float[] offset : offsets) {
+                assertArrayEquals("QUALITY " + quality + " offset " + offset[0] + "," + offset[1],
+                        render(quality, false, offset[0], offset[1]),
+                        render(quality, true, offset[0], offset[1]));
+            }
+        }
+    }
+
+    @Test
+    public void parallelRowsMatchOneBand() throws Exception {
+        final CpuParallax parallax = new CpuParallax(color(), WIDTH, HEIGHT, depth(), WIDTH, HEIGHT);
+        final CpuParallax.Preset preset = CpuParallax.Preset.forQuality(4);
+        final int[] parallel = new int[WIDTH * HEIGHT];
+        final int[] sequential = new int[WIDTH * HEIGHT];
+
+        parallax.render(preset, 0.7f, -0.5f, FOCUS, SCALE, parallel, WIDTH, HEIGHT);
+        parallax.renderRows(preset, 0.7f, -0.5f, FOCUS, SCALE, sequential, WIDTH, HEIGHT, 0, HEIGHT);
+
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test
+    public void matchesGoldenImages() throws Exception {
+        for (int quality = 2; quality <= 5; quality++) {
+            final int[] out = render(quality, false, 0.7f, -0.5f);
+            final String name = "quality" + quality + ".png";
+
+            if (Boolean.getBoolean("golden.update")) {
+                writeGolden(name, out);
+                continue;
+            }
+
+            assertArrayEquals("QUALITY " + quality + " differs from golden/" + name, readGolden(name), out);
+        }
+    }
+
+    private static int[] readGolden(String name) throws IOException {
+        final InputStream stream = CpuParallaxTest.class.getResourceAsStream("/golden/" + name);
+        assertNotNull("Missing golden/" + name, stream);
+        try {
+            final BufferedImage image = ImageIO.read(stream);
+            assertEquals(WIDTH, image.getWidth());
+            assertEquals(HEIGHT, image.getHeight());
+            return image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void writeGolden(String name, int[] pixels) throws IOException {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+        ImageIO.write(image, "png", new File("src/test/resources/golden", name));
+    }
+}
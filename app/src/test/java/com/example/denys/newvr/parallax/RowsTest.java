@@ -0,0 +1,65 @@
+package com.example.denys.newvr.parallax;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that bands cover every row once, also when a band splits its rows again while other
+ * threads keep the pool busy.
+ */
+public class RowsTest {
+
+    private static final int ROWS = 64;
+
+    /** Callers at once, like the decode workers, enough to occupy every pool thread. */
+    private static final int CALLERS = 2;
+
+    /** Splits the rows, and each row's columns again from within the band. */
+    private static void visitNested(final AtomicIntegerArray visits) {
+        Rows.forEach(ROWS, 1, new Rows.Task() {
+            @Override
+            public void run(int fromRow, int toRow) {
+                for (int row = fromRow; row < toRow; row++) {
+                    final int outer = row;
+                    Rows.forEach(ROWS, 1, new Rows.Task() {
+                        @Override
+                        public void run(int fromColumn, int toColumn) {
+                            for (int column = fromColumn; column < toColumn; column++) {
+                                visits.incrementAndGet(outer * ROWS + column);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @Test(timeout = 10000)
+    public void nestedBandsCoverEveryRowOnce() throws InterruptedException {
+        final AtomicIntegerArray[] visits = new AtomicIntegerArray[CALLERS];
+        final Thread[] callers = new Thread[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            final AtomicIntegerArray callerVisits = new AtomicIntegerArray(ROWS * ROWS);
+            visits[i] = callerVisits;
+            callers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    visitNested(callerVisits);
+                }
+            });
+            callers[i].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        for (AtomicIntegerArray callerVisits : visits) {
+            for (int i = 0; i < callerVisits.length(); i++) {
+                assertEquals("cell " + i, 1, callerVisits.get(i));
+            }
+        }
+    }
+}
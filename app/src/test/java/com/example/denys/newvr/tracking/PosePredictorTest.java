@@ -0,0 +1,162 @@
+package com.example.denys.newvr.tracking;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the pose filter and prediction on synthetic marker tracks, at the camera rate.
+ */
+public class PosePredictorTest {
+
+    /** 30 camera frames per second. */
+    private static final long FRAME_NANOS = 33333333L;
+
+    /** Column major rotation about z by an angle, then a translation. */
+    private static float[] pose(float angle, float x, float y, float z) {
+        final float cos = (float) Math.cos(angle);
+        final float sin = (float) Math.sin(angle);
+        return new float[]{
+                cos, sin, 0.0f, 0.0f,
+                -sin, cos, 0.0f, 0.0f,
+                0.0f, 0.0f, 1.0f, 0.0f,
+                x, y, z, 1.0f
+        };
+    }
+
+    @Test
+    public void stillPosePassesUnchanged() {
+        final PosePredictor predictor = new PosePredictor();
+        final float[] pose = pose(0.3f, 10.0f, -20.0f, 300.0f);
+        final float[] predicted = new float[16];
+
+        for (int frame = 0; frame < 30; frame++) {
+            predictor.update(pose, 0, frame * FRAME_NANOS);
+            predictor.predict(frame * FRAME_NANOS + FRAME_NANOS, predicted);
+            assertArrayEquals("frame " + frame, pose, predicted, 1e-4f);
+        }
+    }
+
+    @Test
+    public void quaternionRoundTrips() {
+        final float[] quaternion = new float[4];
+        final float[] back = new float[16];
+        final PosePredictor predictor = new PosePredictor();
+
+        // Angles that take each branch of the conversion, including half turns.
+        final float[] angles = {0.0f, 1.0f, 2.5f, (float) Math.PI, -2.9f};
+        for (float angle : angles) {
+            final float[] pose = pose(angle, 1.0f, 2.0f, 3.0f);
+            PosePredictor.toQuaternion(pose, 0, quaternion);
+            predictor.reset();
+            predictor.update(pose, 0, 0L);
+            predictor.predict(0L, back);
+            assertArrayEquals("angle " + angle, pose, back, 1e-5f);
+        }
+
+        // A rotation about x, so the largest diagonal element is not the last.
+        final float[] pose = {1, 0, 0, 0, 0, -1, 0, 0, 0, 0, -1, 0, 0, 0, 0, 1};
+        PosePredictor.toQuaternion(pose, 0, quaternion);
+        assertEquals(1.0f, Math.abs(quaternion[0]), 1e-6f);
+    }
+
+    @Test
+    public void jitterIsSmoothed() {
+        final PosePredictor predictor = new PosePredictor();
+        final Random random = new Random(1);
+        final float[] predicted = new float[16];
+
+        float rawError = 0.0f;
+        float filteredError = 0.0f;
+        for (int frame = 0; frame < 300; frame++) {
+            final float noise = (float) random.nextGaussian() * 2.0f;
+            final float[] pose = pose((float) random.nextGaussian() * 0.01f, noise, 0.0f, 300.0f);
+            predictor.update(pose, 0, frame * FRAME_NANOS);
+            predictor.predict(frame * FRAME_NANOS, predicted);
+            if (frame >= 30) {
+                rawError += noise * noise;
+                filteredError += predicted[12] * predicted[12];
+            }
+        }
+        assertTrue("filtered " + filteredError + " raw " + rawError, filteredError < rawError * 0.25f);
+    }
+
+    @Test
+    public void movingMarkerIsPredictedAhead() {
+        final PosePredictor predictor = new PosePredictor();
+        final float[] predicted = new float[16];
+
+        // 200 mm/s sideways while turning at 1 rad/s, predicted one frame after each detection.
+        float lagged = 0.0f;
+        float predictedError = 0.0f;
+        float rotationError = 0.0f;
+        for (int frame = 0; frame < 90; frame++) {
+            final float seconds = frame * FRAME_NANOS / 1e9f;
+            predictor.update(pose(seconds, 200.0f * seconds, 0.0f, 300.0f), 0, frame * FRAME_NANOS);
+            predictor.predict((frame + 1) * FRAME_NANOS, predicted);
+
+            if (frame >= 60) {
+                final float next = (frame + 1) * FRAME_NANOS / 1e9f;
+                lagged += Math.abs(200.0f * next - 200.0f * seconds);
+                predictedError += Math.abs(200.0f * next - predicted[12]);
+                rotationError += Math.abs((float) Math.sin(next) - predicted[1]);
+            }
+        }
+        assertTrue("predicted " + predictedError + " lagged " + lagged, predictedError < lagged * 0.25f);
+        assertTrue("rotation " + rotationError, rotationError / 30 < 0.01f);
+    }
+
+    @Test
+    public void predictionIsLimited() {
+        final PosePredictor predictor = new PosePredictor();
+        final float[] near = new float[16];
+        final float[] far = new float[16];
+        for (int frame = 0; frame < 30; frame++) {
+            predictor.update(pose(0.0f, frame * 10.0f, 0.0f, 300.0f), 0, frame * FRAME_NANOS);
+        }
+
+        final long last = 29 * FRAME_NANOS;
+        predictor.predict(last + PosePredictor.MAX_PREDICTION_NANOS, near);
+        predictor.predict(last + 10 * PosePredictor.MAX_PREDICTION_NANOS, far);
+        assertArrayEquals(near, far, 0.0f);
+    }
+
+    @Test
+    public void updateAndPredictDoNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        final long thread = Thread.currentThread().getId();
+
+        final PosePredictor predictor = new PosePredictor();
+        final float[] poses = new float[16 * 64];
+        for (int i = 0; i < 64; i++) {
+            System.arraycopy(pose(i * 0.05f, i, -i, 300.0f), 0, poses, i * 16, 16);
+        }
+        final float[] predicted = new float[16];
+
+        // Warm up, so class loading and compilation don't count.
+        for (int frame = 0; frame < 20000; frame++) {
+            predictor.update(poses, (frame % 64) * 16, frame * FRAME_NANOS);
+            predictor.predict(frame * FRAME_NANOS + FRAME_NANOS, predicted);
+        }
+
+        final long before = allocations.getThreadAllocatedBytes(thread);
+        for (int frame = 20000; frame < 30000; frame++) {
+            predictor.update(poses, (frame % 64) * 16, frame * FRAME_NANOS);
+            predictor.predict(frame * FRAME_NANOS + FRAME_NANOS, predicted);
+        }
+        final long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        // Far below a single pose per frame, reading the counter itself may take a few bytes.
+        assertTrue("allocated " + allocated, allocated < 1024);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.denys.newvr.benchmarks;
+
+import com.example.denys.newvr.parallax.CpuParallax;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * One frame of the CPU parallax on the app's images, per QUALITY preset, with and without
+ * EMPTYSKIP. Rendered on a single thread so results don't depend on the machine's core count.
+ */
+@State(Scope.Thread)
+public class CpuParallaxBenchmark {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Param({"2", "3", "4", "5"})
+    public int quality;
+
+    @Param({"false", "true"})
+    public boolean emptySkip;
+
+    private CpuParallax mParallax;
+    private CpuParallax.Preset mPreset;
+    private final int[] mOut = new int[WIDTH * HEIGHT];
+
+    @Setup
+    public void setUp() throws IOException {
+        final BufferedImage color = Resources.image("drawable/mango.jpg");
+        final BufferedImage depth = Resources.image("drawable/mango_depthmap.jpg");
+        mParallax = new CpuParallax(Resources.argb(color), color.getWidth(), color.getHeight(),
+                Resources.argb(depth), depth.getWidth(), depth.getHeight());
+        mParallax.setEmptySkip(emptySkip);
+        mPreset = CpuParallax.Preset.forQuality(quality);
+    }
+
+    @Benchmark
+    public int[] frame() {
+        mParallax.renderRows(mPreset, 0.6f, -0.3f, 0.5f, 0.07f, mOut, WIDTH, HEIGHT, 0, HEIGHT);
+        return mOut;
+    }
+}
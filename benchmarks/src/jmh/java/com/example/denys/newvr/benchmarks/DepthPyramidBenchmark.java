@@ -0,0 +1,38 @@
+package com.example.denys.newvr.benchmarks;
+
+import com.example.denys.newvr.parallax.DepthPyramid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Building the max depth pyramid and the dilated block level EMPTYSKIP marches against, from the
+ * app's depth map.
+ */
+@State(Scope.Thread)
+public class DepthPyramidBenchmark {
+
+    private static final int SKIP_LEVEL = 3;
+
+    private int[] mDepth;
+    private int mWidth;
+    private int mHeight;
+
+    @Setup
+    public void setUp() throws IOException {
+        final BufferedImage depth = Resources.image("drawable/mango_depthmap.jpg");
+        mDepth = Resources.argb(depth);
+        mWidth = depth.getWidth();
+        mHeight = depth.getHeight();
+    }
+
+    @Benchmark
+    public byte[] emptySkipBlocks() {
+        return DepthPyramid.fromArgb(mDepth, mWidth, mHeight, SKIP_LEVEL + 1).dilate(SKIP_LEVEL);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.denys.newvr.benchmarks;
+
+import com.example.denys.newvr.tracking.PoseMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The per frame marker math of {@code ParallaxARRenderer.draw}: the view offset from the pose and
+ * the quad's MVP matrix. Both must stay allocation free.
+ */
+@State(Scope.Thread)
+public class PoseMathBenchmark {
+
+    private static final float MAX_VIEW_ANGLE = (float) Math.toRadians(35.0);
+
+    private final float[] mProjection = new float[16];
+    private final float[] mPose = new float[16];
+    private final float[] mMVPMatrix = new float[16];
+    private final float[] mOffset = new float[2];
+
+    @Setup
+    public void setUp() {
+        // A perspective projection, 60 degrees vertical, 4:3, near 10 mm, far 10 m.
+        final float f = (float) (1.0 / Math.tan(Math.toRadians(30.0)));
+        mProjection[0] = f / (4.0f / 3.0f);
+        mProjection[5] = f;
+        mProjection[10] = -(10000.0f + 10.0f) / (10000.0f - 10.0f);
+        mProjection[11] = -1.0f;
+        mProjection[14] = -2.0f * 10000.0f * 10.0f / (10000.0f - 10.0f);
+
+        // The marker 400 mm in front of the camera, turned 20 degrees about y and 10 about x.
+        final double a = Math.toRadians(20.0);
+        final double b = Math.toRadians(10.0);
+        mPose[0] = (float) Math.cos(a);
+        mPose[2] = (float) -Math.sin(a);
+        mPose[4] = (float) (Math.sin(a) * Math.sin(b));
+        mPose[5] = (float) Math.cos(b);
+        mPose[6] = (float) (Math.cos(a) * Math.sin(b));
+        mPose[8] = (float) (Math.sin(a) * Math.cos(b));
+        mPose[9] = (float) -Math.sin(b);
+        mPose[10] = (float) (Math.cos(a) * Math.cos(b));
+        mPose[12] = 15.0f;
+        mPose[13] = -20.0f;
+        mPose[14] = -400.0f;
+        mPose[15] = 1.0f;
+    }
+
+    @Benchmark
+    public float[] markerTransform() {
+        PoseMath.viewOffset(mPose, MAX_VIEW_ANGLE, mOffset);
+        PoseMath.multiplyScaled(mMVPMatrix, mProjection, mPose, 80.0f, 60.0f, 1.0f);
+        return mMVPMatrix;
+    }
+}
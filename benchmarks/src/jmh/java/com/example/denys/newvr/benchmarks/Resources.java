@@ -0,0 +1,53 @@
+package com.example.denys.newvr.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The app's resources, copied onto the benchmark classpath by the build.
+ */
+final class Resources {
+
+    private Resources() {
+    }
+
+    static byte[] bytes(String name) throws IOException {
+        final InputStream in = open(name);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static BufferedImage image(String name) throws IOException {
+        final InputStream in = open(name);
+        try {
+            return ImageIO.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static int[] argb(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static InputStream open(String name) throws IOException {
+        final InputStream in = Resources.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        return in;
+    }
+}
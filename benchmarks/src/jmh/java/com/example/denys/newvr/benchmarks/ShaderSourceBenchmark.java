@@ -0,0 +1,68 @@
+package com.example.denys.newvr.benchmarks;
+
+import com.example.denys.newvr.shader.ShaderPreprocessor;
+import com.example.denys.newvr.shader.ShaderSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reading the shader sources and assembling a variant per QUALITY preset, as
+ * {@code NewVrRenderer.onSurfaceCreated} does before handing them to the program cache: once from
+ * scratch, and once more with the sources already read, like a runtime define switch.
+ */
+@State(Scope.Thread)
+public class ShaderSourceBenchmark {
+
+    private static final String VERTEX_SHADER = "vertex_shader.vert";
+    private static final String DEPTH_SHADER = "depth_perspective.frag";
+
+    private byte[] mFragment;
+    private ShaderPreprocessor mWarm;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFragment = Resources.bytes("raw/" + DEPTH_SHADER);
+        mWarm = newPreprocessor();
+        mWarm.getSource(VERTEX_SHADER);
+        mWarm.getSource(DEPTH_SHADER);
+    }
+
+    private static ShaderPreprocessor newPreprocessor() {
+        return new ShaderPreprocessor(new ShaderPreprocessor.Loader() {
+            @Override
+            public InputStream open(String name) throws IOException {
+                return new ByteArrayInputStream(Resources.bytes("raw/" + name));
+            }
+        });
+    }
+
+    @Benchmark
+    public String read() {
+        return ShaderSource.read(new ByteArrayInputStream(mFragment));
+    }
+
+    @Benchmark
+    public void assembleCold(Blackhole blackhole) {
+        assemble(newPreprocessor(), blackhole);
+    }
+
+    @Benchmark
+    public void assembleWarm(Blackhole blackhole) {
+        assemble(mWarm, blackhole);
+    }
+
+    private static void assemble(ShaderPreprocessor preprocessor, Blackhole blackhole) {
+        blackhole.consume(preprocessor.getVariant(VERTEX_SHADER));
+        for (int level = 2; level <= 5; level++) {
+            blackhole.consume(preprocessor.getVariant(DEPTH_SHADER, "QUALITY " + level, "EMPTYSKIP", "PACKED"));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.denys.newvr.benchmarks;
+
+import com.example.denys.newvr.gl.NativeBuffers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building the direct buffers of the full screen square, as the {@code NewVrRenderer} constructor
+ * does through {@code StaticMesh}.
+ */
+@State(Scope.Thread)
+public class VertexBufferBenchmark {
+
+    // X, Y, Z, U, V, the same data as NewVrRenderer.
+    private final float[] mVertices = {
+            -1.0f, 1.0f, 0.0f,      0.0f, 0.0f,
+            -1.0f, -1.0f, 0.0f,     0.0f, 1.0f,
+            1.0f, 1.0f, 0.0f,       1.0f, 0.0f,
+            1.0f, -1.0f, 0.0f,      1.0f, 1.0f
+    };
+
+    private final short[] mIndices = {
+            0, 1, 2,
+            1, 3, 2
+    };
+
+    @Benchmark
+    public void square(Blackhole blackhole) {
+        blackhole.consume(NativeBuffers.of(mVertices));
+        blackhole.consume(NativeBuffers.of(mIndices));
+    }
+}